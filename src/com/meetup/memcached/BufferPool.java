@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared pool of direct ByteBuffers for socket reads and writes.
+ *
+ * Reading into or writing from a heap buffer makes the JDK copy the<br/>
+ * data through a temporary direct buffer.  Direct buffers avoid that<br/>
+ * copy but are expensive to allocate, so they are kept here for<br/>
+ * reuse.  Buffers come in a few size classes; a request is served<br/>
+ * from the smallest class which fits.  Requests larger than the<br/>
+ * largest class get a plain heap buffer, which is not pooled.<br/>
+ *<br/>
+ * Only a bounded number of buffers is kept per class, the rest are<br/>
+ * left to the garbage collector when they are released.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+final class BufferPool {
+
+	// size classes and how many buffers of each are kept
+	private static final int[] SIZES    = { 8192, 32768, 262144 };
+	private static final int[] MAX_IDLE = { 256, 64, 8 };
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static final ConcurrentLinkedQueue<ByteBuffer>[] idle = new ConcurrentLinkedQueue[ SIZES.length ];
+	private static final AtomicInteger[] idleCount = new AtomicInteger[ SIZES.length ];
+
+	static {
+		for ( int i = 0; i < SIZES.length; i++ ) {
+			idle[i]      = new ConcurrentLinkedQueue<ByteBuffer>();
+			idleCount[i] = new AtomicInteger();
+		}
+	}
+
+	private BufferPool() {}
+
+	/**
+	 * Gets a cleared buffer of at least the given size.
+	 *
+	 * @param size bytes needed
+	 * @return direct buffer from the pool, or a heap buffer if size is above the largest class
+	 */
+	static ByteBuffer acquire( int size ) {
+		int c = sizeClass( size );
+		if ( c < 0 )
+			return ByteBuffer.allocate( size );
+
+		ByteBuffer buf = idle[c].poll();
+		if ( buf == null )
+			return ByteBuffer.allocateDirect( SIZES[c] );
+
+		idleCount[c].decrementAndGet();
+		buf.clear();
+		return buf;
+	}
+
+	/**
+	 * Hands a buffer back to the pool.
+	 *
+	 * The buffer must not be used by the caller afterwards.
+	 *
+	 * @param buf buffer from acquire, may be null
+	 */
+	static void release( ByteBuffer buf ) {
+		if ( buf == null || !buf.isDirect() )
+			return;
+
+		int c = sizeClass( buf.capacity() );
+		if ( c < 0 || SIZES[c] != buf.capacity() )
+			return;
+
+		if ( idleCount[c].incrementAndGet() > MAX_IDLE[c] ) {
+			idleCount[c].decrementAndGet();
+			return;
+		}
+
+		idle[c].offer( buf );
+	}
+
+	/**
+	 * Returns the largest buffer size served from the pool.
+	 *
+	 * @return size in bytes
+	 */
+	static int maxPooledSize() {
+		return SIZES[ SIZES.length - 1 ];
+	}
+
+	private static int sizeClass( int size ) {
+		for ( int i = 0; i < SIZES.length; i++ ) {
+			if ( size <= SIZES[i] )
+				return i;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+/**
+ * A cache key encoded once for reuse across many calls.
+ *
+ * With a String key every call sanitizes the key, hashes it to pick<br/>
+ * a server (converting it to bytes), and converts it to bytes again<br/>
+ * for the command.  A CacheKey holds the sanitized key and its bytes,<br/>
+ * and remembers the hash it routed to, so keys used over and over,<br/>
+ * like those of hot items, are only encoded once.
+ * <h3>To get a key over and over:</h3>
+ * <pre>
+ *	CacheKey key = mc.getCacheKey( "user:42" );
+ *	Object value = mc.get( key );
+ * </pre>
+ * CacheKeys are created by a client and are sanitized according to<br/>
+ * its settings; a client with other settings encodes them again.<br/>
+ * They are immutable and can be shared between threads.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+public final class CacheKey {
+
+	private final String key;
+	private final String wireKey;
+	private final byte[] bytes;
+	private final int encoding;
+
+	// hashing algorithm and hash the key was last routed with
+	private volatile long[] hash;
+
+	CacheKey( String key, String wireKey, int encoding ) {
+		this.key      = key;
+		this.wireKey  = wireKey;
+		this.bytes    = wireKey.getBytes();
+		this.encoding = encoding;
+	}
+
+	/** 
+	 * Returns the key as passed to the client.
+	 * 
+	 * @return key
+	 */
+	public String getKey() {
+		return this.key;
+	}
+
+	/** 
+	 * Returns the key as sent to the server.
+	 * 
+	 * @return sanitized key
+	 */
+	String getWireKey() {
+		return this.wireKey;
+	}
+
+	/** 
+	 * Returns the key as sent to the server, in bytes.
+	 * 
+	 * @return encoded key (not to be modified)
+	 */
+	byte[] getBytes() {
+		return this.bytes;
+	}
+
+	/** 
+	 * Returns how the key was sanitized.
+	 * 
+	 * @return key encoding of the client which created the key
+	 */
+	int getEncoding() {
+		return this.encoding;
+	}
+
+	/** 
+	 * Returns the hash computed for a hashing algorithm.
+	 * 
+	 * @param hashingAlg hashing algorithm of the pool
+	 * @return hash, or null if not computed for that algorithm
+	 */
+	Long getHash( int hashingAlg ) {
+		long[] h = this.hash;
+		return ( h != null && h[0] == hashingAlg ) ? h[1] : null;
+	}
+
+	/** 
+	 * Remembers the hash computed for a hashing algorithm.
+	 * 
+	 * @param hashingAlg hashing algorithm of the pool
+	 * @param hash hash of the key
+	 */
+	void setHash( int hashingAlg, long hash ) {
+		this.hash = new long[] { hashingAlg, hash };
+	}
+
+	public boolean equals( Object o ) {
+		if ( !( o instanceof CacheKey ) )
+			return false;
+
+		CacheKey other = (CacheKey)o;
+		return wireKey.equals( other.wireKey ) && key.equals( other.key );
+	}
+
+	public int hashCode() {
+		return wireKey.hashCode();
+	}
+
+	public String toString() {
+		return this.key;
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+/**
+ * A value as read from the server, decoded on first use.
+ *
+ * Returned by MemcachedClient.getCachedValue and getMultiCachedValues.<br/>
+ * It holds the value's flags and its bytes as stored (still<br/>
+ * compressed, if they were compressed), so callers which only check<br/>
+ * that a key is there or pass the bytes on never pay for decoding.<br/>
+ * getValue uncompresses and decodes the bytes the first time it is<br/>
+ * called and keeps the result.
+ * <h3>To pass a value through without decoding it:</h3>
+ * <pre>
+ *	CachedValue value = mc.getCachedValue( key );
+ *	if ( value != null && !value.isCompressed() )
+ *		out.write( value.getBytes() );
+ * </pre>
+ * CachedValues can be shared between threads; the value is decoded<br/>
+ * at most once.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+public final class CachedValue {
+
+	private final MemcachedClient mc;
+	private final String key;
+	private final int flags;
+	private final byte[] bytes;
+	private final Transcoder transcoder;
+
+	// guarded by this
+	private boolean decoded;
+	private Object value;
+
+	CachedValue( MemcachedClient mc, String key, int flags, byte[] bytes, Transcoder transcoder ) {
+		this.mc         = mc;
+		this.key        = key;
+		this.flags      = flags;
+		this.bytes      = bytes;
+		this.transcoder = transcoder;
+	}
+
+	/** 
+	 * Returns the flags the value was stored with.
+	 * 
+	 * @return flags
+	 */
+	public int getFlags() {
+		return flags;
+	}
+
+	/** 
+	 * Returns the value's bytes as stored on the server.
+	 *
+	 * The array is not copied and must not be changed.
+	 * 
+	 * @return bytes, compressed if isCompressed returns true
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	/** 
+	 * Checks to see if the bytes are compressed.
+	 * 
+	 * @return true if compressed
+	 */
+	public boolean isCompressed() {
+		return ( flags & MemcachedClient.F_COMPRESSED ) == MemcachedClient.F_COMPRESSED;
+	}
+
+	/** 
+	 * Returns the value, decoding it on the first call.
+	 *
+	 * A value which can not be decoded is reported like one read by<br/>
+	 * get, and null is returned from then on.
+	 * 
+	 * @return the value, or null if it could not be decoded
+	 */
+	public synchronized Object getValue() {
+		if ( !decoded ) {
+			value   = mc.decode( this );
+			decoded = true;
+		}
+		return value;
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	Transcoder getTranscoder() {
+		return transcoder;
+	}
+
+	public String toString() {
+		return "CachedValue for " + key + " (" + bytes.length + " bytes, flags " + flags + ")";
+	}
+}
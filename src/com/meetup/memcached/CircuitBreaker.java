@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Closed/open/half-open circuit breaker guarding a single server.
+ *
+ * While closed, every call goes through and its outcome is counted<br/>
+ * in a time window.  Once enough calls in a window failed or were<br/>
+ * slow, the breaker opens and refuses calls for a retry delay.  After<br/>
+ * the delay one trial call is let through (half-open): if it succeeds<br/>
+ * the breaker closes again, otherwise it reopens with the delay<br/>
+ * doubled, up to a maximum.
+ *
+ * Checking whether a call may go through is lock free, so it is<br/>
+ * cheap enough to do on every socket checkout.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+class CircuitBreaker {
+
+	static final int CLOSED    = 0;
+	static final int OPEN      = 1;
+	static final int HALF_OPEN = 2;
+
+	private static final long MIN_RETRY_DELAY = 1000;
+
+	private final String host;
+	private final AtomicInteger state = new AtomicInteger( CLOSED );
+
+	// when the current open period ends, or the trial call started
+	private volatile long retryAt = 0;
+	private long retryDelay       = 0;
+
+	// counts for the current window, guarded by this
+	private long windowStart = System.currentTimeMillis();
+	private int calls        = 0;
+	private int failures     = 0;
+
+	/**
+	 * Creates a closed breaker for a server.
+	 *
+	 * @param host host:port of the server
+	 */
+	CircuitBreaker( String host ) {
+		this.host = host;
+	}
+
+	/**
+	 * Checks to see if a call to the server may go through.
+	 *
+	 * When the open period is over this lets exactly one caller<br/>
+	 * through as trial.  A trial that never reports back is given up<br/>
+	 * after another retry delay so the breaker can not get stuck.
+	 *
+	 * @return true if the call may go through
+	 */
+	boolean allowRequest() {
+		int current = state.get();
+		if ( current == CLOSED )
+			return true;
+
+		long now = System.currentTimeMillis();
+		if ( now < retryAt )
+			return false;
+
+		if ( state.compareAndSet( current, HALF_OPEN ) ) {
+			retryAt = now + Math.max( retryDelay, MIN_RETRY_DELAY );
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Records the outcome of a call to the server.
+	 *
+	 * @param success true if the call completed without error
+	 * @param slow true if the call took longer than the slow call time
+	 * @param failureRate fraction of bad calls in a window which opens the breaker
+	 * @param minCalls minimum calls in a window before it may open the breaker
+	 * @param window length of the window in ms
+	 * @param maxRetryDelay maximum time to stay open
+	 * @return true if this call opened the breaker
+	 */
+	synchronized boolean record( boolean success, boolean slow, double failureRate, int minCalls, long window, long maxRetryDelay ) {
+		int current = state.get();
+
+		// the trial decides on its own
+		if ( current == HALF_OPEN ) {
+			if ( success && !slow ) {
+				close();
+				return false;
+			}
+			open( maxRetryDelay );
+			return true;
+		}
+
+		// calls which were already under way when we opened
+		if ( current == OPEN )
+			return false;
+
+		long now = System.currentTimeMillis();
+		if ( now - windowStart > window ) {
+			windowStart = now;
+			calls       = 0;
+			failures    = 0;
+		}
+
+		calls++;
+		if ( !success || slow )
+			failures++;
+
+		if ( calls >= minCalls && failures >= calls * failureRate ) {
+			open( maxRetryDelay );
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Opens the breaker right away, eg. because we could not connect.
+	 *
+	 * @param maxRetryDelay maximum time to stay open
+	 * @return the time (in ms) the breaker stays open
+	 */
+	synchronized long trip( long maxRetryDelay ) {
+		// already open, do not back off further
+		// for every caller which saw the failure
+		if ( state.get() == OPEN && System.currentTimeMillis() < retryAt )
+			return retryDelay;
+
+		open( maxRetryDelay );
+		return retryDelay;
+	}
+
+	/**
+	 * Returns the state of the breaker.
+	 *
+	 * @return CLOSED, OPEN or HALF_OPEN
+	 */
+	int getState() {
+		return state.get();
+	}
+
+	private void open( long maxRetryDelay ) {
+		retryDelay = ( retryDelay == 0 ) ? MIN_RETRY_DELAY : Math.min( retryDelay * 2, maxRetryDelay );
+		retryAt    = System.currentTimeMillis() + retryDelay;
+		state.set( OPEN );
+	}
+
+	private void close() {
+		retryDelay  = 0;
+		windowStart = System.currentTimeMillis();
+		calls       = 0;
+		failures    = 0;
+		state.set( CLOSED );
+	}
+
+	public String toString() {
+		String[] names = { "closed", "open", "half-open" };
+		return "CircuitBreaker for " + host + " (" + names[ state.get() ] + ")";
+	}
+}
@@ -0,0 +1,502 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+import java.util.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Encodes common collection types in a compact, schema-less binary form.
+ *
+ * Java serialization writes a class descriptor for the collection and a<br/>
+ * boxed object for every element, so a list of a few thousand longs<br/>
+ * takes several times the space of the numbers themselves.  This codec<br/>
+ * writes a one byte type tag per value, lengths and integers as varints<br/>
+ * (zig-zag encoded, so small negative numbers stay small too) and, for<br/>
+ * collections whose elements are all Strings, Integers or Longs, the<br/>
+ * element tag only once.
+ *
+ * Handled are the java.util implementations of List, Set and Map, and<br/>
+ * int[], long[] and String[], containing (nested) values of those types,<br/>
+ * the boxed primitives, String, Date, byte[] and null.  Lists decode to<br/>
+ * an ArrayList, sets to a LinkedHashSet and maps to a LinkedHashMap, so<br/>
+ * iteration order is kept but the concrete class may differ.  Subclasses<br/>
+ * of Date (like java.sql.Timestamp) would lose their type, so they are<br/>
+ * left to serialization.
+ *
+ * Values may be nested at most MAX_DEPTH deep, so a collection which<br/>
+ * contains itself fails to encode with an IOException.
+ *
+ * Values are stored under MemcachedClient.MARKER_COLLECTION.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+public class CollectionHandler {
+
+	// value tags
+	private static final int T_NULL     = 0;
+	private static final int T_TRUE     = 1;
+	private static final int T_FALSE    = 2;
+	private static final int T_BYTE     = 3;
+	private static final int T_SHORT    = 4;
+	private static final int T_INTEGER  = 5;
+	private static final int T_LONG     = 6;
+	private static final int T_FLOAT    = 7;
+	private static final int T_DOUBLE   = 8;
+	private static final int T_CHAR     = 9;
+	private static final int T_STRING   = 10;
+	private static final int T_DATE     = 11;
+	private static final int T_BYTEARR  = 12;
+	private static final int T_INTARR   = 13;
+	private static final int T_LONGARR  = 14;
+	private static final int T_STRARR   = 15;
+	private static final int T_LIST     = 16;
+	private static final int T_SET      = 17;
+	private static final int T_MAP      = 18;
+
+	// element tag of a collection with mixed (or null) elements
+	private static final int T_MIXED    = 0xFF;
+
+	/** 
+	 * How deep collections may be nested.
+	 */
+	public static final int MAX_DEPTH   = 256;
+
+	// a value (or an element of it) this class does not handle
+	private static final class NotHandledException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		NotHandledException( Object value ) {
+			super( "can not encode class: " + value.getClass().getName() );
+		}
+	}
+
+	/** 
+	 * Determine if a value can be encoded by this class.
+	 *
+	 * Only the top level value has to be a collection or array;<br/>
+	 * every element is checked, so this is linear in the size.<br/>
+	 * Values nested too deeply are left to encode to reject.
+	 * 
+	 * @param value Object to test.
+	 * @return true/false
+	 */
+	public static boolean isHandled( Object value ) {
+		return ( isContainer( value ) && isEncodable( value, 0 ) );
+	}
+
+	private static boolean isContainer( Object value ) {
+		return ( isJdkCollection( value )
+			|| value instanceof int[]
+			|| value instanceof long[]
+			|| value instanceof String[] );
+	}
+
+	// user subclasses may carry state of their own, so leave those to serialization
+	private static boolean isJdkCollection( Object value ) {
+		return ( ( value instanceof List || value instanceof Set || value instanceof Map )
+				&& value.getClass().getName().startsWith( "java.util." ) );
+	}
+
+	private static boolean isEncodable( Object value, int depth ) {
+		if ( value == null
+				|| value instanceof Boolean
+				|| value instanceof Byte
+				|| value instanceof Short
+				|| value instanceof Integer
+				|| value instanceof Long
+				|| value instanceof Float
+				|| value instanceof Double
+				|| value instanceof Character
+				|| value instanceof String
+				|| ( value != null && value.getClass() == Date.class )
+				|| value instanceof byte[]
+				|| value instanceof int[]
+				|| value instanceof long[]
+				|| value instanceof String[] )
+			return true;
+
+		if ( !isJdkCollection( value ) )
+			return false;
+
+		// encode throws on it, rather than us running out of stack
+		if ( depth >= MAX_DEPTH )
+			return true;
+
+		if ( value instanceof Map ) {
+			for ( Map.Entry<?,?> e : ((Map<?,?>)value).entrySet() ) {
+				if ( !isEncodable( e.getKey(), depth + 1 ) || !isEncodable( e.getValue(), depth + 1 ) )
+					return false;
+			}
+			return true;
+		}
+
+		for ( Object o : (Collection<?>)value ) {
+			if ( !isEncodable( o, depth + 1 ) )
+				return false;
+		}
+		return true;
+	}
+
+	/** 
+	 * Encodes a collection or array.
+	 * 
+	 * @param value Object to encode.
+	 * @return byte array
+	 *
+	 * @throws Exception If fail to encode.
+	 */
+	public static byte[] encode( Object value ) throws Exception {
+		try {
+			return toBytes( value );
+		}
+		catch ( NotHandledException e ) {
+			throw new IllegalArgumentException( e.getMessage() );
+		}
+	}
+
+	/** 
+	 * Encodes a collection or array if it is handled.
+	 *
+	 * Checks and encodes in one pass, so callers which would<br/>
+	 * otherwise call isHandled first walk the value only once.
+	 * 
+	 * @param value Object to encode.
+	 * @return byte array, or null if the value is not handled
+	 *
+	 * @throws Exception If fail to encode.
+	 */
+	public static byte[] encodeIfHandled( Object value ) throws Exception {
+		if ( !isContainer( value ) )
+			return null;
+
+		try {
+			return toBytes( value );
+		}
+		catch ( NotHandledException e ) {
+			return null;
+		}
+	}
+
+	private static byte[] toBytes( Object value ) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream( 64 );
+		write( out, value, 0 );
+		return out.toByteArray();
+	}
+
+	/** 
+	 * Decodes a byte array written by encode.
+	 * 
+	 * @param b byte array
+	 * @return decoded collection or array
+	 *
+	 * @throws Exception If fail to decode.
+	 */
+	public static Object decode( byte[] b ) throws Exception {
+		int[] pos = new int[1];
+		Object value = read( b, pos, 0 );
+
+		if ( pos[0] != b.length )
+			throw new IOException( "trailing data after collection: " + ( b.length - pos[0] ) + " bytes" );
+
+		return value;
+	}
+
+	// encode methods
+	private static void write( ByteArrayOutputStream out, Object value, int depth ) throws Exception {
+		if ( value == null ) {
+			out.write( T_NULL );
+		}
+		else if ( value instanceof Boolean ) {
+			out.write( ((Boolean)value).booleanValue() ? T_TRUE : T_FALSE );
+		}
+		else if ( value instanceof Byte ) {
+			out.write( T_BYTE );
+			out.write( ((Byte)value).byteValue() );
+		}
+		else if ( value instanceof Short ) {
+			out.write( T_SHORT );
+			writeLong( out, ((Short)value).shortValue() );
+		}
+		else if ( value instanceof Integer ) {
+			out.write( T_INTEGER );
+			writeLong( out, ((Integer)value).intValue() );
+		}
+		else if ( value instanceof Long ) {
+			out.write( T_LONG );
+			writeLong( out, ((Long)value).longValue() );
+		}
+		else if ( value instanceof Float ) {
+			out.write( T_FLOAT );
+			out.write( NativeHandler.getBytes( Float.floatToIntBits( ((Float)value).floatValue() ) ) );
+		}
+		else if ( value instanceof Double ) {
+			out.write( T_DOUBLE );
+			out.write( NativeHandler.getBytes( Double.doubleToLongBits( ((Double)value).doubleValue() ) ) );
+		}
+		else if ( value instanceof Character ) {
+			out.write( T_CHAR );
+			writeVarint( out, ((Character)value).charValue() );
+		}
+		else if ( value instanceof String ) {
+			out.write( T_STRING );
+			writeString( out, (String)value );
+		}
+		else if ( value.getClass() == Date.class ) {
+			out.write( T_DATE );
+			writeLong( out, ((Date)value).getTime() );
+		}
+		else if ( value instanceof byte[] ) {
+			byte[] a = (byte[])value;
+			out.write( T_BYTEARR );
+			writeVarint( out, a.length );
+			out.write( a );
+		}
+		else if ( value instanceof int[] ) {
+			int[] a = (int[])value;
+			out.write( T_INTARR );
+			writeVarint( out, a.length );
+			for ( int i = 0; i < a.length; i++ )
+				writeLong( out, a[i] );
+		}
+		else if ( value instanceof long[] ) {
+			long[] a = (long[])value;
+			out.write( T_LONGARR );
+			writeVarint( out, a.length );
+			for ( int i = 0; i < a.length; i++ )
+				writeLong( out, a[i] );
+		}
+		else if ( value instanceof String[] ) {
+			String[] a = (String[])value;
+			out.write( T_STRARR );
+			writeElements( out, Arrays.asList( a ), a.length, depth );
+		}
+		else if ( !isJdkCollection( value ) ) {
+			throw new NotHandledException( value );
+		}
+		else if ( depth >= MAX_DEPTH ) {
+			throw new IOException( "collection nested more than " + MAX_DEPTH + " deep, or containing itself" );
+		}
+		else if ( value instanceof List ) {
+			out.write( T_LIST );
+			writeElements( out, (List<?>)value, ((List<?>)value).size(), depth + 1 );
+		}
+		else if ( value instanceof Set ) {
+			out.write( T_SET );
+			writeElements( out, (Set<?>)value, ((Set<?>)value).size(), depth + 1 );
+		}
+		else {
+			Map<?,?> m = (Map<?,?>)value;
+			out.write( T_MAP );
+			writeVarint( out, m.size() );
+			for ( Map.Entry<?,?> e : m.entrySet() ) {
+				write( out, e.getKey(), depth + 1 );
+				write( out, e.getValue(), depth + 1 );
+			}
+		}
+	}
+
+	private static void writeElements( ByteArrayOutputStream out, Collection<?> values, int size, int depth ) throws Exception {
+		writeVarint( out, size );
+
+		// write the tag once if every element has the same simple type
+		int tag = elementTag( values );
+		out.write( tag );
+
+		for ( Object o : values ) {
+			switch ( tag ) {
+				case T_STRING:  writeString( out, (String)o ); break;
+				case T_INTEGER: writeLong( out, ((Integer)o).intValue() ); break;
+				case T_LONG:    writeLong( out, ((Long)o).longValue() ); break;
+				default:        write( out, o, depth );
+			}
+		}
+	}
+
+	private static int elementTag( Collection<?> values ) {
+		Class<?> type = null;
+		for ( Object o : values ) {
+			if ( o == null )
+				return T_MIXED;
+
+			if ( type == null )
+				type = o.getClass();
+			else if ( type != o.getClass() )
+				return T_MIXED;
+		}
+
+		if ( type == String.class )
+			return T_STRING;
+		if ( type == Integer.class )
+			return T_INTEGER;
+		if ( type == Long.class )
+			return T_LONG;
+
+		return T_MIXED;
+	}
+
+	private static void writeString( ByteArrayOutputStream out, String value ) throws Exception {
+		byte[] b = value.getBytes( "UTF-8" );
+		writeVarint( out, b.length );
+		out.write( b );
+	}
+
+	// zig-zag, so that small negative numbers stay short
+	private static void writeLong( ByteArrayOutputStream out, long value ) {
+		writeVarint( out, ( value << 1 ) ^ ( value >> 63 ) );
+	}
+
+	private static void writeVarint( ByteArrayOutputStream out, long value ) {
+		while ( ( value & ~0x7FL ) != 0 ) {
+			out.write( (int)( ( value & 0x7F ) | 0x80 ) );
+			value >>>= 7;
+		}
+		out.write( (int)value );
+	}
+
+	// decode methods
+	private static Object read( byte[] b, int[] pos, int depth ) throws Exception {
+		int tag = readByte( b, pos );
+		if ( tag >= T_STRARR && depth >= MAX_DEPTH )
+			throw new IOException( "collection nested more than " + MAX_DEPTH + " deep" );
+
+		switch ( tag ) {
+			case T_NULL:    return null;
+			case T_TRUE:    return Boolean.TRUE;
+			case T_FALSE:   return Boolean.FALSE;
+			case T_BYTE:    return Byte.valueOf( (byte)readByte( b, pos ) );
+			case T_SHORT:   return Short.valueOf( (short)readLong( b, pos ) );
+			case T_INTEGER: return Integer.valueOf( (int)readLong( b, pos ) );
+			case T_LONG:    return Long.valueOf( readLong( b, pos ) );
+			case T_FLOAT:   return Float.valueOf( Float.intBitsToFloat( (int)readFixed( b, pos, 4 ) ) );
+			case T_DOUBLE:  return Double.valueOf( Double.longBitsToDouble( readFixed( b, pos, 8 ) ) );
+			case T_CHAR:    return Character.valueOf( (char)readVarint( b, pos ) );
+			case T_STRING:  return readString( b, pos );
+			case T_DATE:    return new Date( readLong( b, pos ) );
+
+			case T_BYTEARR: {
+				int len  = readLength( b, pos, 1 );
+				byte[] a = new byte[ len ];
+				System.arraycopy( b, pos[0], a, 0, len );
+				pos[0] += len;
+				return a;
+			}
+
+			case T_INTARR: {
+				int[] a = new int[ readLength( b, pos, 1 ) ];
+				for ( int i = 0; i < a.length; i++ )
+					a[i] = (int)readLong( b, pos );
+				return a;
+			}
+
+			case T_LONGARR: {
+				long[] a = new long[ readLength( b, pos, 1 ) ];
+				for ( int i = 0; i < a.length; i++ )
+					a[i] = readLong( b, pos );
+				return a;
+			}
+
+			case T_STRARR: {
+				List<Object> l = readElements( b, pos, depth );
+				return l.toArray( new String[ l.size() ] );
+			}
+
+			case T_LIST:
+				return readElements( b, pos, depth + 1 );
+
+			case T_SET:
+				return new LinkedHashSet<Object>( readElements( b, pos, depth + 1 ) );
+
+			case T_MAP: {
+				int size = readLength( b, pos, 2 );
+				Map<Object,Object> m = new LinkedHashMap<Object,Object>( size * 4 / 3 + 1 );
+				for ( int i = 0; i < size; i++ ) {
+					Object key = read( b, pos, depth + 1 );
+					m.put( key, read( b, pos, depth + 1 ) );
+				}
+				return m;
+			}
+
+			default:
+				throw new IOException( "unknown collection tag: " + tag );
+		}
+	}
+
+	private static List<Object> readElements( byte[] b, int[] pos, int depth ) throws Exception {
+		int size = readLength( b, pos, 1 );
+		int tag  = readByte( b, pos );
+
+		List<Object> l = new ArrayList<Object>( size );
+		for ( int i = 0; i < size; i++ ) {
+			switch ( tag ) {
+				case T_STRING:  l.add( readString( b, pos ) ); break;
+				case T_INTEGER: l.add( Integer.valueOf( (int)readLong( b, pos ) ) ); break;
+				case T_LONG:    l.add( Long.valueOf( readLong( b, pos ) ) ); break;
+				case T_MIXED:   l.add( read( b, pos, depth ) ); break;
+				default:        throw new IOException( "unknown element tag: " + tag );
+			}
+		}
+		return l;
+	}
+
+	private static String readString( byte[] b, int[] pos ) throws Exception {
+		int len = readLength( b, pos, 1 );
+		String s = new String( b, pos[0], len, "UTF-8" );
+		pos[0] += len;
+		return s;
+	}
+
+	// a length can never be more than the bytes left, which
+	// keeps corrupt data from allocating huge arrays
+	private static int readLength( byte[] b, int[] pos, int minBytesEach ) throws IOException {
+		long len = readVarint( b, pos );
+		if ( len < 0 || len * minBytesEach > b.length - pos[0] )
+			throw new IOException( "invalid length in collection: " + len );
+		return (int)len;
+	}
+
+	private static int readByte( byte[] b, int[] pos ) throws IOException {
+		if ( pos[0] >= b.length )
+			throw new IOException( "unexpected end of collection" );
+		return b[ pos[0]++ ] & 0xFF;
+	}
+
+	private static long readFixed( byte[] b, int[] pos, int len ) throws IOException {
+		long value = 0;
+		for ( int i = 0; i < len; i++ )
+			value = ( value << 8 ) | readByte( b, pos );
+		return value;
+	}
+
+	private static long readLong( byte[] b, int[] pos ) throws IOException {
+		long value = readVarint( b, pos );
+		return ( value >>> 1 ) ^ -( value & 1 );
+	}
+
+	private static long readVarint( byte[] b, int[] pos ) throws IOException {
+		long value = 0;
+		for ( int shift = 0; shift < 64; shift += 7 ) {
+			int c  = readByte( b, pos );
+			value |= (long)( c & 0x7F ) << shift;
+			if ( ( c & 0x80 ) == 0 )
+				return value;
+		}
+		throw new IOException( "malformed varint in collection" );
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Logger;
+
+/**
+ * Learns, per class of values, whether compressing them pays off.
+ *
+ * Values are grouped by the first matching key prefix, or else by<br/>
+ * the class of the value.  For every group the ratio of compressed<br/>
+ * to original size and the time spent compressing are tracked as<br/>
+ * moving averages.  Once a group saves less than the minimum savings,<br/>
+ * or each byte saved costs more time than the maximum cost, its<br/>
+ * values are stored uncompressed, apart from an occasional probe<br/>
+ * which is still compressed to notice when the data changes.  Probes<br/>
+ * get rarer the longer a group keeps not compressing.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+public class CompressionPolicy {
+
+	// logger
+	private static Logger log =
+		Logger.getLogger( CompressionPolicy.class.getName() );
+
+	private static final double SMOOTHING      = 0.2;			// weight of the newest sample
+	private static final int MIN_PROBE_EVERY   = 16;			// values skipped between probes at first
+	private static final int MAX_PROBE_EVERY   = 1024;			// and at most
+
+	private final ConcurrentHashMap<String,Stats> stats = new ConcurrentHashMap<String,Stats>();
+
+	private volatile String[] keyPrefixes;
+	private volatile double minSavings = 0.1;
+	private volatile double maxCost    = 1000;
+
+	/** 
+	 * Sets the key prefixes which group values.
+	 *
+	 * Values whose key matches none of them are grouped by class.
+	 * 
+	 * @param keyPrefixes String array of key prefixes
+	 */
+	public void setKeyPrefixes( String[] keyPrefixes ) {
+		this.keyPrefixes = keyPrefixes;
+	}
+
+	/** 
+	 * Returns the key prefixes which group values.
+	 * 
+	 * @return String array of key prefixes
+	 */
+	public String[] getKeyPrefixes() {
+		return this.keyPrefixes;
+	}
+
+	/** 
+	 * Sets the fraction of its size compression has to save on
+	 * average for a group of values to keep being compressed.
+	 * 
+	 * @param minSavings fraction between 0 and 1 (default 0.1)
+	 */
+	public void setMinSavings( double minSavings ) {
+		this.minSavings = minSavings;
+	}
+
+	/** 
+	 * Returns the minimum savings.
+	 * 
+	 * @return fraction between 0 and 1
+	 */
+	public double getMinSavings() {
+		return this.minSavings;
+	}
+
+	/** 
+	 * Sets the time compression may spend per byte it saves for a
+	 * group of values to keep being compressed.
+	 * 
+	 * @param maxCost ns per saved byte, or 0 for no limit (default 1000)
+	 */
+	public void setMaxCost( double maxCost ) {
+		this.maxCost = maxCost;
+	}
+
+	/** 
+	 * Returns the maximum cost.
+	 * 
+	 * @return ns per saved byte, or 0 for no limit
+	 */
+	public double getMaxCost() {
+		return this.maxCost;
+	}
+
+	/** 
+	 * Returns the group a value belongs to.
+	 * 
+	 * @param key key the value is stored under
+	 * @param value value being stored
+	 * @return name of the group
+	 */
+	public String getGroup( String key, Object value ) {
+		String[] prefixes = keyPrefixes;
+		if ( prefixes != null && key != null ) {
+			for ( int i = 0; i < prefixes.length; i++ ) {
+				if ( prefixes[i] != null && key.startsWith( prefixes[i] ) )
+					return prefixes[i];
+			}
+		}
+
+		return ( value == null ) ? "null" : value.getClass().getName();
+	}
+
+	/** 
+	 * Checks to see if a value of a group should be compressed.
+	 * 
+	 * @param group group of the value
+	 * @return true if the value should be compressed
+	 */
+	public boolean shouldCompress( String group ) {
+		Stats s = stats.get( group );
+		return ( s == null ) ? true : s.shouldCompress();
+	}
+
+	/** 
+	 * Checks to see if a group is being compressed, as opposed to
+	 * only being probed now and then.
+	 * 
+	 * @param group group of values
+	 * @return true if the group's values are compressed
+	 */
+	public boolean isCompressing( String group ) {
+		Stats s = stats.get( group );
+		return ( s == null ) ? true : s.isCompressing();
+	}
+
+	/** 
+	 * Records the outcome of compressing a value.
+	 * 
+	 * @param group group of the value
+	 * @param length original length
+	 * @param compressedLength compressed length
+	 * @param nanos time spent compressing
+	 */
+	public void record( String group, int length, int compressedLength, long nanos ) {
+		Stats s = stats.get( group );
+		if ( s == null ) {
+			s = new Stats();
+			Stats prev = stats.putIfAbsent( group, s );
+			if ( prev != null )
+				s = prev;
+		}
+
+		s.record( group, (double)compressedLength / Math.max( 1, length ), (double)nanos / Math.max( 1, length ), minSavings, maxCost );
+	}
+
+	private static final class Stats {
+		private double ratio     = -1;					// compressed / original size
+		private double nanosPerB = 0;					// time spent per byte
+		private boolean compress = true;
+		private int probeEvery   = MIN_PROBE_EVERY;
+		private int skipped      = 0;
+
+		private synchronized boolean shouldCompress() {
+			if ( compress )
+				return true;
+
+			if ( ++skipped < probeEvery )
+				return false;
+
+			skipped = 0;
+			return true;
+		}
+
+		private synchronized boolean isCompressing() {
+			return compress;
+		}
+
+		private synchronized void record( String group, double sampleRatio, double sampleNanos, double minSavings, double maxCost ) {
+			ratio     = ( ratio < 0 ) ? sampleRatio : ratio + SMOOTHING * ( sampleRatio - ratio );
+			nanosPerB = nanosPerB + SMOOTHING * ( sampleNanos - nanosPerB );
+
+			// what it takes to save a byte, rather than to compress one
+			double saved    = 1 - ratio;
+			boolean worthIt = saved >= minSavings && ( maxCost <= 0 || nanosPerB <= maxCost * saved );
+			if ( worthIt != compress && log.isInfoEnabled() )
+				log.info( "++++ " + ( worthIt ? "resuming" : "stopping" ) + " compression of " + group
+						+ ": size ratio " + ratio + ", " + ( nanosPerB / Math.max( saved, 0.001 ) ) + " ns per saved byte" );
+
+			if ( worthIt ) {
+				compress   = true;
+				probeEvery = MIN_PROBE_EVERY;
+			}
+			else if ( !compress ) {
+				// probe failed, so probe less often
+				probeEvery = Math.min( probeEvery * 2, MAX_PROBE_EVERY );
+			}
+			else {
+				compress = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+import java.io.IOException;
+
+/**
+ * Compresses values before they are stored, and undoes it on the way back.
+ *
+ * Compressed values are stored with F_COMPRESSED plus the compressor's<br/>
+ * own flag bits, so the client can pick the matching compressor when<br/>
+ * reading a value no matter which one is currently configured.  GZIP<br/>
+ * uses no extra bits, which keeps values written by older clients<br/>
+ * readable.
+ *
+ * Implementations are shared by all threads using a client, so they<br/>
+ * have to be thread safe.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+public interface Compressor {
+
+	/** 
+	 * Returns the flag bits identifying this compressor.
+	 * 
+	 * @return flag bits, set along with F_COMPRESSED
+	 */
+	public int getFlags();
+
+	/** 
+	 * Compresses data.
+	 * 
+	 * @param data data to compress
+	 * @return compressed data
+	 * @throws IOException if the data can not be compressed
+	 */
+	public byte[] compress( byte[] data ) throws IOException;
+
+	/** 
+	 * Decompresses data.
+	 * 
+	 * @param data compressed data
+	 * @return original data
+	 * @throws IOException if the data is corrupt
+	 */
+	public byte[] decompress( byte[] data ) throws IOException;
+}
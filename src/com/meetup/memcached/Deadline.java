@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+/**
+ * A point in time by which a single client call has to be finished.
+ *
+ * Passed to the MemcachedClient methods which accept one, it bounds<br/>
+ * routing, pool checkout (connect), writing and reading for that call<br/>
+ * independent of the pool wide socket timeouts.  A Deadline can be<br/>
+ * shared by several calls to give them one common budget.
+ * <h3>To get a key, waiting at most 50 ms:</h3>
+ * <pre>
+ *	Object value = mc.get( key, null, Deadline.after( 50 ) );
+ * </pre>
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+public final class Deadline {
+
+	private final long expires;
+
+	private Deadline( long expires ) {
+		this.expires = expires;
+	}
+
+	/**
+	 * Creates a deadline the given number of ms from now.
+	 *
+	 * @param timeout time budget in ms
+	 * @return deadline
+	 */
+	public static Deadline after( long timeout ) {
+		return new Deadline( System.currentTimeMillis() + timeout );
+	}
+
+	/**
+	 * Returns the time left before the deadline passes.
+	 *
+	 * @return ms left, 0 or less if expired
+	 */
+	public long timeRemaining() {
+		return expires - System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns the time left as an int timeout usable for sockets.
+	 *
+	 * @return ms left, at least 1
+	 */
+	public int timeoutRemaining() {
+		return (int)Math.max( 1, Math.min( Integer.MAX_VALUE, timeRemaining() ) );
+	}
+
+	/**
+	 * Checks to see if the deadline has passed.
+	 *
+	 * @return true if expired
+	 */
+	public boolean isExpired() {
+		return timeRemaining() <= 0;
+	}
+
+	public String toString() {
+		return "Deadline in " + timeRemaining() + "ms";
+	}
+}
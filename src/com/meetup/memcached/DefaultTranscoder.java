@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+import java.io.*;
+
+/**
+ * The transcoder used unless another one is set on the client.
+ *
+ * Types known to the NativeHandler are stored in its compact form<br/>
+ * under their MARKER_* flag; anything else is stored using java<br/>
+ * serialization under F_SERIALIZED.
+ *
+ * Collections and arrays can optionally be stored using the compact<br/>
+ * CollectionHandler codec instead (see setEncodeCollections).  Values<br/>
+ * stored that way are always decoded, whether the option is set or not.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+public class DefaultTranscoder implements Transcoder {
+
+	// optional passed in classloader
+	private volatile ClassLoader classLoader;
+
+	// store collections with the CollectionHandler?
+	private volatile boolean encodeCollections;
+
+	/** 
+	 * Creates a transcoder deserializing with the default ClassLoader.
+	 */
+	public DefaultTranscoder() {
+	}
+
+	/** 
+	 * Creates a transcoder deserializing with the passed in ClassLoader.
+	 * 
+	 * @param classLoader ClassLoader object, or null for the default
+	 */
+	public DefaultTranscoder( ClassLoader classLoader ) {
+		this.classLoader = classLoader;
+	}
+
+	/** 
+	 * Sets an optional ClassLoader to be used for
+	 * serialization.
+	 * 
+	 * @param classLoader 
+	 */
+	public void setClassLoader( ClassLoader classLoader ) {
+		this.classLoader = classLoader;
+	}
+
+	/** 
+	 * Enables/disables storing collections and arrays with the
+	 * compact CollectionHandler codec instead of serialization.
+	 *
+	 * Off by default, as clients older than this one can not read<br/>
+	 * such values, and lists, sets and maps come back as ArrayList,<br/>
+	 * LinkedHashSet and LinkedHashMap rather than their original class.
+	 * 
+	 * @param encodeCollections true/false
+	 */
+	public void setEncodeCollections( boolean encodeCollections ) {
+		this.encodeCollections = encodeCollections;
+	}
+
+	/** 
+	 * Returns current status of encodeCollections flag
+	 * 
+	 * @return true/false
+	 */
+	public boolean getEncodeCollections() {
+		return this.encodeCollections;
+	}
+
+	public int getFlags( Object value ) {
+		if ( NativeHandler.isHandled( value ) )
+			return NativeHandler.getMarkerFlag( value );
+
+		if ( encodeCollections && CollectionHandler.isHandled( value ) )
+			return MemcachedClient.MARKER_COLLECTION;
+
+		return MemcachedClient.F_SERIALIZED;
+	}
+
+	public byte[] encode( Object value ) throws Exception {
+		return encode( value, new int[1] );
+	}
+
+	/** 
+	 * Encodes a value and works out its flags in one go, so a
+	 * collection is walked once instead of once for each.
+	 * 
+	 * @param value value being stored
+	 * @param flags gets the flags to store the value under
+	 * @return bytes to store
+	 * @throws Exception if the value can not be encoded
+	 */
+	byte[] encode( Object value, int[] flags ) throws Exception {
+		if ( NativeHandler.isHandled( value ) ) {
+			flags[0] = NativeHandler.getMarkerFlag( value );
+			return NativeHandler.encode( value );
+		}
+
+		if ( encodeCollections ) {
+			byte[] b = CollectionHandler.encodeIfHandled( value );
+			if ( b != null ) {
+				flags[0] = MemcachedClient.MARKER_COLLECTION;
+				return b;
+			}
+		}
+
+		// always serialize for non-primitive types
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		(new ObjectOutputStream( bos )).writeObject( value );
+		flags[0] = MemcachedClient.F_SERIALIZED;
+		return bos.toByteArray();
+	}
+
+	public Object decode( byte[] data, int flags ) throws Exception {
+		if ( ( flags & MemcachedClient.MARKER_COLLECTION ) == MemcachedClient.MARKER_COLLECTION )
+			return CollectionHandler.decode( data );
+
+		if ( ( flags & MemcachedClient.F_SERIALIZED ) != MemcachedClient.F_SERIALIZED )
+			return NativeHandler.decode( data, flags );
+
+		// deserialize if the data is serialized
+		ContextObjectInputStream ois =
+			new ContextObjectInputStream( new ByteArrayInputStream( data ), classLoader );
+		return ois.readObject();
+	}
+}
@@ -0,0 +1,394 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.*;
+
+/**
+ * Compresses small, similar values with a preset zlib dictionary.
+ *
+ * Small values, say JSON documents of a few hundred bytes, hardly<br/>
+ * compress on their own as there is too little data to find repeats<br/>
+ * in.  A dictionary made of content typical for such values lets the<br/>
+ * compressor refer back into it from the very first byte.
+ *
+ * Dictionaries are registered under an ID, which is stored with<br/>
+ * every value, so a value is always decompressed with the dictionary<br/>
+ * it was compressed with.  Any client reading values has to have all<br/>
+ * dictionaries in use registered, so register a new dictionary on<br/>
+ * every client before making it the current one anywhere.  ID 0 means<br/>
+ * no dictionary.
+ *
+ * A dictionary can be trained from sample values, either passed in<br/>
+ * or collected by the compressor itself:
+ * <pre>
+ *	DictionaryCompressor dc = new DictionaryCompressor();
+ *	dc.setSampling( 1000 );
+ *	mc.setCompressor( dc );
+ *	mc.setCompressThreshold( 128 );
+ *	... run for a while ...
+ *	byte[] dict = dc.train( 16 * 1024 );
+ *	// distribute dict to all clients, then
+ *	dc.addDictionary( 1, dict );
+ *	dc.setCurrentDictionary( 1 );
+ * </pre>
+ * Values are stored with the MemcachedClient.F_COMPRESSED_DICT flag<br/>
+ * bit, which needs a memcached server with 32 bit flags (1.2.1 or later).
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+public class DictionaryCompressor implements Compressor {
+
+	// segments the trainer picks from samples, and the
+	// length of the substrings they are scored by
+	private static final int SEGMENT_LEN = 64;
+	private static final int GRAM_LEN    = 6;
+
+	// deflate never expands to more than this per input byte
+	private static final int MAX_RATIO   = 1032;
+
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+		protected Deflater initialValue() {
+			return new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+		}
+	};
+
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		protected Inflater initialValue() {
+			return new Inflater( true );
+		}
+	};
+
+	private final Map<Integer,byte[]> dictionaries = new ConcurrentHashMap<Integer,byte[]>();
+	private volatile int current = 0;
+
+	// reservoir of sampled values
+	private final Random random = new Random();
+	private List<byte[]> samples;
+	private int maxSamples = 0;
+	private long seen      = 0;
+
+	/** 
+	 * Registers a dictionary.
+	 * 
+	 * @param id ID of the dictionary (greater than 0)
+	 * @param dictionary dictionary
+	 */
+	public void addDictionary( int id, byte[] dictionary ) {
+		if ( id <= 0 )
+			throw new IllegalArgumentException( "dictionary id has to be greater than 0: " + id );
+
+		dictionaries.put( id, dictionary );
+	}
+
+	/** 
+	 * Returns a registered dictionary.
+	 * 
+	 * @param id ID of the dictionary
+	 * @return dictionary, or null if not registered
+	 */
+	public byte[] getDictionary( int id ) {
+		return dictionaries.get( id );
+	}
+
+	/** 
+	 * Sets the dictionary new values are compressed with.
+	 * 
+	 * @param id ID of a registered dictionary, or 0 for none
+	 */
+	public void setCurrentDictionary( int id ) {
+		if ( id != 0 && !dictionaries.containsKey( id ) )
+			throw new IllegalArgumentException( "unknown dictionary id: " + id );
+
+		this.current = id;
+	}
+
+	/** 
+	 * Returns the ID of the dictionary new values are compressed with.
+	 * 
+	 * @return ID, or 0 for none
+	 */
+	public int getCurrentDictionary() {
+		return this.current;
+	}
+
+	/** 
+	 * Sets how many of the values passed to compress are kept
+	 * as samples for training.  The samples are a uniform random
+	 * pick among all values seen.
+	 * 
+	 * @param maxSamples number of samples to keep, 0 to stop sampling
+	 */
+	public synchronized void setSampling( int maxSamples ) {
+		this.maxSamples = maxSamples;
+		this.samples    = ( maxSamples > 0 ) ? new ArrayList<byte[]>( maxSamples ) : null;
+		this.seen       = 0;
+	}
+
+	/** 
+	 * Trains a dictionary from the values sampled so far.
+	 * 
+	 * @param size size of the dictionary
+	 * @return dictionary
+	 */
+	public byte[] train( int size ) {
+		List<byte[]> copy;
+		synchronized( this ) {
+			copy = ( samples == null ) ? new ArrayList<byte[]>() : new ArrayList<byte[]>( samples );
+		}
+
+		return train( copy, size );
+	}
+
+	/** 
+	 * Trains a dictionary from sample values.
+	 *
+	 * Samples are cut into segments, which are scored by how many<br/>
+	 * samples share the short substrings in them.  The best segments<br/>
+	 * are picked until the dictionary is full, not counting substrings<br/>
+	 * again once they are in the dictionary.  The best segment is put<br/>
+	 * last, as zlib encodes references to the end of the dictionary in<br/>
+	 * the fewest bits.
+	 * 
+	 * @param samples sample values
+	 * @param size size of the dictionary
+	 * @return dictionary (may be shorter than size if there is little data)
+	 */
+	public static byte[] train( List<byte[]> samples, int size ) {
+
+		// count for every substring the number of samples it is in
+		Map<String,int[]> counts = new HashMap<String,int[]>();
+		for ( byte[] sample : samples ) {
+			Set<String> grams = new HashSet<String>();
+			for ( int i = 0; i + GRAM_LEN <= sample.length; i++ )
+				grams.add( gram( sample, i ) );
+
+			for ( String g : grams ) {
+				int[] c = counts.get( g );
+				if ( c == null )
+					counts.put( g, new int[] { 1 } );
+				else
+					c[0]++;
+			}
+		}
+
+		// cut the samples into segments
+		List<byte[]> segments = new ArrayList<byte[]>();
+		for ( byte[] sample : samples ) {
+			for ( int i = 0; i < sample.length; i += SEGMENT_LEN ) {
+				int len = Math.min( SEGMENT_LEN, sample.length - i );
+				if ( len < GRAM_LEN )
+					continue;
+				byte[] seg = new byte[ len ];
+				System.arraycopy( sample, i, seg, 0, len );
+				segments.add( seg );
+			}
+		}
+
+		// greedily pick the best segment; substrings it covers
+		// are not worth anything to the segments after it
+		List<byte[]> picked = new ArrayList<byte[]>();
+		int total = 0;
+		while ( total < size && !segments.isEmpty() ) {
+			int best       = -1;
+			long bestScore = 1;
+			for ( int i = 0; i < segments.size(); i++ ) {
+				long score = score( segments.get( i ), counts );
+				if ( score > bestScore ) {
+					best      = i;
+					bestScore = score;
+				}
+			}
+
+			if ( best < 0 )
+				break;
+
+			byte[] seg = segments.remove( best );
+			for ( int i = 0; i + GRAM_LEN <= seg.length; i++ )
+				counts.remove( gram( seg, i ) );
+
+			picked.add( seg );
+			total += seg.length;
+		}
+
+		// best segment goes last
+		byte[] dict = new byte[ Math.min( total, size ) ];
+		int pos     = dict.length;
+		for ( byte[] seg : picked ) {
+			int len = Math.min( seg.length, pos );
+			pos    -= len;
+			System.arraycopy( seg, seg.length - len, dict, pos, len );
+			if ( pos == 0 )
+				break;
+		}
+
+		return dict;
+	}
+
+	private static long score( byte[] seg, Map<String,int[]> counts ) {
+		long score = 0;
+		Set<String> grams = new HashSet<String>();
+		for ( int i = 0; i + GRAM_LEN <= seg.length; i++ ) {
+			String g = gram( seg, i );
+			if ( !grams.add( g ) )
+				continue;
+
+			// a substring only in one sample is not shared
+			int[] c = counts.get( g );
+			if ( c != null && c[0] > 1 )
+				score += c[0];
+		}
+		return score;
+	}
+
+	@SuppressWarnings("deprecation")
+	private static String gram( byte[] b, int pos ) {
+		// one char per byte, cheap to hash and compare
+		return new String( b, 0, pos, GRAM_LEN );
+	}
+
+	public int getFlags() {
+		return MemcachedClient.F_COMPRESSED_DICT;
+	}
+
+	public byte[] compress( byte[] data ) throws IOException {
+		sample( data );
+
+		int id      = current;
+		byte[] dict = ( id == 0 ) ? null : dictionaries.get( id );
+
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		if ( dict != null )
+			deflater.setDictionary( dict );
+		deflater.setInput( data, 0, data.length );
+		deflater.finish();
+
+		// header: dictionary id and original length as varints
+		byte[] buf = new byte[ 10 + data.length + data.length / 8 + 64 ];
+		int len    = writeVarint( buf, 0, id );
+		len        = writeVarint( buf, len, data.length );
+
+		while ( !deflater.finished() ) {
+			if ( len == buf.length ) {
+				byte[] bigger = new byte[ buf.length * 2 ];
+				System.arraycopy( buf, 0, bigger, 0, len );
+				buf = bigger;
+			}
+			len += deflater.deflate( buf, len, buf.length - len );
+		}
+
+		byte[] out = new byte[ len ];
+		System.arraycopy( buf, 0, out, 0, len );
+		return out;
+	}
+
+	public byte[] decompress( byte[] data ) throws IOException {
+		int[] pos = new int[1];
+		int id    = readVarint( data, pos );
+		int size  = readVarint( data, pos );
+
+		// a corrupt header must not make us allocate what it claims
+		if ( size > (long)( data.length - pos[0] ) * MAX_RATIO )
+			throw new IOException( "invalid uncompressed length: " + size + " for " + ( data.length - pos[0] ) + " compressed bytes" );
+
+		byte[] dict = null;
+		if ( id != 0 ) {
+			dict = dictionaries.get( id );
+			if ( dict == null )
+				throw new IOException( "value was compressed with unknown dictionary: " + id );
+		}
+
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		if ( dict != null )
+			inflater.setDictionary( dict );
+		// raw inflate wants one byte past the end of the stream
+		byte[] in = new byte[ data.length - pos[0] + 1 ];
+		System.arraycopy( data, pos[0], in, 0, data.length - pos[0] );
+		inflater.setInput( in );
+
+		byte[] out = new byte[ size ];
+		int len    = 0;
+		try {
+			while ( len < size ) {
+				int n = inflater.inflate( out, len, size - len );
+				if ( n == 0 && ( inflater.finished() || inflater.needsInput() || inflater.needsDictionary() ) )
+					break;
+				len += n;
+			}
+		}
+		catch ( DataFormatException e ) {
+			throw new NestedIOException( "corrupt compressed data", e );
+		}
+
+		if ( len != size )
+			throw new IOException( "decompressed " + len + " bytes, expected " + size );
+
+		return out;
+	}
+
+	private void sample( byte[] data ) {
+		if ( maxSamples <= 0 )
+			return;
+
+		synchronized( this ) {
+			if ( samples == null )
+				return;
+
+			seen++;
+			if ( samples.size() < maxSamples ) {
+				samples.add( data.clone() );
+			}
+			else {
+				long i = (long)( random.nextDouble() * seen );
+				if ( i < maxSamples )
+					samples.set( (int)i, data.clone() );
+			}
+		}
+	}
+
+	private static int writeVarint( byte[] b, int pos, int value ) {
+		while ( ( value & ~0x7F ) != 0 ) {
+			b[ pos++ ] = (byte)( ( value & 0x7F ) | 0x80 );
+			value >>>= 7;
+		}
+		b[ pos++ ] = (byte)value;
+		return pos;
+	}
+
+	private static int readVarint( byte[] b, int[] pos ) throws IOException {
+		int value = 0;
+		for ( int shift = 0; shift < 32; shift += 7 ) {
+			if ( pos[0] >= b.length )
+				throw new IOException( "compressed data too short" );
+
+			int c  = b[ pos[0]++ ] & 0xFF;
+			value |= ( c & 0x7F ) << shift;
+			if ( ( c & 0x80 ) == 0 ) {
+				if ( value < 0 )
+					break;
+				return value;
+			}
+		}
+		throw new IOException( "malformed compressed data header" );
+	}
+}
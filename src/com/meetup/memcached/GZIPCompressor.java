@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * Compresses values in GZIP format.
+ *
+ * This is the format the client has always used, so it can read<br/>
+ * values written by any version of the client.  It compresses well,<br/>
+ * but is slow compared to LZCompressor.
+ *
+ * Every thread keeps its own Deflater, Inflater and output buffer,<br/>
+ * so compressing does not allocate native zlib state per value.  The<br/>
+ * gzip header and trailer are written and checked here; decompression<br/>
+ * goes straight into an array sized from the trailer.  Data with gzip<br/>
+ * header options or several members, which the client never writes,<br/>
+ * is handed to a GZIPInputStream instead.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+public class GZIPCompressor implements Compressor {
+
+	private static final int HEADER_LEN  = 10;
+	private static final int TRAILER_LEN = 8;
+
+	// same header GZIPOutputStream writes
+	private static final byte[] HEADER = {
+		(byte)0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+	};
+
+	// deflate can not shrink data by more than this
+	private static final int MAX_RATIO   = 1032;
+
+	// larger output buffers are not kept around
+	private static final int MAX_KEPT_BUFFER = 1024 * 1024;
+
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+		protected Deflater initialValue() {
+			return new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+		}
+	};
+
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		protected Inflater initialValue() {
+			return new Inflater( true );
+		}
+	};
+
+	private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>();
+
+	public int getFlags() {
+		return 0;
+	}
+
+	public byte[] compress( byte[] data ) throws IOException {
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		deflater.setInput( data, 0, data.length );
+		deflater.finish();
+
+		byte[] buf = buffers.get();
+		if ( buf == null || buf.length < HEADER_LEN + TRAILER_LEN + 64 )
+			buf = new byte[ Math.max( 4096, data.length / 2 ) ];
+
+		System.arraycopy( HEADER, 0, buf, 0, HEADER_LEN );
+		int len = HEADER_LEN;
+
+		while ( !deflater.finished() ) {
+			if ( len == buf.length )
+				buf = grow( buf, len );
+			len += deflater.deflate( buf, len, buf.length - len );
+		}
+
+		if ( buf.length - len < TRAILER_LEN )
+			buf = grow( buf, len );
+
+		CRC32 crc = new CRC32();
+		crc.update( data, 0, data.length );
+		writeIntLE( buf, len, (int)crc.getValue() );
+		writeIntLE( buf, len + 4, data.length );
+		len += TRAILER_LEN;
+
+		if ( buf.length <= MAX_KEPT_BUFFER )
+			buffers.set( buf );
+
+		byte[] out = new byte[ len ];
+		System.arraycopy( buf, 0, out, 0, len );
+		return out;
+	}
+
+	public byte[] decompress( byte[] data ) throws IOException {
+		// only the plain header written by java (and most
+		// other clients) is handled here
+		if ( data.length < HEADER_LEN + TRAILER_LEN
+				|| data[0] != HEADER[0]
+				|| data[1] != HEADER[1]
+				|| data[2] != HEADER[2]
+				|| data[3] != 0 )
+			return decompressStream( data );
+
+		int crc  = readIntLE( data, data.length - 8 );
+		int size = readIntLE( data, data.length - 4 );
+
+		// over 2GB, the size has wrapped; more than deflate could
+		// have packed into the data means the trailer is not ours
+		// (or corrupt), so do not allocate what it claims
+		if ( size < 0 || size > (long)( data.length - HEADER_LEN - TRAILER_LEN ) * MAX_RATIO )
+			return decompressStream( data );
+
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput( data, HEADER_LEN, data.length - HEADER_LEN );
+
+		byte[] out = new byte[ size ];
+		int len    = 0;
+
+		try {
+			while ( len < size ) {
+				int n = inflater.inflate( out, len, size - len );
+				if ( n == 0 && ( inflater.finished() || inflater.needsInput() || inflater.needsDictionary() ) )
+					break;
+				len += n;
+			}
+
+			// let the inflater see the end of the deflate stream
+			if ( len == size && !inflater.finished() && inflater.inflate( new byte[1] ) != 0 )
+				return decompressStream( data );
+		}
+		catch ( DataFormatException e ) {
+			throw new NestedIOException( "corrupt gzip data", e );
+		}
+
+		// anything but exactly one member means we were not
+		// the writer, so let GZIPInputStream sort it out
+		if ( len != size || !inflater.finished() || inflater.getRemaining() != TRAILER_LEN )
+			return decompressStream( data );
+
+		CRC32 check = new CRC32();
+		check.update( out, 0, len );
+		if ( (int)check.getValue() != crc )
+			throw new IOException( "gzip crc mismatch" );
+
+		return out;
+	}
+
+	private static byte[] decompressStream( byte[] data ) throws IOException {
+		// read the input stream, and write to a byte array output stream since
+		// we have to read into a byte array, but we don't know how large it
+		// will need to be, and we don't want to resize it a bunch
+		GZIPInputStream gzi = new GZIPInputStream( new ByteArrayInputStream( data ) );
+		ByteArrayOutputStream bos = new ByteArrayOutputStream( data.length );
+
+		int count;
+		byte[] tmp = new byte[2048];
+		while ( (count = gzi.read(tmp)) != -1 ) {
+			bos.write( tmp, 0, count );
+		}
+
+		gzi.close();
+		return bos.toByteArray();
+	}
+
+	private static byte[] grow( byte[] buf, int len ) {
+		byte[] bigger = new byte[ buf.length * 2 ];
+		System.arraycopy( buf, 0, bigger, 0, len );
+		return bigger;
+	}
+
+	private static int readIntLE( byte[] b, int pos ) {
+		return ( b[ pos ] & 0xFF )
+			| ( ( b[ pos + 1 ] & 0xFF ) << 8 )
+			| ( ( b[ pos + 2 ] & 0xFF ) << 16 )
+			| ( ( b[ pos + 3 ] & 0xFF ) << 24 );
+	}
+
+	private static void writeIntLE( byte[] b, int pos, int value ) {
+		b[ pos ]     = (byte)value;
+		b[ pos + 1 ] = (byte)( value >>> 8 );
+		b[ pos + 2 ] = (byte)( value >>> 16 );
+		b[ pos + 3 ] = (byte)( value >>> 24 );
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+/**
+ * Receives the values of a multi get one by one, as they arrive.
+ *
+ * Passed to {@link MemcachedClient#getMultiStreaming(String[], GetMultiCallback)},<br/>
+ * it is called for every key found as soon as its value has been<br/>
+ * read completely from its server, so work on the first values can<br/>
+ * start before the slowest server has answered.
+ *
+ * Calls are made from the thread doing the multi get, one at a<br/>
+ * time, and hold up reading further values while they run.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+public interface GetMultiCallback {
+
+	/** 
+	 * Called for each key found.
+	 * 
+	 * @param key key as passed to the multi get
+	 * @param value value stored under the key
+	 */
+	public void onValue( String key, Object value );
+}
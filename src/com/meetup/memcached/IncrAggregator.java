@@ -0,0 +1,374 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Adds up increments of counters locally and sends them in batches.
+ *
+ * Every incr on a client is a round trip to the server.  For counters<br/>
+ * bumped very often, like metrics, an aggregator instead adds the<br/>
+ * increments to a local counter per key.  A background thread sends<br/>
+ * the totals every flush interval (1 second by default), or as soon<br/>
+ * as enough increments are pending (10000 by default), as pipelined<br/>
+ * incr commands with one round trip per server.  Counters which do<br/>
+ * not exist yet are created with their total.<br/>
+ *<br/>
+ * Each counter is split into stripes, one of which is picked by the<br/>
+ * calling thread, so threads bumping the same hot counter do not<br/>
+ * all fight over one memory location.<br/>
+ *<br/>
+ * Increments are not seen by the server until they are flushed, and<br/>
+ * those pending when the process dies are lost; increments which<br/>
+ * fail to be sent are reported through the client and dropped.
+ * <h3>To count page views:</h3>
+ * <pre>
+ *	IncrAggregator counters = new IncrAggregator( mc );
+ *	counters.start();
+ *
+ *	counters.incr( "views:" + page );
+ *
+ *	// on shut down, sends what is pending
+ *	counters.shutDown();
+ * </pre>
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+public final class IncrAggregator {
+
+	// logger
+	private static Logger log =
+		Logger.getLogger( IncrAggregator.class.getName() );
+
+	// stripes per counter, a power of two
+	private static final int STRIPES;
+	static {
+		int stripes = 1;
+		while ( stripes < 2 * Runtime.getRuntime().availableProcessors() && stripes < 64 )
+			stripes <<= 1;
+		STRIPES = stripes;
+	}
+
+	private final MemcachedClient mc;
+	private final ConcurrentHashMap<String,Counter> counters = new ConcurrentHashMap<String,Counter>();
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private volatile long flushInterval = 1000;
+	private volatile int maxPending     = 10000;
+
+	private FlushThread flushThread;
+
+	/**
+	 * Creates an aggregator sending its counters through a client.
+	 *
+	 * @param mc client to send the increments with
+	 */
+	public IncrAggregator( MemcachedClient mc ) {
+		this.mc = mc;
+	}
+
+	/**
+	 * Sets how often the pending increments are sent.
+	 *
+	 * @param flushInterval interval in ms
+	 */
+	public void setFlushInterval( long flushInterval ) {
+		this.flushInterval = flushInterval;
+	}
+
+	/**
+	 * Returns how often the pending increments are sent.
+	 *
+	 * @return interval in ms
+	 */
+	public long getFlushInterval() {
+		return this.flushInterval;
+	}
+
+	/**
+	 * Sets the number of increments after which they are sent right away.
+	 *
+	 * @param maxPending number of incr calls
+	 */
+	public void setMaxPending( int maxPending ) {
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * Returns the number of increments after which they are sent right away.
+	 *
+	 * @return number of incr calls
+	 */
+	public int getMaxPending() {
+		return this.maxPending;
+	}
+
+	/**
+	 * Adds one to a counter.
+	 *
+	 * @param key key of the counter
+	 */
+	public void incr( String key ) {
+		incr( key, 1 );
+	}
+
+	/**
+	 * Adds to a counter.
+	 *
+	 * @param key key of the counter
+	 * @param delta amount to add, negative to subtract (but not Long.MIN_VALUE)
+	 */
+	public void incr( String key, long delta ) {
+		if ( key == null ) {
+			log.error( "null key for incr()" );
+			return;
+		}
+
+		// it can not be sent as a decr
+		if ( delta == Long.MIN_VALUE ) {
+			log.error( "++++ delta out of range for incr() of key: " + key );
+			return;
+		}
+
+		while ( true ) {
+			Counter counter = counters.get( key );
+			if ( counter == null ) {
+				counter = new Counter();
+				Counter existing = counters.putIfAbsent( key, counter );
+				if ( existing != null )
+					counter = existing;
+			}
+
+			AtomicLong stripe = counter.stripe();
+			stripe.addAndGet( delta );
+			if ( !counter.retired )
+				break;
+
+			// flush took the counter out of the map while we added
+			// to it; whatever it has not drained yet goes to a fresh one
+			delta = stripe.getAndSet( 0 );
+			if ( delta == 0 )
+				break;
+		}
+
+		if ( pending.incrementAndGet() == maxPending ) {
+			FlushThread thread = flushThread;
+			if ( thread != null )
+				thread.wakeUp();
+		}
+	}
+
+	/**
+	 * Returns the amount added to a counter and not sent yet.
+	 *
+	 * @param key key of the counter
+	 * @return amount pending
+	 */
+	public long getPending( String key ) {
+		Counter counter = counters.get( key );
+		return ( counter == null || counter.retired ) ? 0 : counter.sum();
+	}
+
+	/**
+	 * Sends all pending increments now.
+	 *
+	 * Counters which had nothing to send since the last flush are<br/>
+	 * dropped, so keys which are no longer used do not pile up.
+	 */
+	public synchronized void flush() {
+		pending.set( 0 );
+
+		Map<String,Long> deltas = new HashMap<String,Long>();
+		for ( Map.Entry<String,Counter> entry : counters.entrySet() ) {
+			Counter counter = entry.getValue();
+
+			long delta = counter.drain();
+			if ( delta == 0 ) {
+				// retired first, so an incr racing with us either
+				// is drained below or sees the flag and moves on
+				counter.retired = true;
+				counters.remove( entry.getKey(), counter );
+				delta = counter.drain();
+			}
+
+			// Long.MIN_VALUE can not be sent as a decr,
+			// so one is left for the next flush
+			if ( delta == Long.MIN_VALUE ) {
+				deltas.put( entry.getKey(), Long.valueOf( delta + 1 ) );
+				incr( entry.getKey(), -1 );
+			}
+			else if ( delta != 0 ) {
+				deltas.put( entry.getKey(), Long.valueOf( delta ) );
+			}
+		}
+
+		if ( deltas.isEmpty() )
+			return;
+
+		if ( log.isDebugEnabled() )
+			log.debug( "++++ flushing increments of " + deltas.size() + " counters" );
+
+		Map<String,Long> results = mc.incrMulti( deltas );
+
+		// counters which do not exist yet are created
+		// with their total, unless someone beat us to it
+		for ( Map.Entry<String,Long> entry : results.entrySet() ) {
+			if ( entry.getValue().longValue() != -1 )
+				continue;
+
+			long delta = deltas.get( entry.getKey() ).longValue();
+			if ( delta > 0 )
+				mc.addOrIncr( entry.getKey(), delta );
+			else
+				mc.addOrDecr( entry.getKey(), 0 );
+		}
+	}
+
+	/**
+	 * Starts the thread which flushes the increments.
+	 */
+	public synchronized void start() {
+		if ( flushThread != null )
+			return;
+
+		flushThread = new FlushThread( this );
+		flushThread.start();
+	}
+
+	/**
+	 * Stops the flush thread and sends what is still pending.
+	 */
+	public void shutDown() {
+		FlushThread thread;
+		synchronized ( this ) {
+			thread      = flushThread;
+			flushThread = null;
+		}
+
+		if ( thread != null ) {
+			thread.stopThread();
+			try {
+				thread.join();
+			}
+			catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		flush();
+	}
+
+	/** 
+	 * Counter split into stripes which are added up when flushed.
+	 */
+	private static final class Counter {
+
+		private final AtomicLong[] stripes = new AtomicLong[ STRIPES ];
+
+		// set once the counter is taken out of the map
+		volatile boolean retired = false;
+
+		Counter() {
+			for ( int i = 0; i < stripes.length; i++ )
+				stripes[i] = new AtomicLong();
+		}
+
+		/** 
+		 * @return stripe of the calling thread
+		 */
+		AtomicLong stripe() {
+			return stripes[ (int)Thread.currentThread().getId() & ( STRIPES - 1 ) ];
+		}
+
+		/** 
+		 * @return total of all stripes
+		 */
+		long sum() {
+			long sum = 0;
+			for ( AtomicLong stripe : stripes )
+				sum += stripe.get();
+			return sum;
+		}
+
+		/** 
+		 * Takes the total of all stripes, leaving them at zero.
+		 * 
+		 * @return total taken
+		 */
+		long drain() {
+			long sum = 0;
+			for ( AtomicLong stripe : stripes )
+				sum += stripe.getAndSet( 0 );
+			return sum;
+		}
+	}
+
+	/** 
+	 * Thread which flushes the increments every flush interval, or
+	 * when woken up because enough are pending.
+	 */
+	private static class FlushThread extends Thread {
+
+		private final IncrAggregator aggregator;
+		private volatile boolean stopThread = false;
+		private boolean wokenUp = false;
+
+		FlushThread( IncrAggregator aggregator ) {
+			this.aggregator = aggregator;
+			this.setDaemon( true );
+			this.setName( "IncrAggregator" );
+		}
+
+		synchronized void wakeUp() {
+			wokenUp = true;
+			notify();
+		}
+
+		void stopThread() {
+			this.stopThread = true;
+			wakeUp();
+		}
+
+		public void run() {
+			while ( !this.stopThread ) {
+				try {
+					synchronized ( this ) {
+						if ( !wokenUp )
+							wait( aggregator.getFlushInterval() );
+						wokenUp = false;
+					}
+
+					if ( !this.stopThread )
+						aggregator.flush();
+				}
+				catch ( InterruptedException e ) {
+					break;
+				}
+				catch ( RuntimeException e ) {
+					log.error( "++++ failed to flush increments", e );
+				}
+			}
+		}
+	}
+}
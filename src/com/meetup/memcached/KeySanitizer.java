@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Makes keys safe to send to the server, in a single pass.
+ *
+ * Both encodings hand back the very same String when nothing has<br/>
+ * to be escaped, which is by far the common case, and otherwise<br/>
+ * build the result in one StringBuilder.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+final class KeySanitizer {
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private KeySanitizer() {}
+
+	/** 
+	 * Encodes a key exactly like URLEncoder.encode( key, "UTF-8" ),
+	 * which keys have always been sanitized with.
+	 * 
+	 * @param key key
+	 * @return encoded key
+	 * @throws UnsupportedEncodingException never in practice
+	 */
+	static String urlEncode( String key ) throws UnsupportedEncodingException {
+		int len = key.length();
+		int i   = 0;
+		while ( i < len && isUnreserved( key.charAt( i ) ) )
+			i++;
+
+		if ( i == len )
+			return key;
+
+		StringBuilder sb = new StringBuilder( len + 16 );
+		sb.append( key, 0, i );
+
+		for ( ; i < len; i++ ) {
+			char c = key.charAt( i );
+			if ( isUnreserved( c ) ) {
+				sb.append( c );
+			}
+			else if ( c == ' ' ) {
+				sb.append( '+' );
+			}
+			else if ( c < 0x80 ) {
+				escape( sb, c );
+			}
+			else if ( c < 0x800 ) {
+				escape( sb, 0xC0 | ( c >> 6 ) );
+				escape( sb, 0x80 | ( c & 0x3F ) );
+			}
+			else if ( Character.isHighSurrogate( c ) && i + 1 < len && Character.isLowSurrogate( key.charAt( i + 1 ) ) ) {
+				int cp = Character.toCodePoint( c, key.charAt( ++i ) );
+				escape( sb, 0xF0 | ( cp >> 18 ) );
+				escape( sb, 0x80 | ( ( cp >> 12 ) & 0x3F ) );
+				escape( sb, 0x80 | ( ( cp >> 6 ) & 0x3F ) );
+				escape( sb, 0x80 | ( cp & 0x3F ) );
+			}
+			else if ( c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE ) {
+				// broken surrogate pairs are rare enough to
+				// leave the exact replacement to URLEncoder
+				return URLEncoder.encode( key, "UTF-8" );
+			}
+			else {
+				escape( sb, 0xE0 | ( c >> 12 ) );
+				escape( sb, 0x80 | ( ( c >> 6 ) & 0x3F ) );
+				escape( sb, 0x80 | ( c & 0x3F ) );
+			}
+		}
+
+		return sb.toString();
+	}
+
+	/** 
+	 * Escapes only what the memcached text protocol does not allow
+	 * in keys: spaces and control characters, plus '%' so different
+	 * keys stay different.
+	 * 
+	 * @param key key
+	 * @return escaped key
+	 */
+	static String escapeMinimal( String key ) {
+		int len = key.length();
+		int i   = 0;
+		while ( i < len && !needsEscape( key.charAt( i ) ) )
+			i++;
+
+		if ( i == len )
+			return key;
+
+		StringBuilder sb = new StringBuilder( len + 8 );
+		sb.append( key, 0, i );
+
+		for ( ; i < len; i++ ) {
+			char c = key.charAt( i );
+			if ( needsEscape( c ) )
+				escape( sb, c );
+			else
+				sb.append( c );
+		}
+
+		return sb.toString();
+	}
+
+	private static boolean isUnreserved( char c ) {
+		return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || ( c >= '0' && c <= '9' )
+			|| c == '.' || c == '-' || c == '*' || c == '_';
+	}
+
+	private static boolean needsEscape( char c ) {
+		return c <= ' ' || c == 0x7F || c == '%';
+	}
+
+	private static void escape( StringBuilder sb, int b ) {
+		sb.append( '%' ).append( HEX[ ( b >> 4 ) & 0xF ] ).append( HEX[ b & 0xF ] );
+	}
+}
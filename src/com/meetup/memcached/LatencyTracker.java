@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+import java.util.Arrays;
+
+/**
+ * Keeps a sliding window of the most recent latency samples and<br/>
+ * a percentile computed from them.
+ *
+ * The percentile is recomputed every so many samples rather than<br/>
+ * on every read, so reading it is just a volatile load.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+public class LatencyTracker {
+
+	// window of samples (in micro seconds)
+	private final long[] samples;
+	private int count = 0;
+	private int pos   = 0;
+
+	// how often to recompute the percentile
+	private final int recalcEvery;
+	private int sinceRecalc = 0;
+
+	private double percentile;
+	private volatile long value = -1;
+
+	/**
+	 * Creates a tracker for the given percentile.
+	 *
+	 * @param percentile percentile to track (0 - 100)
+	 * @param window number of samples to keep
+	 */
+	public LatencyTracker( double percentile, int window ) {
+		this.percentile  = percentile;
+		this.samples     = new long[ window ];
+		this.recalcEvery = Math.max( 1, window / 8 );
+	}
+
+	/**
+	 * Sets the percentile to track.
+	 *
+	 * @param percentile percentile (0 - 100)
+	 */
+	public synchronized void setPercentile( double percentile ) {
+		this.percentile = percentile;
+		recalc();
+	}
+
+	/**
+	 * Records one latency sample.
+	 *
+	 * @param micros latency in micro seconds
+	 */
+	public synchronized void record( long micros ) {
+		samples[ pos ] = micros;
+		pos = ( pos + 1 ) % samples.length;
+
+		if ( count < samples.length )
+			count++;
+
+		if ( ++sinceRecalc >= recalcEvery )
+			recalc();
+	}
+
+	/**
+	 * Returns the tracked percentile.
+	 *
+	 * @return latency in micro seconds, or -1 if no samples yet
+	 */
+	public long getValue() {
+		return value;
+	}
+
+	private void recalc() {
+		sinceRecalc = 0;
+		if ( count == 0 )
+			return;
+
+		long[] sorted = new long[ count ];
+		System.arraycopy( samples, 0, sorted, 0, count );
+		Arrays.sort( sorted );
+
+		int idx = (int)Math.ceil( ( percentile / 100.0 ) * count ) - 1;
+		value = sorted[ Math.min( count - 1, Math.max( 0, idx ) ) ];
+	}
+}
@@ -18,6 +18,17 @@
 package com.meetup.memcached;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.*;
 import java.nio.*;          
 import java.net.InetAddress;
@@ -25,7 +36,6 @@ import java.nio.charset.*;
 import java.nio.channels.*;
 import java.nio.channels.spi.*;
 import java.io.*;
-import java.net.URLEncoder;
 
 import org.apache.log4j.Logger;
 
@@ -175,13 +185,21 @@ public class MemcachedClient {
 	private static final String CLIENT_ERROR = "CLIENT_ERROR";	// client error in input line - invalid protocol
 	private static final String SERVER_ERROR = "SERVER_ERROR";	// server error
 
-	private static final byte[] B_END        = "END\r\n".getBytes();
+	private static final byte[] B_GET        = "get ".getBytes();
+	private static final byte[] B_DELETE     = "delete ".getBytes();
 	private static final byte[] B_NOTFOUND   = "NOT_FOUND\r\n".getBytes();
 	private static final byte[] B_DELETED    = "DELETED\r\r".getBytes();
 	private static final byte[] B_STORED     = "STORED\r\r".getBytes();
 
 	// default compression threshold
 	private static final int COMPRESS_THRESH = 30720;
+
+	// size of the chunks streamed values are copied in
+	private static final int STREAM_CHUNK    = 8192;
+
+	// built in compressors
+	private static final Compressor GZIP_COMPRESSOR = new GZIPCompressor();
+	private static final Compressor LZ_COMPRESSOR   = new LZCompressor();
     
 	// values for cache flags 
 	public static final int MARKER_BYTE             = 1;
@@ -197,14 +215,32 @@ public class MemcachedClient {
 	public static final int MARKER_DATE             = 1024;
 	public static final int MARKER_STRINGBUILDER    = 2048;
 	public static final int MARKER_BYTEARR          = 4096;
+	public static final int MARKER_COLLECTION       = 32768;
 	public static final int F_COMPRESSED            = 2;
+	public static final int F_COMPRESSED_LZ         = 65536;
+	public static final int F_COMPRESSED_DICT       = 131072;
+	public static final int F_CHUNKED               = 262144;
 	public static final int F_SERIALIZED            = 8;
 	
+	// how values read from the server are handed back
+	private enum DecodeMode {
+		OBJECT,			// decoded by the transcoder
+		STRING,			// values which are not serialized as strings
+		RAW				// undecoded, in a CachedValue
+	}
+
 	// flags
 	private boolean sanitizeKeys;
+	private boolean minimalKeyEscaping;
 	private boolean primitiveAsString;
 	private boolean compressEnable;
 	private long compressThreshold;
+	private Compressor compressor;
+	private CompressionPolicy compressionPolicy;
+	private int chunkSize;
+	private int multiGetMaxKeys;
+	private int multiGetMaxBytes;
+	private ExecutorService decodeExecutor;
 	private String defaultEncoding;
 
 	// pool instance
@@ -216,9 +252,24 @@ public class MemcachedClient {
 	// optional passed in classloader
 	private ClassLoader classLoader;
 
+	// encodes and decodes values
+	private Transcoder transcoder;
+
 	// optional error handler
 	private ErrorHandler errorHandler;
 
+	// namespaces handed out, sharing their cached versions
+	private ConcurrentHashMap<String,Namespace> namespaces;
+
+	// hedged reads of replicated keys
+	private boolean hedgedReads;
+	private long minHedgeDelay;
+	private LatencyTracker getLatency;
+	private Random random;
+
+	// batching of concurrent gets, null when off
+	private volatile GetBatcher getBatcher;
+
 	/**
 	 * Creates a new instance of MemCachedClient.
 	 */
@@ -288,7 +339,14 @@ public class MemcachedClient {
 		this.primitiveAsString  = false;
 		this.compressEnable     = true;
 		this.compressThreshold  = COMPRESS_THRESH;
+		this.compressor         = GZIP_COMPRESSOR;
 		this.defaultEncoding    = "UTF-8";
+		this.transcoder         = new DefaultTranscoder( classLoader );
+		this.hedgedReads        = false;
+		this.minHedgeDelay      = 2;
+		this.getLatency         = new LatencyTracker( 95, 1024 );
+		this.random             = new Random();
+		this.namespaces         = new ConcurrentHashMap<String,Namespace>();
 		this.poolName           = ( this.poolName == null ) ? "default" : this.poolName;
 
 		// get a pool instance to work with for the life of this instance
@@ -303,6 +361,33 @@ public class MemcachedClient {
 	 */
 	public void setClassLoader( ClassLoader classLoader ) {
 		this.classLoader = classLoader;
+
+		if ( transcoder instanceof DefaultTranscoder )
+			((DefaultTranscoder)transcoder).setClassLoader( classLoader );
+	}
+
+	/** 
+	 * Sets the transcoder used to encode and decode values.
+	 *
+	 * Defaults to a DefaultTranscoder, which stores the types known<br/>
+	 * to the NativeHandler natively and serializes everything else.<br/>
+	 * Values stored with setPrimitiveAsString are still stored as strings.
+	 * 
+	 * @param transcoder transcoder to use, or null for the default
+	 */
+	public void setTranscoder( Transcoder transcoder ) {
+		this.transcoder = ( transcoder == null )
+			? new DefaultTranscoder( classLoader )
+			: transcoder;
+	}
+
+	/** 
+	 * Returns the transcoder used to encode and decode values.
+	 * 
+	 * @return transcoder
+	 */
+	public Transcoder getTranscoder() {
+		return this.transcoder;
 	}
 
 	/** 
@@ -323,6 +408,21 @@ public class MemcachedClient {
 		this.sanitizeKeys = sanitizeKeys;
 	}
 
+	/** 
+	 * Sanitizes keys by escaping only spaces, control characters
+	 * and '%' instead of URLEncoding them.
+	 *
+	 * Keys stay readable and short, eg. "user:42" is sent as is<br/>
+	 * rather than as "user%3A42".  This changes the keys of values<br/>
+	 * with such characters, so only turn it on for a fresh cache or<br/>
+	 * when all clients sharing the cache do the same.  Off by default.
+	 * 
+	 * @param minimalKeyEscaping if true, escape only what memcached does not allow
+	 */
+	public void setMinimalKeyEscaping( boolean minimalKeyEscaping ) {
+		this.minimalKeyEscaping = minimalKeyEscaping;
+	}
+
 	/** 
 	 * Enables storing primitive types as their String values. 
 	 * 
@@ -373,6 +473,239 @@ public class MemcachedClient {
 		this.compressThreshold = compressThreshold;
 	}
 
+	/**
+	 * Sets the compressor used for values over the compression threshold.
+	 *
+	 * Defaults to GZIP.  An LZCompressor is several times faster at<br/>
+	 * some cost in ratio, which can make it worth lowering the threshold.<br/>
+	 *<br/>
+	 * Values are always decompressed with the compressor they were<br/>
+	 * written with, so existing values stay readable after a change.<br/>
+	 * Values written by a DictionaryCompressor are the exception, they<br/>
+	 * need one with the same dictionaries set to be read.<br/>
+	 * A custom compressor must use flag bits of its own.
+	 *
+	 * @param compressor compressor to use, or null for GZIP
+	 */
+	public void setCompressor( Compressor compressor ) {
+		this.compressor = ( compressor == null ) ? GZIP_COMPRESSOR : compressor;
+	}
+
+	/**
+	 * Returns the compressor used for values over the compression threshold.
+	 *
+	 * @return compressor
+	 */
+	public Compressor getCompressor() {
+		return this.compressor;
+	}
+
+	/**
+	 * Sets a policy which learns which values are worth compressing.
+	 *
+	 * Without a policy every value over the compression threshold is<br/>
+	 * compressed.  With one, groups of values (by key prefix or class)<br/>
+	 * which do not shrink enough, such as already compressed images,<br/>
+	 * are stored as is, saving the CPU time.
+	 *
+	 * @param compressionPolicy policy to use, or null to always compress
+	 */
+	public void setCompressionPolicy( CompressionPolicy compressionPolicy ) {
+		this.compressionPolicy = compressionPolicy;
+	}
+
+	/**
+	 * Returns the policy which learns which values are worth compressing.
+	 *
+	 * @return policy, or null if there is none
+	 */
+	public CompressionPolicy getCompressionPolicy() {
+		return this.compressionPolicy;
+	}
+
+	/**
+	 * Sets the size above which values are split into chunks.
+	 *
+	 * memcached refuses items larger than its item size limit (1 MB<br/>
+	 * by default).  With chunking on, a larger value is written as<br/>
+	 * chunks under keys of their own, spread across the servers, plus<br/>
+	 * a small manifest under the value's key which is written last.<br/>
+	 * A get of the key fetches all chunks with a single multi get.<br/>
+	 *<br/>
+	 * Every write of a chunked value uses new chunk keys, so readers<br/>
+	 * never see a mix of old and new chunks; the old chunks are left<br/>
+	 * to expire or be evicted.  The chunk size has to leave room for<br/>
+	 * the item header, eg. 1000000 for the 1 MB default.  Off (0) by<br/>
+	 * default; chunked values need 32 bit flags (memcached 1.2.1+).
+	 *
+	 * @param chunkSize maximum size of a single item, or 0 for no chunking
+	 */
+	public void setChunkSize( int chunkSize ) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Returns the size above which values are split into chunks.
+	 *
+	 * @return chunk size, or 0 if chunking is off
+	 */
+	public int getChunkSize() {
+		return this.chunkSize;
+	}
+
+	/**
+	 * Sets the maximum number of keys in a single get command.
+	 *
+	 * A multi get sends one get command per server.  With a limit<br/>
+	 * set, the keys for a server are split into batches of at most<br/>
+	 * this many keys, which are sent down the same connection one<br/>
+	 * after the other.  Only a couple of batches are outstanding per<br/>
+	 * server at any time, and the command for a batch is only built<br/>
+	 * when it is sent, so memory in flight stays bounded however many<br/>
+	 * keys are asked for.  No limit (0) by default.
+	 *
+	 * @param multiGetMaxKeys maximum keys per get command, or 0 for no limit
+	 */
+	public void setMultiGetMaxKeys( int multiGetMaxKeys ) {
+		this.multiGetMaxKeys = multiGetMaxKeys;
+	}
+
+	/**
+	 * Returns the maximum number of keys in a single get command.
+	 *
+	 * @return maximum keys, or 0 if there is no limit
+	 */
+	public int getMultiGetMaxKeys() {
+		return this.multiGetMaxKeys;
+	}
+
+	/**
+	 * Sets the maximum length of a single get command line.
+	 *
+	 * Works like setMultiGetMaxKeys, but limits the batches by the<br/>
+	 * bytes of the command.  A batch always holds at least one key.<br/>
+	 * No limit (0) by default.
+	 *
+	 * @param multiGetMaxBytes maximum bytes per get command, or 0 for no limit
+	 */
+	public void setMultiGetMaxBytes( int multiGetMaxBytes ) {
+		this.multiGetMaxBytes = multiGetMaxBytes;
+	}
+
+	/**
+	 * Returns the maximum length of a single get command line.
+	 *
+	 * @return maximum bytes, or 0 if there is no limit
+	 */
+	public int getMultiGetMaxBytes() {
+		return this.multiGetMaxBytes;
+	}
+
+	/**
+	 * Sets the executor used to decode the values of multi gets.
+	 *
+	 * Without one, every value of a multi get is uncompressed and<br/>
+	 * deserialized on the calling thread, one after the other.  With<br/>
+	 * an executor set, the calling thread only splits the responses<br/>
+	 * into values and hands them to the executor in batches, which<br/>
+	 * decode while the rest of the responses are still being read.<br/>
+	 * The last batch is decoded on the calling thread, so small<br/>
+	 * multi gets never leave it.<br/>
+	 *<br/>
+	 * Batches are handed on as soon as they are decoded, while the<br/>
+	 * other servers are still being read, so getMultiStreaming keeps<br/>
+	 * streaming.  Batches still being decoded when the multi get's<br/>
+	 * timeout runs out are dropped, like values not read in time.<br/>
+	 *<br/>
+	 * The transcoder, compressors and error handler are then called<br/>
+	 * from the executor's threads and have to be thread safe.  The<br/>
+	 * client does not shut the executor down.
+	 *
+	 * @param decodeExecutor executor to decode on, or null to decode on the calling thread
+	 */
+	public void setDecodeExecutor( ExecutorService decodeExecutor ) {
+		this.decodeExecutor = decodeExecutor;
+	}
+
+	/**
+	 * Returns the executor used to decode the values of multi gets.
+	 *
+	 * @return executor, or null if values are decoded on the calling thread
+	 */
+	public ExecutorService getDecodeExecutor() {
+		return this.decodeExecutor;
+	}
+
+	/** 
+	 * Enables/disables hedged reads of replicated keys.
+	 *
+	 * When enabled, a get for a key which is replicated (see<br/>
+	 * SockIOPool.setReplicas) is sent to one replica and, if that<br/>
+	 * server has not answered within the hedge delay, also sent to<br/>
+	 * the next replica.  Whichever answers first wins.<br/>
+	 *<br/>
+	 * The hedge delay is the configured percentile of recent get<br/>
+	 * latencies, but never less than the minimum hedge delay.
+	 * 
+	 * @param hedgedReads true to enable hedged reads
+	 */
+	public void setHedgedReads( boolean hedgedReads ) {
+		this.hedgedReads = hedgedReads;
+	}
+
+	/** 
+	 * Sets the percentile of get latency after which a hedged
+	 * read is sent to the next replica.  Default is 95.
+	 * 
+	 * @param percentile percentile (0 - 100)
+	 */
+	public void setHedgePercentile( double percentile ) {
+		this.getLatency.setPercentile( percentile );
+	}
+
+	/** 
+	 * Sets the minimum delay before a hedged read is sent.
+	 * Default is 2 ms.
+	 * 
+	 * @param minHedgeDelay delay in ms
+	 */
+	public void setMinHedgeDelay( long minHedgeDelay ) {
+		this.minHedgeDelay = minHedgeDelay;
+	}
+
+	/** 
+	 * Returns the delay to wait on a replica before hedging.
+	 * 
+	 * @return delay in ms
+	 */
+	private long getHedgeDelay() {
+		long micros = getLatency.getValue();
+		long delay  = ( micros < 0 ) ? minHedgeDelay : ( micros + 999 ) / 1000;
+		return Math.max( minHedgeDelay, delay );
+	}
+
+	/** 
+	 * Enables/disables batching of concurrent gets.
+	 *
+	 * When enabled, a get does not go to its server right away.  It<br/>
+	 * waits up to the window for gets from other threads for the same<br/>
+	 * server, and all of them are sent as one multi get; the thread<br/>
+	 * which came first sends it and hands each thread its value.  A<br/>
+	 * batch is sent early once it holds maxBatch keys.<br/>
+	 *<br/>
+	 * This trades up to one window of latency for far fewer round<br/>
+	 * trips when many threads get keys at the same time.  Only plain<br/>
+	 * gets of keys which are not replicated are batched; gets with a<br/>
+	 * transcoder, a deadline or asString go out on their own.  Off by<br/>
+	 * default.
+	 * 
+	 * @param window time to wait for more gets in microseconds, or 0 to turn batching off
+	 * @param maxBatch number of keys after which a batch is sent right away
+	 */
+	public void setGetBatching( long window, int maxBatch ) {
+		this.getBatcher = ( window > 0 ) ? new GetBatcher( window * 1000, Math.max( 1, maxBatch ) ) : null;
+	}
+
 	/** 
 	 * Checks to see if key exists in cache. 
 	 * 
@@ -419,12 +752,28 @@ public class MemcachedClient {
 	 * @return <code>true</code>, if the data was deleted successfully
 	 */
 	public boolean delete( String key, Integer hashCode, Date expiry ) {
+		return delete( key, hashCode, expiry, null );
+	}
+
+	/**
+	 * Deletes an object from cache given cache key, a delete time, an optional hashcode
+	 * and a deadline by which the call has to be finished.
+	 *
+	 * @param key the key to be removed
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @param expiry when to expire the record.
+	 * @param deadline if not null, the time by which the call has to be finished
+	 * @return <code>true</code>, if the data was deleted successfully
+	 */
+	public boolean delete( String key, Integer hashCode, Date expiry, Deadline deadline ) {
 
 		if ( key == null ) {
 			log.error( "null value for key passed to delete()" );
 			return false;
 		}
 
+		boolean replicated = pool.isReplicated( key );
+
 		try {
 			key = sanitizeKey( key );
 		}
@@ -438,8 +787,44 @@ public class MemcachedClient {
 			return false;
 		}
 
+		// build command
+		StringBuilder command = new StringBuilder( "delete " ).append( key );
+		if ( expiry != null )
+			command.append( " " + expiry.getTime() / 1000 );
+
+		command.append( "\r\n" );
+
+		// replicated keys have to be removed from every replica server
+		if ( replicated ) {
+			boolean success = false;
+			for ( String host : pool.getReplicaHosts( key, hashCode ) ) {
+				SockIOPool.SockIO sock = ( deadline == null )
+					? pool.getConnection( host )
+					: pool.getConnection( host, deadline.timeoutRemaining() );
+
+				if ( sock == null ) {
+					if ( errorHandler != null )
+						errorHandler.handleErrorOnDelete( this, new IOException( "no socket to replica server available: " + host ), key );
+					continue;
+				}
+
+				if ( !applyDeadline( sock, deadline ) ) {
+					if ( errorHandler != null )
+						errorHandler.handleErrorOnDelete( this, new IOException( "deadline expired before delete on: " + host ), key );
+					break;
+				}
+
+				if ( delete( sock, key, command.toString().getBytes() ) )
+					success = true;
+			}
+
+			return success;
+		}
+
 		// get SockIO obj from hash or from key
-		SockIOPool.SockIO sock = pool.getSock( key, hashCode );
+		SockIOPool.SockIO sock = ( deadline == null )
+			? pool.getSock( key, hashCode )
+			: pool.getSock( key, hashCode, deadline.timeoutRemaining() );
 
 		// return false if unable to get SockIO obj
 		if ( sock == null ) {
@@ -448,15 +833,60 @@ public class MemcachedClient {
 			return false;
 		}
 
-		// build command
-		StringBuilder command = new StringBuilder( "delete " ).append( key );
-		if ( expiry != null )
-			command.append( " " + expiry.getTime() / 1000 );
+		if ( !applyDeadline( sock, deadline ) ) {
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnDelete( this, new IOException( "deadline expired before delete" ), key );
+			return false;
+		}
+
+		return delete( sock, key, command.toString().getBytes() );
+	}
+
+	/**
+	 * Deletes an object from cache given a pre-encoded cache key.
+	 *
+	 * @param key the key to be removed
+	 * @return <code>true</code>, if the data was deleted successfully
+	 */
+	public boolean delete( CacheKey key ) {
+
+		if ( key == null ) {
+			log.error( "null value for key passed to delete()" );
+			return false;
+		}
+
+		// replicated keys have to be removed from every replica server
+		CacheKey ck = encode( key );
+		if ( ck == null || pool.isReplicated( key.getKey() ) )
+			return delete( key.getKey() );
+
+		SockIOPool.SockIO sock = pool.getSock( ck, null );
+
+		// return false if unable to get SockIO obj
+		if ( sock == null ) {
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnDelete( this, new IOException( "no socket to server available" ), ck.getWireKey() );
+			return false;
+		}
+
+		return delete( sock, ck.getWireKey(), command( B_DELETE, ck ) );
+	}
+
+	/** 
+	 * Sends a delete command over the passed in socket and reads back the
+	 * result code.
+	 *
+	 * The socket is always returned to the pool (or closed on error).
+	 * 
+	 * @param sock socket to write to
+	 * @param key sanitized key to be removed
+	 * @param command full delete command line
+	 * @return <code>true</code>, if the data was deleted successfully
+	 */
+	private boolean delete( SockIOPool.SockIO sock, String key, byte[] command ) {
 
-		command.append( "\r\n" );
-		
 		try {
-			sock.write( command.toString().getBytes() );
+			sock.write( command );
 			sock.flush();
 			
 			// if we get appropriate response back, then we return true
@@ -515,7 +945,7 @@ public class MemcachedClient {
 	 * @return true, if the data was successfully stored
 	 */
 	public boolean set( String key, Object value ) {
-		return set( "set", key, value, null, null, primitiveAsString );
+		return set( "set", key, value, null, null, primitiveAsString, null );
 	}
 
 	/**
@@ -527,7 +957,7 @@ public class MemcachedClient {
 	 * @return true, if the data was successfully stored
 	 */
 	public boolean set( String key, Object value, Integer hashCode ) {
-		return set( "set", key, value, null, hashCode, primitiveAsString );
+		return set( "set", key, value, null, hashCode, primitiveAsString, null );
 	}
 
 	/**
@@ -539,7 +969,7 @@ public class MemcachedClient {
 	 * @return true, if the data was successfully stored
 	 */
 	public boolean set( String key, Object value, Date expiry ) {
-		return set( "set", key, value, expiry, null, primitiveAsString );
+		return set( "set", key, value, expiry, null, primitiveAsString, null );
 	}
 
 	/**
@@ -552,132 +982,107 @@ public class MemcachedClient {
 	 * @return true, if the data was successfully stored
 	 */
 	public boolean set( String key, Object value, Date expiry, Integer hashCode ) {
-		return set( "set", key, value, expiry, hashCode, primitiveAsString );
+		return set( "set", key, value, expiry, hashCode, primitiveAsString, null );
 	}
 
 	/**
-	 * Adds data to the server; only the key and the value are specified.
+	 * Stores data on the server, encoding the value with the passed in transcoder.
 	 *
 	 * @param key key to store data under
 	 * @param value value to store
+	 * @param expiry when to expire the record
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @param transcoder transcoder to encode the value with
 	 * @return true, if the data was successfully stored
 	 */
-	public boolean add( String key, Object value ) {
-		return set( "add", key, value, null, null, primitiveAsString );
+	public boolean setWithTranscoder( String key, Object value, Date expiry, Integer hashCode, Transcoder transcoder ) {
+		return set( "set", key, null, value, expiry, hashCode, primitiveAsString, null, ( transcoder == null ) ? this.transcoder : transcoder );
 	}
 
 	/**
-	 * Adds data to the server; the key, value, and an optional hashcode are passed in.
+	 * Stores data on the server, finishing (or giving up) by the passed in deadline.
 	 *
 	 * @param key key to store data under
 	 * @param value value to store
+	 * @param expiry when to expire the record
 	 * @param hashCode if not null, then the int hashcode to use
+	 * @param deadline if not null, the time by which the call has to be finished
 	 * @return true, if the data was successfully stored
 	 */
-	public boolean add( String key, Object value, Integer hashCode ) {
-		return set( "add", key, value, null, hashCode, primitiveAsString );
+	public boolean set( String key, Object value, Date expiry, Integer hashCode, Deadline deadline ) {
+		return set( "set", key, value, expiry, hashCode, primitiveAsString, deadline );
 	}
 
 	/**
-	 * Adds data to the server; the key, value, and an expiration time are specified.
+	 * Stores data on the server under a pre-encoded cache key.
 	 *
 	 * @param key key to store data under
 	 * @param value value to store
-	 * @param expiry when to expire the record
 	 * @return true, if the data was successfully stored
 	 */
-	public boolean add( String key, Object value, Date expiry ) {
-		return set( "add", key, value, expiry, null, primitiveAsString );
+	public boolean set( CacheKey key, Object value ) {
+		return set( key, value, null );
 	}
 
 	/**
-	 * Adds data to the server; the key, value, and an expiration time are specified.
+	 * Stores data on the server under a pre-encoded cache key, with an expiration time.
 	 *
 	 * @param key key to store data under
 	 * @param value value to store
 	 * @param expiry when to expire the record
-	 * @param hashCode if not null, then the int hashcode to use
 	 * @return true, if the data was successfully stored
 	 */
-	public boolean add( String key, Object value, Date expiry, Integer hashCode ) {
-		return set( "add", key, value, expiry, hashCode, primitiveAsString );
+	public boolean set( CacheKey key, Object value, Date expiry ) {
+		if ( key == null ) {
+			log.error( "key is null for set()" );
+			return false;
+		}
+		return set( "set", key.getKey(), encode( key ), value, expiry, null, primitiveAsString, null, transcoder );
 	}
 
 	/**
-	 * Updates data on the server; only the key and the value are specified.
+	 * Stores the bytes read from a stream on the server.
 	 *
-	 * @param key key to store data under
-	 * @param value value to store
-	 * @return true, if the data was successfully stored
-	 */
-	public boolean replace( String key, Object value ) {
-		return set( "replace", key, value, null, null, primitiveAsString );
-	}
-
-	/**
-	 * Updates data on the server; only the key and the value and an optional hash are specified.
+	 *  The bytes are copied from the stream to the server in chunks,<br/>
+	 *  so large values are never held in memory as a whole.  Values<br/>
+	 *  longer than the {@link #setChunkSize(int) chunk size} are split<br/>
+	 *  into chunked items as they are read.  The bytes are<br/>
+	 *  stored uncompressed as a byte array, so {@link #get(String) get()}<br/>
+	 *  returns them as a byte[] and {@link #getAsStream(String) getAsStream()}<br/>
+	 *  streams them back.<br/>
 	 *
 	 * @param key key to store data under
-	 * @param value value to store
-	 * @param hashCode if not null, then the int hashcode to use
+	 * @param value stream to read the value from (not closed)
+	 * @param length number of bytes to read from the stream
 	 * @return true, if the data was successfully stored
 	 */
-	public boolean replace( String key, Object value, Integer hashCode ) {
-		return set( "replace", key, value, null, hashCode, primitiveAsString );
+	public boolean set( String key, InputStream value, int length ) {
+		return set( key, value, length, null, null );
 	}
 
 	/**
-	 * Updates data on the server; the key, value, and an expiration time are specified.
+	 * Stores the bytes read from a stream on the server.
 	 *
-	 * @param key key to store data under
-	 * @param value value to store
-	 * @param expiry when to expire the record
-	 * @return true, if the data was successfully stored
-	 */
-	public boolean replace( String key, Object value, Date expiry ) {
-		return set( "replace", key, value, expiry, null, primitiveAsString );
-	}
-
-	/**
-	 * Updates data on the server; the key, value, and an expiration time are specified.
+	 *  Replicated keys have to go to several servers, so their value<br/>
+	 *  is read into memory first, and then stored uncompressed on<br/>
+	 *  every replica.<br/>
 	 *
 	 * @param key key to store data under
-	 * @param value value to store
+	 * @param value stream to read the value from (not closed)
+	 * @param length number of bytes to read from the stream
 	 * @param expiry when to expire the record
 	 * @param hashCode if not null, then the int hashcode to use
 	 * @return true, if the data was successfully stored
 	 */
-	public boolean replace( String key, Object value, Date expiry, Integer hashCode ) {
-		return set( "replace", key, value, expiry, hashCode, primitiveAsString );
-	}
-
-	/** 
-	 * Stores data to cache.
-	 *
-	 * If data does not already exist for this key on the server, or if the key is being<br/>
-	 * deleted, the specified value will not be stored.<br/>
-	 * The server will automatically delete the value when the expiration time has been reached.<br/>
-	 * <br/>
-	 * If compression is enabled, and the data is longer than the compression threshold<br/>
-	 * the data will be stored in compressed form.<br/>
-	 * <br/>
-	 * As of the current release, all objects stored will use java serialization.
-	 * 
-	 * @param cmdname action to take (set, add, replace)
-	 * @param key key to store cache under
-	 * @param value object to cache
-	 * @param expiry expiration
-	 * @param hashCode if not null, then the int hashcode to use
-	 * @param asString store this object as a string?
-	 * @return true/false indicating success
-	 */
-	private boolean set( String cmdname, String key, Object value, Date expiry, Integer hashCode, boolean asString ) {
+	public boolean set( String key, InputStream value, int length, Date expiry, Integer hashCode ) {
 
-		if ( cmdname == null || cmdname.trim().equals( "" ) || key == null ) {
-			log.error( "key is null or cmd is null/empty for set()" );
+		if ( key == null || value == null || length < 0 ) {
+			log.error( "key or value is null or length is negative for set()" );
 			return false;
 		}
 
+		boolean replicated = pool.isReplicated( key );
+
 		try {
 			key = sanitizeKey( key );
 		}
@@ -691,12 +1096,36 @@ public class MemcachedClient {
 			return false;
 		}
 
-		if ( value == null ) {
-			log.error( "trying to store a null value to cache" );
-			return false;
+		if ( expiry == null )
+			expiry = new Date(0);
+
+		if ( replicated ) {
+			byte[] buf = new byte[ length ];
+			try {
+				new DataInputStream( value ).readFully( buf );
+			}
+			catch ( IOException e ) {
+
+				// if we have an errorHandler, use its hook
+				if ( errorHandler != null )
+					errorHandler.handleErrorOnSet( this, e, key );
+
+				log.error( "++++ failed to read value stream for key: " + key, e );
+				return false;
+			}
+			return storeBytes( "set", key, null, true, MARKER_BYTEARR, expiry, buf, hashCode, null );
+		}
+
+		// too large for a single item, so the stream is written
+		// as chunks and a manifest pointing to them is stored
+		byte[] manifest = null;
+		int chunkSize   = this.chunkSize;
+		if ( chunkSize > 0 && length > chunkSize ) {
+			manifest = storeChunks( key, null, value, length, chunkSize, expiry, null );
+			if ( manifest == null )
+				return false;
 		}
 
-		// get SockIO obj
 		SockIOPool.SockIO sock = pool.getSock( key, hashCode );
 		
 		if ( sock == null ) {
@@ -704,7 +1133,206 @@ public class MemcachedClient {
 				errorHandler.handleErrorOnSet( this, new IOException( "no socket to server available" ), key );
 			return false;
 		}
-		
+
+		return ( manifest == null )
+			? store( sock, "set", key, MARKER_BYTEARR, expiry, null, value, length )
+			: store( sock, "set", key, MARKER_BYTEARR | F_CHUNKED, expiry, manifest );
+	}
+
+	/**
+	 * Adds data to the server; only the key and the value are specified.
+	 *
+	 * @param key key to store data under
+	 * @param value value to store
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean add( String key, Object value ) {
+		return set( "add", key, value, null, null, primitiveAsString, null );
+	}
+
+	/**
+	 * Adds data to the server; the key, value, and an optional hashcode are passed in.
+	 *
+	 * @param key key to store data under
+	 * @param value value to store
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean add( String key, Object value, Integer hashCode ) {
+		return set( "add", key, value, null, hashCode, primitiveAsString, null );
+	}
+
+	/**
+	 * Adds data to the server; the key, value, and an expiration time are specified.
+	 *
+	 * @param key key to store data under
+	 * @param value value to store
+	 * @param expiry when to expire the record
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean add( String key, Object value, Date expiry ) {
+		return set( "add", key, value, expiry, null, primitiveAsString, null );
+	}
+
+	/**
+	 * Adds data to the server; the key, value, and an expiration time are specified.
+	 *
+	 * @param key key to store data under
+	 * @param value value to store
+	 * @param expiry when to expire the record
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean add( String key, Object value, Date expiry, Integer hashCode ) {
+		return set( "add", key, value, expiry, hashCode, primitiveAsString, null );
+	}
+
+	/**
+	 * Adds data to the server, encoding the value with the passed in transcoder.
+	 *
+	 * @param key key to store data under
+	 * @param value value to store
+	 * @param expiry when to expire the record
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @param transcoder transcoder to encode the value with
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean addWithTranscoder( String key, Object value, Date expiry, Integer hashCode, Transcoder transcoder ) {
+		return set( "add", key, null, value, expiry, hashCode, primitiveAsString, null, ( transcoder == null ) ? this.transcoder : transcoder );
+	}
+
+	/**
+	 * Updates data on the server; only the key and the value are specified.
+	 *
+	 * @param key key to store data under
+	 * @param value value to store
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean replace( String key, Object value ) {
+		return set( "replace", key, value, null, null, primitiveAsString, null );
+	}
+
+	/**
+	 * Updates data on the server; only the key and the value and an optional hash are specified.
+	 *
+	 * @param key key to store data under
+	 * @param value value to store
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean replace( String key, Object value, Integer hashCode ) {
+		return set( "replace", key, value, null, hashCode, primitiveAsString, null );
+	}
+
+	/**
+	 * Updates data on the server; the key, value, and an expiration time are specified.
+	 *
+	 * @param key key to store data under
+	 * @param value value to store
+	 * @param expiry when to expire the record
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean replace( String key, Object value, Date expiry ) {
+		return set( "replace", key, value, expiry, null, primitiveAsString, null );
+	}
+
+	/**
+	 * Updates data on the server; the key, value, and an expiration time are specified.
+	 *
+	 * @param key key to store data under
+	 * @param value value to store
+	 * @param expiry when to expire the record
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean replace( String key, Object value, Date expiry, Integer hashCode ) {
+		return set( "replace", key, value, expiry, hashCode, primitiveAsString, null );
+	}
+
+	/**
+	 * Updates data on the server, encoding the value with the passed in transcoder.
+	 *
+	 * @param key key to store data under
+	 * @param value value to store
+	 * @param expiry when to expire the record
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @param transcoder transcoder to encode the value with
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean replaceWithTranscoder( String key, Object value, Date expiry, Integer hashCode, Transcoder transcoder ) {
+		return set( "replace", key, null, value, expiry, hashCode, primitiveAsString, null, ( transcoder == null ) ? this.transcoder : transcoder );
+	}
+
+	/** 
+	 * Stores data to cache.
+	 *
+	 * If data does not already exist for this key on the server, or if the key is being<br/>
+	 * deleted, the specified value will not be stored.<br/>
+	 * The server will automatically delete the value when the expiration time has been reached.<br/>
+	 * <br/>
+	 * If compression is enabled, and the data is longer than the compression threshold<br/>
+	 * the data will be stored in compressed form.<br/>
+	 * <br/>
+	 * Values are encoded by the client's transcoder, which by default stores<br/>
+	 * the types known to the NativeHandler natively and serializes the rest.
+	 * 
+	 * @param cmdname action to take (set, add, replace)
+	 * @param key key to store cache under
+	 * @param value object to cache
+	 * @param expiry expiration
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @param asString store this object as a string?
+	 * @param deadline if not null, the time by which the call has to be finished
+	 * @return true/false indicating success
+	 */
+	private boolean set( String cmdname, String key, Object value, Date expiry, Integer hashCode, boolean asString, Deadline deadline ) {
+		return set( cmdname, key, null, value, expiry, hashCode, asString, deadline, transcoder );
+	}
+
+	/** 
+	 * Stores data to cache, encoding it with the passed in transcoder.
+	 * 
+	 * @param cmdname action to take (set, add, replace)
+	 * @param key key to store cache under
+	 * @param cacheKey if not null, the key already encoded
+	 * @param value object to cache
+	 * @param expiry expiration
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @param asString store this object as a string?
+	 * @param deadline if not null, the time by which the call has to be finished
+	 * @param transcoder transcoder to encode the value with
+	 * @return true/false indicating success
+	 */
+	private boolean set( String cmdname, String key, CacheKey cacheKey, Object value, Date expiry, Integer hashCode, boolean asString, Deadline deadline, Transcoder transcoder ) {
+
+		if ( cmdname == null || cmdname.trim().equals( "" ) || key == null ) {
+			log.error( "key is null or cmd is null/empty for set()" );
+			return false;
+		}
+
+		boolean replicated = pool.isReplicated( key );
+
+		CompressionPolicy policy = this.compressionPolicy;
+		String compressionGroup  = ( policy != null && compressEnable ) ? policy.getGroup( key, value ) : null;
+
+		try {
+			key = ( cacheKey == null ) ? sanitizeKey( key ) : cacheKey.getWireKey();
+		}
+		catch ( UnsupportedEncodingException e ) {
+
+			// if we have an errorHandler, use its hook
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnSet( this, e, key );
+
+			log.error( "failed to sanitize your key!", e );
+			return false;
+		}
+
+		if ( value == null ) {
+			log.error( "trying to store a null value to cache" );
+			return false;
+		}
+
 		if ( expiry == null )
 			expiry = new Date(0);
 
@@ -714,98 +1342,94 @@ public class MemcachedClient {
 		// byte array to hold data
 		byte[] val;
 
-        if ( NativeHandler.isHandled( value ) ) {
-			
-			if ( asString ) {
-				// useful for sharing data between java and non-java
-				// and also for storing ints for the increment method
-				try {
-					if ( log.isInfoEnabled() )
-						log.info( "++++ storing data as a string for key: " + key + " for class: " + value.getClass().getName() );
-					val = value.toString().getBytes( defaultEncoding );
-				}
-				catch ( UnsupportedEncodingException ue ) {
-
-					// if we have an errorHandler, use its hook
-					if ( errorHandler != null )
-						errorHandler.handleErrorOnSet( this, ue, key );
-
-					log.error( "invalid encoding type used: " + defaultEncoding, ue );
-					sock.close();
-					sock = null;
-					return false;
-				}
+		if ( asString && NativeHandler.isHandled( value ) ) {
+			// useful for sharing data between java and non-java
+			// and also for storing ints for the increment method
+			try {
+				if ( log.isInfoEnabled() )
+					log.info( "++++ storing data as a string for key: " + key + " for class: " + value.getClass().getName() );
+				val = value.toString().getBytes( defaultEncoding );
 			}
-			else {
-				try {
-					if ( log.isInfoEnabled() )
-						log.info( "Storing with native handler..." );
-					flags |= NativeHandler.getMarkerFlag( value );
-					val    = NativeHandler.encode( value );
-				}
-				catch ( Exception e ) {
-
-					// if we have an errorHandler, use its hook
-					if ( errorHandler != null )
-						errorHandler.handleErrorOnSet( this, e, key );
+			catch ( UnsupportedEncodingException ue ) {
 
-					log.error( "Failed to native handle obj", e );
+				// if we have an errorHandler, use its hook
+				if ( errorHandler != null )
+					errorHandler.handleErrorOnSet( this, ue, key );
 
-					sock.close();
-					sock = null;
-					return false;
-				}
+				log.error( "invalid encoding type used: " + defaultEncoding, ue );
+				return false;
 			}
 		}
 		else {
-			// always serialize for non-primitive types
 			try {
 				if ( log.isInfoEnabled() )
-					log.info( "++++ serializing for key: " + key + " for class: " + value.getClass().getName() );
-				ByteArrayOutputStream bos = new ByteArrayOutputStream();
-				(new ObjectOutputStream( bos )).writeObject( value );
-				val = bos.toByteArray();
-				flags |= F_SERIALIZED;
+					log.info( "++++ encoding for key: " + key + " for class: " + value.getClass().getName() );
+				if ( transcoder.getClass() == DefaultTranscoder.class ) {
+					// flags and bytes from one walk over the value
+					int[] encodedFlags = new int[1];
+					val    = ((DefaultTranscoder)transcoder).encode( value, encodedFlags );
+					flags |= encodedFlags[0];
+				}
+				else {
+					flags |= transcoder.getFlags( value );
+					val    = transcoder.encode( value );
+				}
 			}
-			catch ( IOException e ) {
+			catch ( Exception e ) {
 
 				// if we have an errorHandler, use its hook
 				if ( errorHandler != null )
 					errorHandler.handleErrorOnSet( this, e, key );
 
-				// if we fail to serialize, then
+				// if we fail to encode, then
 				// we bail
-				log.error( "failed to serialize obj", e );
+				log.error( "failed to encode obj", e );
 				log.error( value.toString() );
+				return false;
+			}
 
-				// return socket to pool and bail
-				sock.close();
-				sock = null;
+			if ( val == null || ( flags & ( F_COMPRESSED | F_COMPRESSED_LZ | F_COMPRESSED_DICT | F_CHUNKED | compressor.getFlags() ) ) != 0 ) {
+				Exception e = new IllegalStateException( "transcoder returned no data or used a compression flag for class: " + value.getClass().getName() );
+
+				// if we have an errorHandler, use its hook
+				if ( errorHandler != null )
+					errorHandler.handleErrorOnSet( this, e, key );
+
+				log.error( "failed to encode obj", e );
 				return false;
 			}
 		}
 		
 		// now try to compress if we want to
 		// and if the length is over the threshold 
-		if ( compressEnable && val.length > compressThreshold ) {
+		// (and the policy does not know better)
+		if ( compressEnable && val.length > compressThreshold
+				&& ( compressionGroup == null || policy.shouldCompress( compressionGroup ) ) ) {
 
 			try {
 				if ( log.isInfoEnabled() ) {
 					log.info( "++++ trying to compress data" );
 					log.info( "++++ size prior to compression: " + val.length );
 				}
-				ByteArrayOutputStream bos = new ByteArrayOutputStream( val.length );
-				GZIPOutputStream gos = new GZIPOutputStream( bos );
-				gos.write( val, 0, val.length );
-				gos.finish();
-				gos.close();
+				Compressor compressor = this.compressor;
+				long start            = System.nanoTime();
+				byte[] compressed     = compressor.compress( val );
+
+				if ( compressionGroup != null )
+					policy.record( compressionGroup, val.length, compressed.length, System.nanoTime() - start );
 				
-				// store it and set compression flag
-				val = bos.toByteArray();
-				flags |= F_COMPRESSED;
+				// store it and set compression flag, unless
+				// the data did not get any smaller
+				if ( compressed.length < val.length ) {
+					val    = compressed;
+					flags |= F_COMPRESSED | compressor.getFlags();
 
-				if ( log.isInfoEnabled() )
-					log.info( "++++ compression succeeded, size after: " + val.length );
+					if ( log.isInfoEnabled() )
+						log.info( "++++ compression succeeded, size after: " + val.length );
+				}
+				else if ( log.isInfoEnabled() ) {
+					log.info( "++++ compression did not shrink data, storing uncompressed" );
+				}
 			}
 			catch ( IOException e ) {
 
@@ -818,11 +1442,158 @@ public class MemcachedClient {
 			}
 		}
 
+		return storeBytes( cmdname, key, cacheKey, replicated, flags, expiry, val, hashCode, deadline );
+	}
+
+	/** 
+	 * Stores a value which has already been encoded.
+	 * 
+	 * @param cmdname action to take (set, add, replace)
+	 * @param key sanitized key
+	 * @param cacheKey if not null, the key to hash and write instead
+	 * @param replicated true if the value goes to every replica
+	 * @param flags flags to store with the value
+	 * @param expiry expiration
+	 * @param val encoded value
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @param deadline if not null, the time by which the call has to be finished
+	 * @return true/false indicating success
+	 */
+	private boolean storeBytes( String cmdname, String key, CacheKey cacheKey, boolean replicated, int flags, Date expiry, byte[] val, Integer hashCode, Deadline deadline ) {
+
+		// too large for a single item, so write the chunks
+		// and store a manifest pointing to them instead
+		int chunkSize = this.chunkSize;
+		if ( chunkSize > 0 && val.length > chunkSize ) {
+			val = storeChunks( key, val, null, val.length, chunkSize, expiry, deadline );
+			if ( val == null )
+				return false;
+			flags |= F_CHUNKED;
+		}
+
+		// replicated keys are written to every replica server
+		if ( replicated ) {
+			boolean success = false;
+			for ( String host : pool.getReplicaHosts( key, hashCode ) ) {
+				SockIOPool.SockIO sock = ( deadline == null )
+					? pool.getConnection( host )
+					: pool.getConnection( host, deadline.timeoutRemaining() );
+
+				if ( sock == null ) {
+					if ( errorHandler != null )
+						errorHandler.handleErrorOnSet( this, new IOException( "no socket to replica server available: " + host ), key );
+					continue;
+				}
+
+				if ( !applyDeadline( sock, deadline ) ) {
+					if ( errorHandler != null )
+						errorHandler.handleErrorOnSet( this, new IOException( "deadline expired before write to: " + host ), key );
+					break;
+				}
+
+				if ( store( sock, cmdname, key, flags, expiry, val ) )
+					success = true;
+			}
+
+			return success;
+		}
+
+		// get SockIO obj
+		int connectTimeout = ( deadline == null ) ? pool.getSocketConnectTO() : deadline.timeoutRemaining();
+		SockIOPool.SockIO sock = ( cacheKey == null )
+			? pool.getSock( key, hashCode, connectTimeout )
+			: pool.getSock( cacheKey, hashCode, connectTimeout );
+		
+		if ( sock == null ) {
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnSet( this, new IOException( "no socket to server available" ), key );
+			return false;
+		}
+
+		if ( !applyDeadline( sock, deadline ) ) {
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnSet( this, new IOException( "deadline expired before write" ), key );
+			return false;
+		}
+
+		return store( sock, cmdname, key, flags, expiry, val );
+	}
+
+	/** 
+	 * Bounds the reads on a checked out socket by what is left of a deadline.
+	 *
+	 * If the deadline has already passed, the socket is returned<br/>
+	 * to the pool and false is returned.
+	 * 
+	 * @param sock checked out socket
+	 * @param deadline deadline, or null for no deadline
+	 * @return false if the deadline has passed
+	 */
+	private boolean applyDeadline( SockIOPool.SockIO sock, Deadline deadline ) {
+		if ( deadline == null )
+			return true;
+
+		try {
+			if ( !deadline.isExpired() ) {
+				sock.setReadTimeout( deadline.timeoutRemaining() );
+				return true;
+			}
+		}
+		catch ( IOException e ) {
+			log.error( "++++ failed to apply deadline to socket: " + sock.toString(), e );
+		}
+
+		log.error( "++++ deadline expired for operation on: " + sock.getHost() );
+		sock.close();
+		return false;
+	}
+
+	/** 
+	 * Writes an already encoded value to the server at the other end
+	 * of the passed in socket and reads back the result code.
+	 *
+	 * The socket is always returned to the pool (or closed on error).
+	 * 
+	 * @param sock socket to write to
+	 * @param cmdname action to take (set, add, replace)
+	 * @param key sanitized key to store cache under
+	 * @param flags flags to store with the value
+	 * @param expiry expiration
+	 * @param val encoded value
+	 * @return true/false indicating success
+	 */
+	private boolean store( SockIOPool.SockIO sock, String cmdname, String key, int flags, Date expiry, byte[] val ) {
+		return store( sock, cmdname, key, flags, expiry, val, null, val.length );
+	}
+
+	/** 
+	 * Writes a value to the server, either from an array or copied
+	 * over in chunks from a stream, and reads back the result code.
+	 *
+	 * The socket is always returned to the pool (or closed on error).
+	 * 
+	 * @param sock socket to write to
+	 * @param cmdname action to take (set, add, replace)
+	 * @param key sanitized key to store cache under
+	 * @param flags flags to store with the value
+	 * @param expiry expiration
+	 * @param val encoded value, or null to read it from in
+	 * @param in stream to read the value from if val is null
+	 * @param length length of the value
+	 * @return true/false indicating success
+	 */
+	private boolean store( SockIOPool.SockIO sock, String cmdname, String key, int flags, Date expiry, byte[] val, InputStream in, int length ) {
+
 		// now write the data to the cache server
 		try {
-			String cmd = String.format( "%s %s %d %d %d\r\n", cmdname, key, flags, (expiry.getTime() / 1000), val.length );
+			String cmd = String.format( "%s %s %d %d %d\r\n", cmdname, key, flags, (expiry.getTime() / 1000), length );
 			sock.write( cmd.getBytes() );
-			sock.write( val );
+			if ( val != null ) {
+				sock.write( val );
+			}
+			else {
+				copyStream( in, sock, new byte[ Math.min( length, STREAM_CHUNK ) ], length );
+			}
 			sock.write( "\r\n".getBytes() );
 			sock.flush();
 
@@ -843,7 +1614,7 @@ public class MemcachedClient {
 					log.info( "++++ data not stored in cache for key: " + key );
 			}
 			else {
-				log.error( "++++ error storing data in cache for key: " + key + " -- length: " + val.length );
+				log.error( "++++ error storing data in cache for key: " + key + " -- length: " + length );
 				log.error( "++++ server response: " + line );
 			}
 		}
@@ -875,6 +1646,30 @@ public class MemcachedClient {
 		return false;
 	}
 
+	/** 
+	 * Copies exactly length bytes from a stream to a socket.
+	 *
+	 * The server expects exactly length bytes, so a short stream<br/>
+	 * leaves the connection unusable and is reported as an error.
+	 * 
+	 * @param in stream to read from
+	 * @param sock socket to write to
+	 * @param buf buffer to copy through
+	 * @param length number of bytes to copy
+	 * @throws IOException if the stream ends early or the write fails
+	 */
+	private static void copyStream( InputStream in, SockIOPool.SockIO sock, byte[] buf, int length ) throws IOException {
+		int left = length;
+		while ( left > 0 ) {
+			int n = in.read( buf, 0, Math.min( left, buf.length ) );
+			if ( n < 0 )
+				throw new IOException( "++++ value stream ended " + left + " bytes short of " + length );
+
+			sock.write( buf, 0, n );
+			left -= n;
+		}
+	}
+
 	/** 
 	 * Store a counter to memcached given a key
 	 * 
@@ -883,7 +1678,7 @@ public class MemcachedClient {
 	 * @return true/false indicating success
 	 */
 	public boolean storeCounter( String key, long counter ) {
-		return set( "set", key, new Long( counter ), null, null, true );
+		return storeLong( "set", key, counter, null, null );
 	}
 
 	/** 
@@ -894,7 +1689,7 @@ public class MemcachedClient {
 	 * @return true/false indicating success
 	 */
 	public boolean storeCounter( String key, Long counter ) {
-		return set( "set", key, counter, null, null, true );
+		return set( "set", key, counter, null, null, true, null );
 	}
     
 	/** 
@@ -906,7 +1701,18 @@ public class MemcachedClient {
 	 * @return true/false indicating success
 	 */
 	public boolean storeCounter( String key, Long counter, Integer hashCode ) {
-		return set( "set", key, counter, null, hashCode, true );
+		return set( "set", key, counter, null, hashCode, true, null );
+	}
+
+	/** 
+	 * Store a counter to memcached given a key, unless it already exists.
+	 * 
+	 * @param key cache key
+	 * @param counter number to store
+	 * @return true if the counter was stored
+	 */
+	boolean addCounter( String key, long counter ) {
+		return storeLong( "add", key, counter, null, null );
 	}
 
 	/** 
@@ -933,22 +1739,291 @@ public class MemcachedClient {
 			return -1;
 		}
 
-		long counter = -1;
+		return getLong( key, -1, hashCode );
+	}
+
+	/** 
+	 * Store a long to memcached given a key.
+	 *
+	 * The value is written as decimal digits straight from the long,<br/>
+	 * like a counter, so it can be incremented and read by getLong<br/>
+	 * (and by non-java clients) without any boxing.
+	 * 
+	 * @param key cache key
+	 * @param value number to store
+	 * @return true/false indicating success
+	 */
+	public boolean setLong( String key, long value ) {
+		return storeLong( "set", key, value, null, null );
+	}
+
+	/** 
+	 * Store a long to memcached given a key.
+	 * 
+	 * @param key cache key
+	 * @param value number to store
+	 * @param expiry when to expire the record
+	 * @return true/false indicating success
+	 */
+	public boolean setLong( String key, long value, Date expiry ) {
+		return storeLong( "set", key, value, expiry, null );
+	}
+
+	/** 
+	 * Returns the value at given key as long.
+	 *
+	 * Counters and values stored with setLong are parsed straight<br/>
+	 * from the bytes read.  Longs and Integers stored with set are<br/>
+	 * read from their native encoding; other Numbers are decoded.
+	 * 
+	 * @param key cache key
+	 * @param defaultValue value to return if the key is not found or not a number
+	 * @return value, or defaultValue
+	 */
+	public long getLong( String key, long defaultValue ) {
+		return getLong( key, defaultValue, null );
+	}
+
+	/** 
+	 * Returns the value at given key as long.
+	 * 
+	 * @param key cache key
+	 * @param defaultValue value to return if the key is not found or not a number
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @return value, or defaultValue
+	 */
+	public long getLong( String key, long defaultValue, Integer hashCode ) {
+
+		if ( key == null ) {
+			log.error( "null key for getLong()" );
+			return defaultValue;
+		}
+
+		CachedValue value = getCachedValue( key, hashCode );
+		if ( value == null )
+			return defaultValue;
+
+		byte[] b  = value.getBytes();
+		int flags = value.getFlags();
 		try {
-			counter = Long.parseLong( (String)get( key, hashCode, true ) );
+			if ( flags == 0 )
+				return parseLong( b );
+			if ( flags == MARKER_LONG )
+				return NativeHandler.toLong( b );
+			if ( flags == MARKER_INTEGER )
+				return NativeHandler.toInt( b );
+
+			// compressed or some other type
+			Object o = value.getValue();
+			if ( o instanceof Number )
+				return ((Number)o).longValue();
+			if ( o instanceof String )
+				return Long.parseLong( ((String)o).trim() );
+
+			throw new NumberFormatException( "not a number: " + o );
 		}
-		catch ( Exception ex ) {
+		catch ( NumberFormatException ex ) {
 
 			// if we have an errorHandler, use its hook
 			if ( errorHandler != null )
 				errorHandler.handleErrorOnGet( this, ex, key );
 
-			// not found or error getting out
 			if ( log.isInfoEnabled() )
 				log.info( String.format( "Failed to parse Long value for key: %s", key ) );
 		}
-		
-		return counter;
+
+		return defaultValue;
+	}
+
+	/** 
+	 * Returns the value at given key as int.
+	 *
+	 * Works like getLong; values out of the int range are not a number.
+	 * 
+	 * @param key cache key
+	 * @param defaultValue value to return if the key is not found or not a number
+	 * @return value, or defaultValue
+	 */
+	public int getInt( String key, int defaultValue ) {
+		// a value which is not a number makes getLong
+		// return a default outside the int range
+		long value = getLong( key, Long.MIN_VALUE, null );
+		if ( value < Integer.MIN_VALUE || value > Integer.MAX_VALUE )
+			return defaultValue;
+
+		return (int)value;
+	}
+
+	/** 
+	 * Returns the value at given key as boolean.
+	 *
+	 * Booleans stored with set are read from their native encoding,<br/>
+	 * values stored as strings have to read "true" or "false" (in<br/>
+	 * any case); anything else gives the default.
+	 * 
+	 * @param key cache key
+	 * @param defaultValue value to return if the key is not found or not a boolean
+	 * @return value, or defaultValue
+	 */
+	public boolean getBoolean( String key, boolean defaultValue ) {
+
+		if ( key == null ) {
+			log.error( "null key for getBoolean()" );
+			return defaultValue;
+		}
+
+		CachedValue value = getCachedValue( key, null );
+		if ( value == null )
+			return defaultValue;
+
+		byte[] b  = value.getBytes();
+		int flags = value.getFlags();
+		if ( flags == MARKER_BOOLEAN && b.length == 1 )
+			return b[0] == 1;
+		if ( flags == 0 ) {
+			if ( isWord( b, "true" ) )
+				return true;
+			if ( isWord( b, "false" ) )
+				return false;
+		}
+		else {
+			Object o = value.getValue();
+			if ( o instanceof Boolean )
+				return ((Boolean)o).booleanValue();
+		}
+
+		if ( log.isInfoEnabled() )
+			log.info( String.format( "Failed to parse Boolean value for key: %s", key ) );
+		return defaultValue;
+	}
+
+	/** 
+	 * Stores a long as decimal digits, like a counter.
+	 * 
+	 * @param cmdname set, add or replace
+	 * @param key cache key
+	 * @param value number to store
+	 * @param expiry when to expire the record, or null
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @return true/false indicating success
+	 */
+	private boolean storeLong( String cmdname, String key, long value, Date expiry, Integer hashCode ) {
+
+		if ( key == null ) {
+			log.error( "key is null for " + cmdname + "()" );
+			return false;
+		}
+
+		boolean replicated = pool.isReplicated( key );
+
+		try {
+			key = sanitizeKey( key );
+		}
+		catch ( UnsupportedEncodingException e ) {
+
+			// if we have an errorHandler, use its hook
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnSet( this, e, key );
+
+			log.error( "failed to sanitize your key!", e );
+			return false;
+		}
+
+		return storeBytes( cmdname, key, null, replicated, 0, ( expiry == null ) ? new Date(0) : expiry, toDigits( value ), hashCode, null );
+	}
+
+	/** 
+	 * Compares ascii bytes to a lower case word, ignoring case.
+	 * 
+	 * @param b bytes read from the server
+	 * @param word lower case ascii word
+	 * @return true if the bytes spell the word
+	 */
+	private static boolean isWord( byte[] b, String word ) {
+		if ( b.length != word.length() )
+			return false;
+
+		for ( int i = 0; i < b.length; i++ ) {
+			int c = b[i];
+			if ( c >= 'A' && c <= 'Z' )
+				c += 'a' - 'A';
+			if ( c != word.charAt( i ) )
+				return false;
+		}
+		return true;
+	}
+
+	/** 
+	 * Writes a long as ascii decimal digits.
+	 * 
+	 * @param value number
+	 * @return digits, with a leading '-' if negative
+	 */
+	private static byte[] toDigits( long value ) {
+		byte[] buf = new byte[ 20 ];
+		int pos    = buf.length;
+
+		// work on the negative value, so MIN_VALUE fits
+		boolean negative = value < 0;
+		if ( !negative )
+			value = -value;
+
+		do {
+			buf[ --pos ] = (byte)( '0' - ( value % 10 ) );
+			value /= 10;
+		} while ( value != 0 );
+
+		if ( negative )
+			buf[ --pos ] = '-';
+
+		byte[] digits = new byte[ buf.length - pos ];
+		System.arraycopy( buf, pos, digits, 0, digits.length );
+		return digits;
+	}
+
+	/** 
+	 * Parses ascii decimal digits as a long.
+	 *
+	 * Trailing blanks are allowed, since memcached pads counters<br/>
+	 * which got shorter after a decr.
+	 * 
+	 * @param b digits, with an optional leading '-'
+	 * @return number
+	 * @throws NumberFormatException if b is not a number
+	 */
+	private static long parseLong( byte[] b ) {
+		int end = b.length;
+		while ( end > 0 && ( b[ end - 1 ] == ' ' || b[ end - 1 ] == '\r' || b[ end - 1 ] == '\n' ) )
+			end--;
+
+		int pos = 0;
+		boolean negative = end > 0 && b[0] == '-';
+		if ( negative )
+			pos++;
+
+		if ( pos == end || end - pos > 19 )
+			throw new NumberFormatException( "not a long: " + new String( b ) );
+
+		// accumulate negatively, so MIN_VALUE fits
+		long value = 0;
+		for ( ; pos < end; pos++ ) {
+			int digit = b[ pos ] - '0';
+			if ( digit < 0 || digit > 9 )
+				throw new NumberFormatException( "not a long: " + new String( b ) );
+
+			long next = value * 10 - digit;
+			if ( next > value )
+				throw new NumberFormatException( "not a long: " + new String( b ) );
+			value = next;
+		}
+
+		if ( !negative ) {
+			if ( value == Long.MIN_VALUE )
+				throw new NumberFormatException( "not a long: " + new String( b ) );
+			value = -value;
+		}
+
+		return value;
 	}
 
 	/** 
@@ -981,7 +2056,7 @@ public class MemcachedClient {
 	 * @return value of incrementer
 	 */
 	public long addOrIncr( String key, long inc, Integer hashCode ) {
-		boolean ret = set( "add", key, new Long( inc ), null, hashCode, true );
+		boolean ret = storeLong( "add", key, inc, null, hashCode );
 
 		if ( ret ) {
 			return inc;
@@ -1021,7 +2096,7 @@ public class MemcachedClient {
 	 * @return value of incrementer
 	 */
 	public long addOrDecr( String key, long inc, Integer hashCode ) {
-		boolean ret = set( "add", key, new Long( inc ), null, hashCode, true );
+		boolean ret = storeLong( "add", key, inc, null, hashCode );
 
 		if ( ret ) {
 			return inc;
@@ -1119,6 +2194,8 @@ public class MemcachedClient {
 			return -1;
 		}
 
+		boolean replicated = pool.isReplicated( key );
+
 		try {
 			key = sanitizeKey( key );
 		}
@@ -1132,6 +2209,31 @@ public class MemcachedClient {
 			return -1;
 		}
 
+		String cmd = String.format( "%s %s %d\r\n", cmdname, key, inc );
+		if ( log.isDebugEnabled() )
+			log.debug( "++++ memcache incr/decr command: " + cmd );
+
+		// replicated counters are bumped on every replica server
+		// and we hand back the value from the first one that answers
+		if ( replicated ) {
+			long result = -1;
+			for ( String host : pool.getReplicaHosts( key, hashCode ) ) {
+				SockIOPool.SockIO sock = pool.getConnection( host );
+
+				if ( sock == null ) {
+					if ( errorHandler != null )
+						errorHandler.handleErrorOnSet( this, new IOException( "no socket to replica server available: " + host ), key );
+					continue;
+				}
+
+				long res = incrdecr( sock, key, cmd );
+				if ( result == -1 )
+					result = res;
+			}
+
+			return result;
+		}
+
 		// get SockIO obj for given cache key
 		SockIOPool.SockIO sock = pool.getSock( key, hashCode );
 
@@ -1140,12 +2242,162 @@ public class MemcachedClient {
 				errorHandler.handleErrorOnSet( this, new IOException( "no socket to server available" ), key );
 			return -1;
 		}
-		
-		try {
-			String cmd = String.format( "%s %s %d\r\n", cmdname, key, inc );
-			if ( log.isDebugEnabled() )
-				log.debug( "++++ memcache incr/decr command: " + cmd );
 
+		return incrdecr( sock, key, cmd );
+	}
+
+	/** 
+	 * Increments (or, for negative deltas, decrements) many counters,
+	 * with one round trip per server.
+	 *
+	 * The commands for all keys of a server are pipelined over one<br/>
+	 * connection.  Replicated keys are bumped one by one on every<br/>
+	 * replica.
+	 * 
+	 * @param deltas amount to add, by key; Long.MIN_VALUE can not be sent
+	 * @return the value after incrementing by key, -1 for keys which were not found;
+	 *      keys which could not be sent are left out
+	 */
+	public Map<String,Long> incrMulti( Map<String,Long> deltas ) {
+
+		Map<String,Long> ret = new HashMap<String,Long>( deltas.size() );
+
+		// sanitized keys and their commands, by host
+		Map<String,List<String>> hostKeys = new HashMap<String,List<String>>();
+		Map<String,StringBuilder> hostCmds = new HashMap<String,StringBuilder>();
+
+		for ( Map.Entry<String,Long> entry : deltas.entrySet() ) {
+			String key = entry.getKey();
+			long delta = entry.getValue().longValue();
+			if ( key == null )
+				continue;
+
+			// it has no positive counterpart to decr by
+			if ( delta == Long.MIN_VALUE ) {
+				log.error( "++++ delta out of range for incrMulti() of key: " + key );
+				continue;
+			}
+
+			if ( pool.isReplicated( key ) ) {
+				ret.put( key, Long.valueOf( ( delta < 0 ) ? decr( key, -delta ) : incr( key, delta ) ) );
+				continue;
+			}
+
+			String cleanKey;
+			try {
+				cleanKey = sanitizeKey( key );
+			}
+			catch ( UnsupportedEncodingException e ) {
+
+				// if we have an errorHandler, use its hook
+				if ( errorHandler != null )
+					errorHandler.handleErrorOnGet( this, e, key );
+
+				log.error( "failed to sanitize your key!", e );
+				continue;
+			}
+
+			// find the server, but write to it below
+			SockIOPool.SockIO sock = pool.getSock( cleanKey );
+			if ( sock == null ) {
+				if ( errorHandler != null )
+					errorHandler.handleErrorOnSet( this, new IOException( "no socket to server available" ), key );
+				continue;
+			}
+			String host = sock.getHost();
+			sock.close();
+
+			if ( !hostKeys.containsKey( host ) ) {
+				hostKeys.put( host, new ArrayList<String>() );
+				hostCmds.put( host, new StringBuilder() );
+			}
+
+			hostKeys.get( host ).add( key );
+			hostCmds.get( host )
+				.append( ( delta < 0 ) ? "decr " : "incr " ).append( cleanKey )
+				.append( ' ' ).append( Math.abs( delta ) ).append( "\r\n" );
+		}
+
+		for ( String host : hostKeys.keySet() ) {
+			List<String> keys = hostKeys.get( host );
+
+			SockIOPool.SockIO sock = pool.getConnection( host );
+			if ( sock == null ) {
+				if ( errorHandler != null )
+					errorHandler.handleErrorOnSet( this, new IOException( "no socket to server available: " + host ), keys.get( 0 ) );
+				continue;
+			}
+
+			try {
+				sock.write( hostCmds.get( host ).toString().getBytes() );
+				sock.flush();
+
+				// one line back per command, in order
+				for ( String key : keys ) {
+					String line = sock.readLine();
+
+					if ( line.matches( "\\d+" ) ) {
+						try {
+							ret.put( key, Long.valueOf( Long.parseLong( line ) ) );
+						}
+						catch ( NumberFormatException ex ) {
+
+							// if we have an errorHandler, use its hook
+							if ( errorHandler != null )
+								errorHandler.handleErrorOnGet( this, ex, key );
+
+							log.error( String.format( "Failed to parse Long value for key: %s", key ) );
+						}
+					}
+					else if ( NOTFOUND.equals( line ) ) {
+						if ( log.isInfoEnabled() )
+							log.info( "++++ key not found to incr/decr for key: " + key );
+						ret.put( key, Long.valueOf( -1 ) );
+					}
+					else {
+						log.error( "++++ error incr/decr key: " + key );
+						log.error( "++++ server response: " + line );
+					}
+				}
+
+				sock.close();
+			}
+			catch ( IOException e ) {
+
+				// if we have an errorHandler, use its hook
+				if ( errorHandler != null )
+					errorHandler.handleErrorOnSet( this, e, keys.get( 0 ) );
+
+				// exception thrown
+				log.error( "++++ exception thrown while writing bytes to server on incrMulti" );
+				log.error( e.getMessage(), e );
+
+				try {
+					sock.trueClose();
+				}
+				catch ( IOException ioe ) {
+					log.error( "++++ failed to close socket : " + sock.toString() );
+				}
+			}
+		}
+
+		return ret;
+	}
+
+	/** 
+	 * Sends an incr/decr command over the passed in socket and parses
+	 * the new value from the response.
+	 *
+	 * The socket is always returned to the pool (or closed on error).
+	 * 
+	 * @param sock socket to write to
+	 * @param key sanitized cache key
+	 * @param cmd full incr/decr command line
+	 * @return new value or -1 if not exist
+	 */
+	private long incrdecr( SockIOPool.SockIO sock, String key, String cmd ) {
+
+		try {
 			sock.write( cmd.getBytes() );
 			sock.flush();
 
@@ -1238,6 +2490,31 @@ public class MemcachedClient {
 		return get( key, hashCode, false );
 	}
 
+	/** 
+	 * Retrieve a key from the server, giving up when the passed in deadline passes.
+	 *
+	 *  The read is done over NIO, so the whole call (routing, checkout,<br/>
+	 *  write and read) is bounded by the deadline rather than by the<br/>
+	 *  pool's socket read timeout.<br/>
+	 *
+	 * @param key key where data is stored
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @param deadline the time by which the call has to be finished
+	 * @return the object that was previously stored, or null if it was not previously stored (or the deadline passed)
+	 */
+	public Object get( String key, Integer hashCode, Deadline deadline ) {
+
+		if ( key == null ) {
+			log.error( "key is null for get()" );
+			return null;
+		}
+
+		Map<String,Object> ret = getMulti( new String[] { key },
+				( hashCode == null ) ? null : new Integer[] { hashCode }, false, deadline );
+
+		return ( ret == null ) ? null : ret.get( key );
+	}
+
 	/**
 	 * Retrieve a key from the server, using a specific hash.
 	 *
@@ -1253,12 +2530,253 @@ public class MemcachedClient {
 	 * @return the object that was previously stored, or null if it was not previously stored
 	 */
 	public Object get( String key, Integer hashCode, boolean asString ) {
+		return get( key, hashCode, decodeMode( asString ), transcoder );
+	}
+
+	/**
+	 * Retrieve a key from the server, decoding it with the passed in transcoder.
+	 *
+	 * @param key key where data is stored
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @param transcoder transcoder to decode the value with
+	 * @return the object that was previously stored, or null if it was not previously stored
+	 */
+	public Object getWithTranscoder( String key, Integer hashCode, Transcoder transcoder ) {
+		return get( key, hashCode, DecodeMode.OBJECT, ( transcoder == null ) ? this.transcoder : transcoder );
+	}
+
+	/**
+	 * Retrieve a key from the server.
+	 *
+	 * @param key key where data is stored
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @param mode how to hand back the value
+	 * @param transcoder transcoder to decode the value with
+	 * @return the object that was previously stored, or null if it was not previously stored
+	 */
+	private Object get( String key, Integer hashCode, DecodeMode mode, Transcoder transcoder ) {
+
+		if ( key == null ) {
+			log.error( "key is null for get()" );
+			return null;
+		}
+
+		boolean replicated = pool.isReplicated( key );
+
+		try {
+			key = sanitizeKey( key );
+		}
+		catch ( UnsupportedEncodingException e ) {
+
+			// if we have an errorHandler, use its hook
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnGet( this, e, key );
+
+			log.error( "failed to sanitize your key!", e );
+			return null;
+		}
+
+		long start = ( hedgedReads ) ? System.nanoTime() : 0;
+
+		// hedge the read across two of the replicas
+		if ( replicated && hedgedReads ) {
+			List<String> hosts = pool.getReplicaHosts( key, hashCode );
+
+			if ( hosts.size() > 1 ) {
+				Collections.rotate( hosts, -random.nextInt( hosts.size() ) );
+
+				Map<String,Object> ret = new HashMap<String,Object>( 1 );
+				(new NIOLoader( this )).doHedged( mode, transcoder, key, hosts.subList( 0, 2 ), getHedgeDelay(), ret );
+				loadChunks( ret, mode, transcoder, null );
+
+				getLatency.record( ( System.nanoTime() - start ) / 1000 );
+				return ret.get( key );
+			}
+		}
+
+		// get SockIO obj using cache key (reads of replicated keys
+		// are spread across the replica servers)
+		SockIOPool.SockIO sock = ( replicated )
+			? pool.getReplicaSock( key, hashCode )
+			: pool.getSock( key, hashCode );
+	    
+	    if ( sock == null ) {
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnGet( this, new IOException( "no socket to server available" ), key );
+			return null;
+		}
+
+		// let the gets of other threads for the server ride along
+		GetBatcher batcher = this.getBatcher;
+		if ( batcher != null && !replicated && mode == DecodeMode.OBJECT && transcoder == this.transcoder ) {
+			String host = sock.getHost();
+			sock.close();
+			return batcher.get( host, key );
+		}
+
+		Object o = get( sock, ( "get " + key + "\r\n" ).getBytes(), key, mode, transcoder );
+
+		if ( hedgedReads )
+			getLatency.record( ( System.nanoTime() - start ) / 1000 );
+
+		return o;
+	}
+
+	/**
+	 * Retrieve a key from the server given a pre-encoded cache key.
+	 *
+	 * @param key key where data is stored
+	 * @return the object that was previously stored, or null if it was not previously stored
+	 */
+	public Object get( CacheKey key ) {
 
 		if ( key == null ) {
 			log.error( "key is null for get()" );
 			return null;
 		}
 
+		// reads of replicated keys may be spread or hedged
+		CacheKey ck = encode( key );
+		if ( ck == null || pool.isReplicated( key.getKey() ) )
+			return get( key.getKey() );
+
+		SockIOPool.SockIO sock = pool.getSock( ck, null );
+	    
+	    if ( sock == null ) {
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnGet( this, new IOException( "no socket to server available" ), ck.getWireKey() );
+			return null;
+		}
+
+		return get( sock, command( B_GET, ck ), ck.getWireKey(), DecodeMode.OBJECT, transcoder );
+	}
+
+	/**
+	 * Sends a get command for a single key over the passed in socket
+	 * and reads back the value.
+	 *
+	 * The socket is always returned to the pool (or closed on error).
+	 *
+	 * @param sock socket to use
+	 * @param cmd full get command line
+	 * @param key sanitized key
+	 * @param mode how to hand back the value
+	 * @param transcoder transcoder to decode the value with
+	 * @return the object that was previously stored, or null if it was not previously stored
+	 */
+	private Object get( SockIOPool.SockIO sock, byte[] cmd, String key, DecodeMode mode, Transcoder transcoder ) {
+
+		try {
+			if ( log.isDebugEnabled() )
+				log.debug("++++ memcache get command: " + new String( cmd ) );
+			
+			sock.write( cmd );
+			sock.flush();
+
+			// ready object
+			Object o = null;
+
+			while ( true ) {
+				String line = sock.readLine();
+
+				if ( log.isDebugEnabled() )
+					log.debug( "++++ line: " + line );
+
+				if ( line.startsWith( VALUE ) ) {
+					String[] info = line.split(" ");
+					int flag      = Integer.parseInt( info[2] );
+					int length    = Integer.parseInt( info[3] );
+
+					if ( log.isDebugEnabled() ) {
+						log.debug( "++++ key: " + key );
+						log.debug( "++++ flags: " + flag );
+						log.debug( "++++ length: " + length );
+					}
+					
+					// read obj into buffer
+					byte[] buf = new byte[length];
+					sock.read( buf );
+					sock.clearEOL();
+
+					o = decode( buf, flag, mode, transcoder, key );
+				}
+				else if ( END.equals( line ) ) {
+					if ( log.isDebugEnabled() )
+						log.debug( "++++ finished reading from cache server" );
+					break;
+				}
+			}
+			
+			sock.close();
+			sock = null;
+
+			if ( o instanceof Chunked )
+				o = loadChunks( (Chunked)o, mode, transcoder, key, null );
+
+			return o;
+	    }
+		catch ( IOException e ) {
+
+			// if we have an errorHandler, use its hook
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnGet( this, e, key );
+
+			// exception thrown
+			log.error( "++++ exception thrown while trying to get object from cache for key: " + key + " -- " + e.getMessage() );
+
+			if ( sock != null ) {
+				try {
+					sock.trueClose();
+				}
+				catch ( IOException ioe ) {
+					log.error( "++++ failed to close socket : " + sock.toString() );
+				}
+				sock = null;
+			}
+	    }
+
+		if ( sock != null )
+			sock.close();
+
+		return null;
+	}
+
+	/**
+	 * Retrieve the bytes of a value from the server as a stream.
+	 *
+	 *  The value is read from the socket as the caller reads the<br/>
+	 *  stream, so large values are never held in memory as a whole.<br/>
+	 *  GZIP compressed values are uncompressed on the fly, values<br/>
+	 *  compressed by other compressors are uncompressed in memory.<br/>
+	 *  The bytes are not decoded any further, so this is meant for<br/>
+	 *  values stored as byte arrays or strings.<br/>
+	 *<br/>
+	 *  The stream holds on to a socket of the pool until it is closed,<br/>
+	 *  so it has to be closed, even when not read to the end.<br/>
+	 *
+	 * @param key key where data is stored
+	 * @return stream of the value, or null if it was not stored (or on error)
+	 */
+	public InputStream getAsStream( String key ) {
+		return getAsStream( key, null );
+	}
+
+	/**
+	 * Retrieve the bytes of a value from the server as a stream.
+	 *
+	 * @param key key where data is stored
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @return stream of the value, or null if it was not stored (or on error)
+	 */
+	public InputStream getAsStream( String key, Integer hashCode ) {
+
+		if ( key == null ) {
+			log.error( "key is null for getAsStream()" );
+			return null;
+		}
+
+		boolean replicated = pool.isReplicated( key );
+
 		try {
 			key = sanitizeKey( key );
 		}
@@ -1268,143 +2786,208 @@ public class MemcachedClient {
 			if ( errorHandler != null )
 				errorHandler.handleErrorOnGet( this, e, key );
 
-			log.error( "failed to sanitize your key!", e );
-			return null;
+			log.error( "failed to sanitize your key!", e );
+			return null;
+		}
+
+		SockIOPool.SockIO sock = ( replicated )
+			? pool.getReplicaSock( key, hashCode )
+			: pool.getSock( key, hashCode );
+	    
+	    if ( sock == null ) {
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnGet( this, new IOException( "no socket to server available" ), key );
+			return null;
+		}
+
+		ValueInputStream in = null;
+		try {
+			String cmd = "get " + key + "\r\n";
+
+			if ( log.isDebugEnabled() )
+				log.debug("++++ memcache get command: " + cmd);
+			
+			sock.write( cmd.getBytes() );
+			sock.flush();
+
+			String line = sock.readLine();
+
+			if ( log.isDebugEnabled() )
+				log.debug( "++++ line: " + line );
+
+			if ( END.equals( line ) ) {
+				sock.close();
+				return null;
+			}
+
+			if ( !line.startsWith( VALUE ) )
+				throw new IOException( "++++ unexpected response to get: " + line );
+
+			String[] info = line.split(" ");
+			int flag      = Integer.parseInt( info[2] );
+			int length    = Integer.parseInt( info[3] );
+
+			// the stream owns the socket from here on
+			in   = new ValueInputStream( sock, key, length );
+			sock = null;
+
+			// chunked values are put together in memory
+			if ( (flag & F_CHUNKED) == F_CHUNKED ) {
+				byte[] manifest = new byte[ length ];
+				new DataInputStream( in ).readFully( manifest );
+				in.close();
+
+				byte[] val = joinChunks( new Chunked( manifest, flag & ~F_CHUNKED ), key, null );
+				if ( val == null )
+					return null;
+
+				if ( (flag & F_COMPRESSED) == F_COMPRESSED ) {
+					Compressor compressor = getDecompressor( flag );
+					if ( compressor == null )
+						throw new IOException( "value was compressed with a dictionary, but no DictionaryCompressor is set" );
+					val = compressor.decompress( val );
+				}
+
+				return new ByteArrayInputStream( val );
+			}
+
+			if ( (flag & F_COMPRESSED) != F_COMPRESSED )
+				return in;
+
+			Compressor compressor = getDecompressor( flag );
+			if ( compressor == null )
+				throw new IOException( "value was compressed with a dictionary, but no DictionaryCompressor is set" );
+
+			if ( compressor instanceof GZIPCompressor )
+				return new GZIPInputStream( in, STREAM_CHUNK );
+
+			// other compressors need the whole value
+			byte[] buf = new byte[ length ];
+			new DataInputStream( in ).readFully( buf );
+			in.close();
+
+			return new ByteArrayInputStream( compressor.decompress( buf ) );
+	    }
+		catch ( IOException e ) {
+
+			// once the stream owns the socket it closes it itself
+			if ( in != null && in.fail( e ) )
+				return null;
+
+			// if we have an errorHandler, use its hook
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnGet( this, e, key );
+
+			// exception thrown
+			log.error( "++++ exception thrown while trying to get object from cache for key: " + key + " -- " + e.getMessage() );
+
+			if ( sock != null ) {
+				try {
+					sock.trueClose();
+				}
+				catch ( IOException ioe ) {
+					log.error( "++++ failed to close socket : " + sock.toString() );
+				}
+			}
+	    }
+
+		return null;
+	}
+
+	/** 
+	 * Reads a single value off a socket, returning the socket to the
+	 * pool once the value has been read (or skipped) and closed.
+	 */
+	private class ValueInputStream extends InputStream {
+
+		private SockIOPool.SockIO sock;
+		private final String key;
+		private int remaining;
+
+		ValueInputStream( SockIOPool.SockIO sock, String key, int length ) {
+			this.sock      = sock;
+			this.key       = key;
+			this.remaining = length;
 		}
 
-		// get SockIO obj using cache key
-		SockIOPool.SockIO sock = pool.getSock( key, hashCode );
-	    
-	    if ( sock == null ) {
-			if ( errorHandler != null )
-				errorHandler.handleErrorOnGet( this, new IOException( "no socket to server available" ), key );
-			return null;
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return ( read( b, 0, 1 ) <= 0 ) ? -1 : b[0] & 0xFF;
 		}
 
-		try {
-			String cmd = "get " + key + "\r\n";
-
-			if ( log.isDebugEnabled() )
-				log.debug("++++ memcache get command: " + cmd);
-			
-			sock.write( cmd.getBytes() );
-			sock.flush();
-
-			// ready object
-			Object o = null;
+		public int read( byte[] b, int off, int len ) throws IOException {
+			if ( sock == null )
+				throw new IOException( "++++ stream is closed" );
 
-			while ( true ) {
-				String line = sock.readLine();
+			if ( remaining == 0 )
+				return -1;
 
-				if ( log.isDebugEnabled() )
-					log.debug( "++++ line: " + line );
+			if ( len == 0 )
+				return 0;
 
-				if ( line.startsWith( VALUE ) ) {
-					String[] info = line.split(" ");
-					int flag      = Integer.parseInt( info[2] );
-					int length    = Integer.parseInt( info[3] );
+			try {
+				int n = sock.read( b, off, Math.min( len, remaining ) );
+				if ( n < 0 )
+					throw new IOException( "++++ stream from server ended " + remaining + " bytes before end of value" );
 
-					if ( log.isDebugEnabled() ) {
-						log.debug( "++++ key: " + key );
-						log.debug( "++++ flags: " + flag );
-						log.debug( "++++ length: " + length );
-					}
-					
-					// read obj into buffer
-					byte[] buf = new byte[length];
-					sock.read( buf );
-					sock.clearEOL();
+				remaining -= n;
+				return n;
+			}
+			catch ( IOException e ) {
+				fail( e );
+				throw e;
+			}
+		}
 
-					if ( (flag & F_COMPRESSED) == F_COMPRESSED ) {
-						try {
-							// read the input stream, and write to a byte array output stream since
-							// we have to read into a byte array, but we don't know how large it
-							// will need to be, and we don't want to resize it a bunch
-							GZIPInputStream gzi = new GZIPInputStream( new ByteArrayInputStream( buf ) );
-							ByteArrayOutputStream bos = new ByteArrayOutputStream( buf.length );
-							
-							int count;
-							byte[] tmp = new byte[2048];
-							while ( (count = gzi.read(tmp)) != -1 ) {
-								bos.write( tmp, 0, count );
-							}
-
-							// store uncompressed back to buffer
-							buf = bos.toByteArray();
-							gzi.close();
-						}
-						catch ( IOException e ) {
+		public int available() {
+			return ( sock == null ) ? 0 : remaining;
+		}
 
-							// if we have an errorHandler, use its hook
-							if ( errorHandler != null )
-								errorHandler.handleErrorOnGet( this, e, key );
+		public void close() throws IOException {
+			if ( sock == null )
+				return;
 
-							log.error( "++++ IOException thrown while trying to uncompress input stream for key: " + key + " -- " + e.getMessage() );
-							throw new NestedIOException( "++++ IOException thrown while trying to uncompress input stream for key: " + key, e );
-						}
-					}
+			try {
+				// skip what the caller did not read, which
+				// is cheaper than a new connection
+				byte[] buf = new byte[ Math.min( remaining, STREAM_CHUNK ) ];
+				while ( remaining > 0 ) {
+					int n = sock.read( buf, 0, Math.min( remaining, buf.length ) );
+					if ( n < 0 )
+						throw new IOException( "++++ stream from server ended " + remaining + " bytes before end of value" );
+					remaining -= n;
+				}
 
-					// we can only take out serialized objects
-					if ( ( flag & F_SERIALIZED ) != F_SERIALIZED ) {
-						if ( primitiveAsString || asString ) {
-							// pulling out string value
-							if ( log.isInfoEnabled() )
-								log.info( "++++ retrieving object and stuffing into a string." );
-							o = new String( buf, defaultEncoding );
-						}
-						else {
-							// decoding object
-							try {
-								o = NativeHandler.decode( buf, flag );    
-							}
-							catch ( Exception e ) {
-
-								// if we have an errorHandler, use its hook
-								if ( errorHandler != null )
-									errorHandler.handleErrorOnGet( this, e, key );
-
-								log.error( "++++ Exception thrown while trying to deserialize for key: " + key, e );
-								throw new NestedIOException( e );
-							}
-						}
-					}
-					else {
-						// deserialize if the data is serialized
-						ContextObjectInputStream ois =
-							new ContextObjectInputStream( new ByteArrayInputStream( buf ), classLoader );
-						try {
-							o = ois.readObject();
-							if ( log.isInfoEnabled() )
-								log.info( "++++ deserializing " + o.getClass() );
-						}
-						catch ( Exception e ) {
-							if ( errorHandler != null )
-								errorHandler.handleErrorOnGet( this, e, key );
+				sock.clearEOL();
+				String line = sock.readLine();
+				if ( !END.equals( line ) )
+					throw new IOException( "++++ expected END after value, got: " + line );
 
-							o = null;
-							log.error( "++++ Exception thrown while trying to deserialize for key: " + key + " -- " + e.getMessage() );
-						}
-					}
-				}
-				else if ( END.equals( line ) ) {
-					if ( log.isDebugEnabled() )
-						log.debug( "++++ finished reading from cache server" );
-					break;
-				}
+				sock.close();
+				sock = null;
 			}
-			
-			sock.close();
-			sock = null;
-			return o;
-	    }
-		catch ( IOException e ) {
+			catch ( IOException e ) {
+				fail( e );
+				throw e;
+			}
+		}
+
+		/** 
+		 * Reports an error and closes the socket, unless the socket
+		 * was already returned or closed.
+		 * 
+		 * @param e error
+		 * @return true if the error was reported
+		 */
+		boolean fail( IOException e ) {
+			if ( sock == null )
+				return false;
 
 			// if we have an errorHandler, use its hook
 			if ( errorHandler != null )
-				errorHandler.handleErrorOnGet( this, e, key );
+				errorHandler.handleErrorOnGet( MemcachedClient.this, e, key );
 
-			// exception thrown
-			log.error( "++++ exception thrown while trying to get object from cache for key: " + key + " -- " + e.getMessage() );
+			log.error( "++++ exception thrown while streaming value from cache for key: " + key + " -- " + e.getMessage() );
 
 			try {
 				sock.trueClose();
@@ -1413,12 +2996,8 @@ public class MemcachedClient {
 				log.error( "++++ failed to close socket : " + sock.toString() );
 			}
 			sock = null;
-	    }
-
-		if ( sock != null )
-			sock.close();
-
-		return null;
+			return true;
+		}
 	}
 
 	/** 
@@ -1506,27 +3085,325 @@ public class MemcachedClient {
 	}
 
 	/**
-	 * Retrieve multiple keys from the memcache.
-	 *
-	 *  This is recommended over repeated calls to {@link #get(String) get()}, since it<br/>
-	 *  is more efficient.<br/>
+	 * Retrieve multiple keys from the memcache.
+	 *
+	 *  This is recommended over repeated calls to {@link #get(String) get()}, since it<br/>
+	 *  is more efficient.<br/>
+	 *
+	 * @param keys keys to retrieve
+	 * @param hashCodes if not null, then the Integer array of hashCodes
+	 * @param asString if true then retrieve using String val
+	 * @return a hashmap with entries for each key is found by the server,
+	 *      keys that are not found are not entered into the hashmap, but attempting to
+	 *      retrieve them from the hashmap gives you null.
+	 */
+	public Map<String,Object> getMulti( String[] keys, Integer[] hashCodes, boolean asString ) {
+		return getMulti( keys, hashCodes, asString, null );
+	}
+
+	/**
+	 * Retrieve multiple keys from the memcache, giving up when the passed in deadline passes.
+	 *
+	 * @param keys keys to retrieve
+	 * @param hashCodes if not null, then the Integer array of hashCodes
+	 * @param deadline the time by which the call has to be finished
+	 * @return a hashmap with entries for each key, keys not found (or not
+	 *      fetched before the deadline) map to null.
+	 */
+	public Map<String,Object> getMulti( String[] keys, Integer[] hashCodes, Deadline deadline ) {
+		return getMulti( keys, hashCodes, false, deadline );
+	}
+
+	/**
+	 * Retrieve multiple keys from the memcache, giving up when the passed in deadline passes.
+	 *
+	 *  Servers which have answered in full by the deadline contribute<br/>
+	 *  their values, so a slow server only costs the keys it holds.<br/>
+	 *
+	 * @param keys keys to retrieve
+	 * @param hashCodes if not null, then the Integer array of hashCodes
+	 * @param asString if true then retrieve using String val
+	 * @param deadline if not null, the time by which the call has to be finished
+	 * @return a hashmap with entries for each key, keys not found (or not
+	 *      fetched before the deadline) map to null.
+	 */
+	public Map<String,Object> getMulti( String[] keys, Integer[] hashCodes, boolean asString, Deadline deadline ) {
+		return getMulti( keys, hashCodes, decodeMode( asString ), deadline, transcoder );
+	}
+
+	/**
+	 * Retrieve a key from the server without decoding it.
+	 *
+	 * The value is returned as a CachedValue holding its flags and<br/>
+	 * bytes; it is only uncompressed and deserialized when, and if,<br/>
+	 * CachedValue.getValue is called.
+	 *
+	 * @param key key where data is stored
+	 * @return the value, or null if it was not found
+	 */
+	public CachedValue getCachedValue( String key ) {
+		return getCachedValue( key, null );
+	}
+
+	/**
+	 * Retrieve a key from the server without decoding it.
+	 *
+	 * @param key key where data is stored
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @return the value, or null if it was not found
+	 */
+	public CachedValue getCachedValue( String key, Integer hashCode ) {
+		return (CachedValue)get( key, hashCode, DecodeMode.RAW, transcoder );
+	}
+
+	/**
+	 * Retrieve multiple keys from the memcache without decoding them.
+	 *
+	 * @param keys keys to retrieve
+	 * @return a hashmap with entries for each key, keys not found map to null
+	 */
+	public Map<String,CachedValue> getMultiCachedValues( String[] keys ) {
+		Map<String,Object> found = getMulti( keys, null, DecodeMode.RAW, null, transcoder );
+		if ( found == null )
+			return null;
+
+		Map<String,CachedValue> ret = new HashMap<String,CachedValue>( found.size() );
+		for ( Map.Entry<String,Object> entry : found.entrySet() )
+			ret.put( entry.getKey(), (CachedValue)entry.getValue() );
+
+		return ret;
+	}
+
+	/**
+	 * Retrieve multiple objects from the memcache given pre-encoded cache keys.
+	 *
+	 *  Keys are routed by their cached hashes, and the server's replies<br/>
+	 *  are matched to the keys without encoding them again.<br/>
+	 *
+	 * @param keys keys to retrieve
+	 * @return a hashmap keyed by {@link CacheKey#getKey() the keys as passed in},
+	 *      with a null value for keys that were not found
+	 */
+	public Map<String,Object> getMulti( CacheKey[] keys ) {
+
+		if ( keys == null || keys.length == 0 ) {
+			log.error( "missing keys for getMulti()" );
+			return null;
+		}
+
+		Map<String,List<String>> cmdMap = new HashMap<String,List<String>>();
+		CacheKey[] encoded = new CacheKey[ keys.length ];
+		String[] names     = new String[ keys.length ];
+
+		for ( int i = 0; i < keys.length; ++i ) {
+			if ( keys[i] == null ) {
+				log.error( "null key, so skipping" );
+				continue;
+			}
+
+			names[i]    = keys[i].getKey();
+			CacheKey ck = encode( keys[i] );
+			if ( ck == null )
+				continue;
+
+			SockIOPool.SockIO sock = ( pool.isReplicated( names[i] ) )
+				? pool.getReplicaSock( ck.getWireKey(), null )
+				: pool.getSock( ck, null );
+
+			if ( sock == null ) {
+				if ( errorHandler != null )
+					errorHandler.handleErrorOnGet( this, new IOException( "no socket to server available" ), names[i] );
+				continue;
+			}
+
+			if ( !cmdMap.containsKey( sock.getHost() ) )
+				cmdMap.put( sock.getHost(), new ArrayList<String>() );
+
+			cmdMap.get( sock.getHost() ).add( ck.getWireKey() );
+			encoded[i] = ck;
+
+			// return to pool
+			sock.close();
+		}
+
+		Map<String,Object> found = new HashMap<String,Object>( keys.length );
+		(new NIOLoader( this )).doMulti( DecodeMode.OBJECT, transcoder, cmdMap, names, found, pool.getMaxBusy() );
+		loadChunks( found, DecodeMode.OBJECT, transcoder, null );
+
+		// replies are keyed by the keys as sent
+		Map<String,Object> ret = new HashMap<String,Object>( keys.length );
+		for ( int i = 0; i < keys.length; i++ ) {
+			if ( names[i] != null )
+				ret.put( names[i], ( encoded[i] == null ) ? null : found.get( encoded[i].getWireKey() ) );
+		}
+
+		if ( log.isDebugEnabled() )
+			log.debug( "++++ memcache: got back " + found.size() + " results" );
+		return ret;
+	}
+
+	/**
+	 * Retrieve multiple keys from the memcache, decoding them with the passed in transcoder.
+	 *
+	 * @param keys keys to retrieve
+	 * @param hashCodes if not null, then the Integer array of hashCodes
+	 * @param transcoder transcoder to decode the values with
+	 * @return a hashmap with entries for each key is found by the server,
+	 *      keys that are not found are not entered into the hashmap, but attempting to
+	 *      retrieve them from the hashmap gives you null.
+	 */
+	public Map<String,Object> getMultiWithTranscoder( String[] keys, Integer[] hashCodes, Transcoder transcoder ) {
+		return getMulti( keys, hashCodes, DecodeMode.OBJECT, null, ( transcoder == null ) ? this.transcoder : transcoder );
+	}
+
+	/**
+	 * Retrieve multiple keys from the memcache.
+	 *
+	 * @param keys keys to retrieve
+	 * @param hashCodes if not null, then the Integer array of hashCodes
+	 * @param mode how to hand back the value
+	 * @param deadline if not null, the time by which the call has to be finished
+	 * @param transcoder transcoder to decode the values with
+	 * @return a hashmap with entries for each key, keys not found (or not
+	 *      fetched before the deadline) map to null.
+	 */
+	private Map<String,Object> getMulti( String[] keys, Integer[] hashCodes, DecodeMode mode, Deadline deadline, Transcoder transcoder ) {
+
+		if ( keys == null || keys.length == 0 ) {
+			log.error( "missing keys for getMulti()" );
+			return null;
+		}
+
+		// sanitized once, used for routing and for the results
+		String[] cleanKeys = new String[ keys.length ];
+		Map<String,List<String>> cmdMap = route( keys, hashCodes, deadline, cleanKeys );
+
+		if ( log.isInfoEnabled() )
+			log.info( "multi get socket count : " + cmdMap.size() );
+
+		// now query memcache
+		Map<String,Object> ret =
+			new HashMap<String,Object>( keys.length );
+
+		// now use new NIO implementation
+		long timeout = ( deadline == null ) ? pool.getMaxBusy() : deadline.timeRemaining();
+		if ( timeout > 0 ) {
+			(new NIOLoader( this )).doMulti( mode, transcoder, cmdMap, keys, ret, timeout );
+			loadChunks( ret, mode, transcoder, deadline );
+		}
+
+		// fix the return array in case we had to rewrite any of the keys
+		for ( int i = 0; i < keys.length; i++ ) {
+
+			String key      = keys[i];
+			String cleanKey = cleanKeys[i];
+			if ( key == null )
+				continue;
+
+			if ( cleanKey != null && !key.equals( cleanKey ) && ret.containsKey( cleanKey ) ) {
+				ret.put( key, ret.get( cleanKey ) );
+				ret.remove( cleanKey );
+			}
+
+			// backfill missing keys w/ null value
+			if ( ! ret.containsKey( key ) )
+				ret.put( key, null );
+		}
+
+		if ( log.isDebugEnabled() )
+			log.debug( "++++ memcache: got back " + ret.size() + " results" );
+		return ret;
+	}
+
+	/**
+	 * Retrieve multiple keys from the memcache, handing each value to
+	 * the callback as soon as its server has sent it.
+	 *
+	 * Unlike getMulti no map of all results is built, so values can be<br/>
+	 * processed (and dropped) while the rest are still on the wire.<br/>
+	 * Keys which are not found are not reported.  The callback is run<br/>
+	 * on the calling thread; exceptions it throws are logged and the<br/>
+	 * remaining values are still delivered.
+	 *
+	 * @param keys keys to retrieve
+	 * @param callback receives every value found, under the key passed in
+	 * @return number of values handed to the callback
+	 */
+	public int getMultiStreaming( String[] keys, final GetMultiCallback callback ) {
+
+		if ( keys == null || keys.length == 0 ) {
+			log.error( "missing keys for getMultiStreaming()" );
+			return 0;
+		}
+
+		String[] cleanKeys = new String[ keys.length ];
+		Map<String,List<String>> cmdMap = route( keys, null, null, cleanKeys );
+
+		if ( log.isInfoEnabled() )
+			log.info( "multi get socket count : " + cmdMap.size() );
+
+		// map the keys we had to rewrite back to the callers
+		final Map<String,String> origKeys = new HashMap<String,String>();
+		for ( int i = 0; i < keys.length; i++ ) {
+			if ( cleanKeys[i] != null && !keys[i].equals( cleanKeys[i] ) )
+				origKeys.put( cleanKeys[i], keys[i] );
+		}
+
+		// chunked values need another round trip, so they
+		// are put together once the select loop is done
+		final Map<String,Object> chunked = new HashMap<String,Object>();
+		final int[] count = new int[1];
+
+		GetMultiCallback sink = new GetMultiCallback() {
+			public void onValue( String key, Object value ) {
+				if ( value instanceof Chunked ) {
+					chunked.put( key, value );
+					return;
+				}
+
+				String origKey = origKeys.get( key );
+				deliver( callback, ( origKey == null ) ? key : origKey, value );
+				count[0]++;
+			}
+		};
+
+		(new NIOLoader( this )).doMulti( DecodeMode.OBJECT, transcoder, cmdMap, keys, sink, pool.getMaxBusy() );
+
+		if ( !chunked.isEmpty() ) {
+			loadChunks( chunked, DecodeMode.OBJECT, transcoder, null );
+			for ( Map.Entry<String,Object> entry : chunked.entrySet() ) {
+				if ( entry.getValue() != null )
+					sink.onValue( entry.getKey(), entry.getValue() );
+			}
+		}
+
+		if ( log.isDebugEnabled() )
+			log.debug( "++++ memcache: streamed back " + count[0] + " results" );
+		return count[0];
+	}
+
+	private void deliver( GetMultiCallback callback, String key, Object value ) {
+		try {
+			callback.onValue( key, value );
+		}
+		catch ( RuntimeException e ) {
+			log.error( "++++ exception thrown by callback for key: " + key, e );
+		}
+	}
+
+	/**
+	 * Finds the server for each key and groups the keys by server.
 	 *
-	 * @param keys keys to retrieve
+	 * @param keys keys to route
 	 * @param hashCodes if not null, then the Integer array of hashCodes
-	 * @param asString if true then retrieve using String val
-	 * @return a hashmap with entries for each key is found by the server,
-	 *      keys that are not found are not entered into the hashmap, but attempting to
-	 *      retrieve them from the hashmap gives you null.
+	 * @param deadline if not null, the time by which routing has to be finished
+	 * @param cleanKeys filled with the sanitized keys, null where a key is skipped
+	 * @return sanitized keys by host
 	 */
-	public Map<String,Object> getMulti( String[] keys, Integer[] hashCodes, boolean asString ) {
-
-		if ( keys == null || keys.length == 0 ) {
-			log.error( "missing keys for getMulti()" );
-			return null;
-		}
+	private Map<String,List<String>> route( String[] keys, Integer[] hashCodes, Deadline deadline, String[] cleanKeys ) {
 
-		Map<String,StringBuilder> cmdMap =
-			new HashMap<String,StringBuilder>();
+		Map<String,List<String>> cmdMap =
+			new HashMap<String,List<String>>();
 
 		for ( int i = 0; i < keys.length; ++i ) {
 
@@ -1553,9 +3430,20 @@ public class MemcachedClient {
 				log.error( "failed to sanitize your key!", e );
 				continue;
 			}
+			cleanKeys[i] = cleanKey;
+
+			// out of time, so just go with the servers we have so far
+			if ( deadline != null && deadline.isExpired() ) {
+				log.error( "++++ deadline expired while routing keys for getMulti()" );
+				break;
+			}
+
+			int connectTimeout = ( deadline == null ) ? pool.getSocketConnectTO() : deadline.timeoutRemaining();
 
 			// get SockIO obj from cache key
-			SockIOPool.SockIO sock = pool.getSock( cleanKey, hash );
+			SockIOPool.SockIO sock = ( pool.isReplicated( key ) )
+				? pool.getReplicaSock( cleanKey, hash, connectTimeout )
+				: pool.getSock( cleanKey, hash, connectTimeout );
 
 			if ( sock == null ) {
 				if ( errorHandler != null )
@@ -1565,194 +3453,512 @@ public class MemcachedClient {
 
 			// store in map and list if not already
 			if ( !cmdMap.containsKey( sock.getHost() ) )
-				cmdMap.put( sock.getHost(), new StringBuilder( "get" ) );
+				cmdMap.put( sock.getHost(), new ArrayList<String>() );
 
-			cmdMap.get( sock.getHost() ).append( " " + cleanKey );
+			cmdMap.get( sock.getHost() ).add( cleanKey );
 
 			// return to pool
 			sock.close();
 		}
 		
-		if ( log.isInfoEnabled() )
-			log.info( "multi get socket count : " + cmdMap.size() );
+		return cmdMap;
+	}
 
-		// now query memcache
-		Map<String,Object> ret =
-			new HashMap<String,Object>( keys.length );
+	/** 
+	 * Decodes the bytes held by a CachedValue.
+	 * 
+	 * @param value holder read by getCachedValue or getMultiCachedValues
+	 * @return value, or null if it could not be decoded
+	 */
+	Object decode( CachedValue value ) {
+		try {
+			return decode( value.getBytes(), value.getFlags(), DecodeMode.OBJECT, value.getTranscoder(), value.getKey() );
+		}
+		catch ( IOException e ) {
+			// already reported
+			return null;
+		}
+	}
 
-		// now use new NIO implementation
-		(new NIOLoader( this )).doMulti( asString, cmdMap, keys, ret );
+	private static DecodeMode decodeMode( boolean asString ) {
+		return ( asString ) ? DecodeMode.STRING : DecodeMode.OBJECT;
+	}
 
-		// fix the return array in case we had to rewrite any of the keys
-		for ( String key : keys ) {
+	/** 
+	 * Uncompresses and decodes a value read from the server.
+	 * 
+	 * @param buf data read from the server
+	 * @param flag flags read from the server
+	 * @param mode how to hand back the value
+	 * @param transcoder transcoder to decode the value with
+	 * @param key key of the value
+	 * @return value, or null if the value's class is missing or incompatible,
+	 *      or a Chunked placeholder for chunked values
+	 * @throws IOException if the value can not be uncompressed or decoded
+	 */
+	private Object decode( byte[] buf, int flag, DecodeMode mode, Transcoder transcoder, String key ) throws IOException {
 
-			String cleanKey = key;
+		// the caller fetches the chunks once the socket is free
+		if ( (flag & F_CHUNKED) == F_CHUNKED )
+			return new Chunked( buf, flag & ~F_CHUNKED );
+
+		// decoded when the caller asks for it
+		if ( mode == DecodeMode.RAW )
+			return new CachedValue( this, key, flag, buf, transcoder );
+
+		if ( (flag & F_COMPRESSED) == F_COMPRESSED ) {
+			Compressor compressor = getDecompressor( flag );
 			try {
-				cleanKey = sanitizeKey( key );
+				if ( compressor == null )
+					throw new IOException( "value was compressed with a dictionary, but no DictionaryCompressor is set" );
+
+				buf = compressor.decompress( buf );
 			}
-			catch ( UnsupportedEncodingException e ) {
+			catch ( IOException e ) {
 
 				// if we have an errorHandler, use its hook
 				if ( errorHandler != null )
 					errorHandler.handleErrorOnGet( this, e, key );
 
-				log.error( "failed to sanitize your key!", e );
-				continue;
+				log.error( "++++ IOException thrown while trying to uncompress input stream for key: " + key + " -- " + e.getMessage() );
+				throw new NestedIOException( "++++ IOException thrown while trying to uncompress input stream for key: " + key, e );
 			}
 
-			if ( ! key.equals( cleanKey ) && ret.containsKey( cleanKey ) ) {
-				ret.put( key, ret.get( cleanKey ) );
-				ret.remove( cleanKey );
-			}
+			// the transcoder only sees its own flags
+			flag &= ~( F_COMPRESSED | compressor.getFlags() );
+		}
 
-			// backfill missing keys w/ null value
-			if ( ! ret.containsKey( key ) )
-				ret.put( key, null );
+		// we can only take out serialized objects
+		if ( ( flag & ( F_SERIALIZED | MARKER_COLLECTION ) ) == 0 && ( primitiveAsString || mode == DecodeMode.STRING ) ) {
+			// pulling out string value
+			if ( log.isInfoEnabled() )
+				log.info( "++++ retrieving object and stuffing into a string." );
+			return new String( buf, defaultEncoding );
 		}
 
-		if ( log.isDebugEnabled() )
-			log.debug( "++++ memcache: got back " + ret.size() + " results" );
-		return ret;
+		try {
+			Object o = transcoder.decode( buf, flag );
+			if ( o != null && log.isInfoEnabled() )
+				log.info( "++++ decoded " + o.getClass() );
+			return o;
+		}
+		catch ( ObjectStreamException e ) {
+			/* Errors de-serializing are to be expected in the case of a 
+			 * long running server that spans client restarts with updated 
+			 * classes. 
+			 */
+			// if we have an errorHandler, use its hook
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnGet( this, e, key );
+
+			log.error( "++++ " + e.getClass().getName() + " thrown while trying to deserialize for key: " + key + " -- " + e.getMessage() );
+			return null;
+		}
+		catch ( ClassNotFoundException e ) {
+
+			// if we have an errorHandler, use its hook
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnGet( this, e, key );
+
+			log.error( "++++ ClassNotFoundException thrown while trying to deserialize for key: " + key + " -- " + e.getMessage() );
+			return null;
+		}
+		catch ( Exception e ) {
+
+			// if we have an errorHandler, use its hook
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnGet( this, e, key );
+
+			log.error( "++++ Exception thrown while trying to deserialize for key: " + key, e );
+			throw new NestedIOException( e );
+		}
 	}
 
 	/** 
-	 * This method loads the data from cache into a Map.
+	 * Writes a value as chunks, spread across the servers by their keys.
 	 *
-	 * Pass a SockIO object which is ready to receive data and a HashMap<br/>
-	 * to store the results.
+	 * All chunks for a server are pipelined over one socket, and the<br/>
+	 * replies are only read once every server has its chunks, so the<br/>
+	 * servers store them in parallel.  Chunks are written in order, so<br/>
+	 * a value read from a stream is never held in memory as a whole.
 	 * 
-	 * @param sock socket waiting to pass back data
-	 * @param hm hashmap to store data into
-	 * @param asString if true, and if we are using NativehHandler, return string val
-	 * @throws IOException if io exception happens while reading from socket
+	 * @param key sanitized key of the value
+	 * @param val encoded value, or null to read it from in
+	 * @param in stream to read the value from if val is null
+	 * @param length length of the value
+	 * @param chunkSize maximum size of a chunk
+	 * @param expiry expiration
+	 * @param deadline if not null, the time by which the call has to be finished
+	 * @return the manifest to store under the key, or null on failure
 	 */
-	private void loadMulti( LineInputStream input, Map<String,Object> hm, boolean asString ) throws IOException {
+	private byte[] storeChunks( String key, byte[] val, InputStream in, int length, int chunkSize, Date expiry, Deadline deadline ) {
 
-		while ( true ) {
-			String line = input.readLine();
-			if ( log.isDebugEnabled() )
-				log.debug( "++++ line: " + line );
+		long token = random.nextLong();
+		int count  = (int)( ( (long)length + chunkSize - 1 ) / chunkSize );
 
-			if ( line.startsWith( VALUE ) ) {
-				String[] info = line.split(" ");
-				String key    = info[1];
-				int flag      = Integer.parseInt( info[2] );
-				int length    = Integer.parseInt( info[3] );
+		String[] chunkHosts = new String[ count ];
+		Map<String,List<Integer>> hostChunks = new HashMap<String,List<Integer>>();
+		for ( int i = 0; i < count; i++ ) {
+			SockIOPool.SockIO sock = ( deadline == null )
+				? pool.getSock( chunkKey( token, i ), null )
+				: pool.getSock( chunkKey( token, i ), null, deadline.timeoutRemaining() );
+			if ( sock == null ) {
+				if ( errorHandler != null )
+					errorHandler.handleErrorOnSet( this, new IOException( "no socket to server available for chunk " + i ), key );
+				return null;
+			}
+			String host = sock.getHost();
+			sock.close();
 
-				if ( log.isDebugEnabled() ) {
-					log.debug( "++++ key: " + key );
-					log.debug( "++++ flags: " + flag );
-					log.debug( "++++ length: " + length );
-				}
-				
-				// read obj into buffer
-				byte[] buf = new byte[length];
-				input.read( buf );
-				input.clearEOL();
+			chunkHosts[i] = host;
+			if ( !hostChunks.containsKey( host ) )
+				hostChunks.put( host, new ArrayList<Integer>() );
+			hostChunks.get( host ).add( i );
+		}
 
-				// ready object
-				Object o;
-				
-				// check for compression
-				if ( (flag & F_COMPRESSED) == F_COMPRESSED ) {
-					try {
-						// read the input stream, and write to a byte array output stream since
-						// we have to read into a byte array, but we don't know how large it
-						// will need to be, and we don't want to resize it a bunch
-						GZIPInputStream gzi = new GZIPInputStream( new ByteArrayInputStream( buf ) );
-						ByteArrayOutputStream bos = new ByteArrayOutputStream( buf.length );
-						
-						int count;
-						byte[] tmp = new byte[2048];
-						while ( (count = gzi.read(tmp)) != -1 ) {
-							bos.write( tmp, 0, count );
-						}
+		if ( log.isInfoEnabled() )
+			log.info( "++++ storing " + length + " bytes as " + count + " chunks on " + hostChunks.size() + " servers for key: " + key );
 
-						// store uncompressed back to buffer
-						buf = bos.toByteArray();
-						gzi.close();
-					}
-					catch ( IOException e ) {
+		// write all chunks first, then read all replies
+		Map<SockIOPool.SockIO,List<Integer>> written = new HashMap<SockIOPool.SockIO,List<Integer>>();
+		Map<String,SockIOPool.SockIO> socks = new HashMap<String,SockIOPool.SockIO>();
+		boolean success = true;
+		try {
+			for ( Map.Entry<String,List<Integer>> entry : hostChunks.entrySet() ) {
+				SockIOPool.SockIO sock = ( deadline == null )
+					? pool.getConnection( entry.getKey() )
+					: pool.getConnection( entry.getKey(), deadline.timeoutRemaining() );
 
-						// if we have an errorHandler, use its hook
-						if ( errorHandler != null )
-							errorHandler.handleErrorOnGet( this, e, key );
+				if ( sock == null ) {
+					if ( errorHandler != null )
+						errorHandler.handleErrorOnSet( this, new IOException( "no socket to server available: " + entry.getKey() ), key );
+					success = false;
+					break;
+				}
 
-						log.error( "++++ IOException thrown while trying to uncompress input stream for key: " + key + " -- " + e.getMessage() );
-						throw new NestedIOException( "++++ IOException thrown while trying to uncompress input stream for key: " + key, e );
-					}
+				written.put( sock, entry.getValue() );
+				if ( !applyDeadline( sock, deadline ) ) {
+					written.remove( sock );
+					success = false;
+					break;
 				}
+				socks.put( entry.getKey(), sock );
+			}
 
-				// we can only take out serialized objects
-				if ( ( flag & F_SERIALIZED ) != F_SERIALIZED ) {
-					if ( primitiveAsString || asString ) {
-						// pulling out string value
-						if ( log.isInfoEnabled() )
-							log.info( "++++ retrieving object and stuffing into a string." );
-						o = new String( buf, defaultEncoding );
-					}
-					else {
-						// decoding object
-						try {
-							o = NativeHandler.decode( buf, flag );    
-						}
-						catch ( Exception e ) {
+			// nothing has been written yet, so the sockets are still in sync
+			if ( !success ) {
+				for ( SockIOPool.SockIO sock : written.keySet() )
+					sock.close();
+				written.clear();
+			}
 
-							// if we have an errorHandler, use its hook
-							if ( errorHandler != null )
-								errorHandler.handleErrorOnGet( this, e, key );
+			byte[] buf = ( success && val == null ) ? new byte[ Math.min( chunkSize, STREAM_CHUNK ) ] : null;
+			for ( int i = 0; success && i < count; i++ ) {
+				SockIOPool.SockIO sock = socks.get( chunkHosts[i] );
+				int off = i * chunkSize;
+				int len = Math.min( chunkSize, length - off );
+				String cmd = String.format( "set %s %d %d %d\r\n", chunkKey( token, i ), F_CHUNKED, (expiry.getTime() / 1000), len );
+				sock.write( cmd.getBytes() );
+				if ( val != null )
+					sock.write( val, off, len );
+				else
+					copyStream( in, sock, buf, len );
+				sock.write( "\r\n".getBytes() );
+			}
 
-							log.error( "++++ Exception thrown while trying to deserialize for key: " + key + " -- " + e.getMessage() );
-							throw new NestedIOException( e );
-						}
+			for ( SockIOPool.SockIO sock : written.keySet() )
+				sock.flush();
+
+			for ( Iterator<Map.Entry<SockIOPool.SockIO,List<Integer>>> it = written.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<SockIOPool.SockIO,List<Integer>> entry = it.next();
+				SockIOPool.SockIO sock = entry.getKey();
+				for ( int n = entry.getValue().size(); n > 0; n-- ) {
+					String line = sock.readLine();
+					if ( !STORED.equals( line ) ) {
+						log.error( "++++ error storing chunk in cache for key: " + key + " -- server response: " + line );
+						success = false;
 					}
 				}
-				else {
-					// deserialize if the data is serialized
-					ContextObjectInputStream ois =
-						new ContextObjectInputStream( new ByteArrayInputStream( buf ), classLoader );
-					try {
-						o = ois.readObject();
-						if ( log.isInfoEnabled() )
-							log.info( "++++ deserializing " + o.getClass() );
-					}
-					catch ( InvalidClassException e ) {
-						/* Errors de-serializing are to be expected in the case of a 
-						 * long running server that spans client restarts with updated 
-						 * classes. 
-						 */
-						// if we have an errorHandler, use its hook
-						if ( errorHandler != null )
-							errorHandler.handleErrorOnGet( this, e, key );
+				it.remove();
+				sock.close();
+			}
+		}
+		catch ( IOException e ) {
+
+			// if we have an errorHandler, use its hook
+			if ( errorHandler != null )
+				errorHandler.handleErrorOnSet( this, e, key );
+
+			log.error( "++++ exception thrown while writing chunks to server on set" );
+			log.error( e.getMessage(), e );
+			success = false;
+		}
+
+		// sockets we did not read all replies from are out of sync
+		for ( SockIOPool.SockIO sock : written.keySet() ) {
+			try {
+				sock.trueClose();
+			}
+			catch ( IOException ioe ) {
+				log.error( "++++ failed to close socket : " + sock.toString() );
+			}
+		}
+
+		if ( !success )
+			return null;
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream( 16 );
+		DataOutputStream dos      = new DataOutputStream( bos );
+		try {
+			dos.writeLong( token );
+			dos.writeInt( count );
+			dos.writeInt( length );
+		}
+		catch ( IOException e ) {
+			// can not happen writing to memory
+		}
+		return bos.toByteArray();
+	}
+
+	/** 
+	 * Replaces the chunked placeholders in a result map by their values.
+	 * 
+	 * @param ret results of a multi get
+	 * @param mode how to hand back the value
+	 * @param transcoder transcoder to decode values with
+	 * @param deadline if not null, the time by which the chunks have to be read
+	 */
+	private void loadChunks( Map<String,Object> ret, DecodeMode mode, Transcoder transcoder, Deadline deadline ) {
+		for ( Iterator<Map.Entry<String,Object>> it = ret.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<String,Object> entry = it.next();
+			if ( !( entry.getValue() instanceof Chunked ) )
+				continue;
+
+			Object o = null;
+			try {
+				o = loadChunks( (Chunked)entry.getValue(), mode, transcoder, entry.getKey(), deadline );
+			}
+			catch ( IOException e ) {
+				// already reported, treat as a miss
+			}
+
+			if ( o == null )
+				it.remove();
+			else
+				entry.setValue( o );
+		}
+	}
+
+	/** 
+	 * Fetches the chunks of a value with a single multi get and
+	 * decodes the value they make up.
+	 * 
+	 * @param chunked manifest read from the server
+	 * @param mode how to hand back the value
+	 * @param transcoder transcoder to decode the value with
+	 * @param key key of the value
+	 * @param deadline if not null, the time by which the chunks have to be read
+	 * @return value, or null if a chunk is missing
+	 * @throws IOException if the value can not be uncompressed or decoded
+	 */
+	private Object loadChunks( Chunked chunked, DecodeMode mode, Transcoder transcoder, String key, Deadline deadline ) throws IOException {
+		byte[] val = joinChunks( chunked, key, deadline );
+		return ( val == null ) ? null : decode( val, chunked.flags, mode, transcoder, key );
+	}
+
+	/** 
+	 * Fetches the chunks of a value with a single multi get.
+	 * 
+	 * @param chunked manifest read from the server
+	 * @param key key of the value
+	 * @param deadline if not null, the time by which the chunks have to be read
+	 * @return the value's bytes, or null if a chunk is missing
+	 */
+	private byte[] joinChunks( Chunked chunked, String key, Deadline deadline ) {
+		long token;
+		int count, length;
+		try {
+			DataInputStream in = new DataInputStream( new ByteArrayInputStream( chunked.manifest ) );
+			token  = in.readLong();
+			count  = in.readInt();
+			length = in.readInt();
+		}
+		catch ( IOException e ) {
+			log.error( "++++ malformed chunk manifest for key: " + key );
+			return null;
+		}
+
+		if ( count < 1 || length < 0 ) {
+			log.error( "++++ malformed chunk manifest for key: " + key );
+			return null;
+		}
+
+		String[] keys = new String[ count ];
+		Map<String,List<String>> cmdMap = new HashMap<String,List<String>>();
+		for ( int i = 0; i < count; i++ ) {
+			keys[i] = chunkKey( token, i );
+			SockIOPool.SockIO sock = ( deadline == null )
+				? pool.getSock( keys[i], null )
+				: pool.getSock( keys[i], null, deadline.timeoutRemaining() );
+			if ( sock == null ) {
+				if ( errorHandler != null )
+					errorHandler.handleErrorOnGet( this, new IOException( "no socket to server available for chunk " + i ), key );
+				return null;
+			}
+			String host = sock.getHost();
+			sock.close();
+
+			if ( !cmdMap.containsKey( host ) )
+				cmdMap.put( host, new ArrayList<String>() );
+			cmdMap.get( host ).add( keys[i] );
+		}
+
+		long timeout = ( deadline == null ) ? pool.getMaxBusy() : deadline.timeRemaining();
+		if ( timeout <= 0 )
+			return null;
+
+		Map<String,Object> parts = new HashMap<String,Object>( count );
+		(new NIOLoader( this )).doMulti( DecodeMode.OBJECT, transcoder, cmdMap, keys, parts, timeout );
+
+		// the manifest's length is only trusted once the chunks back it up
+		long total = 0;
+		for ( int i = 0; i < count; i++ ) {
+			Object part = parts.get( keys[i] );
+			if ( !( part instanceof Chunked ) ) {
+				if ( log.isInfoEnabled() )
+					log.info( "++++ chunk " + i + " of " + count + " missing or invalid for key: " + key );
+				return null;
+			}
+			total += ( (Chunked)part ).manifest.length;
+		}
+
+		if ( total != length ) {
+			log.error( "++++ chunks add up to " + total + " bytes instead of " + length + " for key: " + key );
+			return null;
+		}
+
+		byte[] val = new byte[ length ];
+		int pos    = 0;
+		for ( int i = 0; i < count; i++ ) {
+			byte[] b = ( (Chunked)parts.get( keys[i] ) ).manifest;
+			System.arraycopy( b, 0, val, pos, b.length );
+			pos += b.length;
+		}
+
+		return val;
+	}
+
+	private static String chunkKey( long token, int i ) {
+		// only characters key sanitizing leaves alone
+		return "_chunk_" + Long.toHexString( token ) + "_" + i;
+	}
+
+	/** 
+	 * A chunked value as read from the server, before its chunks
+	 * are fetched.  Chunks themselves read the same way.
+	 */
+	private static final class Chunked {
+		final byte[] manifest;
+		final int flags;
+
+		Chunked( byte[] manifest, int flags ) {
+			this.manifest = manifest;
+			this.flags    = flags;
+		}
+	}
+
+	/** 
+	 * Returns the compressor a value was written with.
+	 * 
+	 * @param flag flags read from the server
+	 * @return compressor, or null if there is none for the value
+	 */
+	private Compressor getDecompressor( int flag ) {
+		int bits = compressor.getFlags();
+		if ( bits != 0 && (flag & bits) == bits )
+			return compressor;
+
+		if ( (flag & F_COMPRESSED_LZ) == F_COMPRESSED_LZ )
+			return LZ_COMPRESSOR;
+
+		// dictionaries only live in the configured compressor
+		if ( (flag & F_COMPRESSED_DICT) == F_COMPRESSED_DICT )
+			return null;
+
+		return GZIP_COMPRESSOR;
+	}
+
+	/** 
+	 * Returns a namespace, a group of keys which can be invalidated
+	 * all at once.
+	 *
+	 * The same namespace object is returned for a name every time,<br/>
+	 * so its cached version is shared by all users of this client.
+	 * 
+	 * @param name name of the namespace, used as key prefix
+	 * @return namespace
+	 */
+	public Namespace getNamespace( String name ) {
+		if ( name == null )
+			throw new IllegalArgumentException( "namespace name is null" );
+
+		Namespace ns = namespaces.get( name );
+		if ( ns == null ) {
+			ns = new Namespace( this, name );
+			Namespace prev = namespaces.putIfAbsent( name, ns );
+			if ( prev != null )
+				ns = prev;
+		}
+		return ns;
+	}
+
+	/** 
+	 * Encodes a key once for use in many calls.
+	 *
+	 * The key is sanitized according to this client's settings.
+	 * 
+	 * @param key key as passed to the other methods
+	 * @return encoded key, or null if the key is null or can not be sanitized
+	 */
+	public CacheKey getCacheKey( String key ) {
+		if ( key == null ) {
+			log.error( "key is null for getCacheKey()" );
+			return null;
+		}
 
-						o = null;
-						log.error( "++++ InvalidClassException thrown while trying to deserialize for key: " + key + " -- " + e.getMessage() );
-					}
-					catch ( ClassNotFoundException e ) {
+		try {
+			return new CacheKey( key, sanitizeKey( key ), keyEncoding() );
+		}
+		catch ( UnsupportedEncodingException e ) {
+			log.error( "failed to sanitize your key!", e );
+			return null;
+		}
+	}
 
-						// if we have an errorHandler, use its hook
-						if ( errorHandler != null )
-							errorHandler.handleErrorOnGet( this, e, key );
+	private CacheKey encode( CacheKey key ) {
+		// made by a client with other settings
+		return ( key.getEncoding() == keyEncoding() ) ? key : getCacheKey( key.getKey() );
+	}
 
-						o = null;
-						log.error( "++++ ClassNotFoundException thrown while trying to deserialize for key: " + key + " -- " + e.getMessage() );
-					}
-				}
+	private int keyEncoding() {
+		return ( !sanitizeKeys ) ? 0 : ( minimalKeyEscaping ) ? 2 : 1;
+	}
 
-				// store the object into the cache
-				if ( o != null )
-					hm.put( key, o );
-			}
-			else if ( END.equals( line ) ) {
-				if ( log.isDebugEnabled() )
-					log.debug( "++++ finished reading from cache server" );
-				break;
-			}
-		}
+	private static byte[] command( byte[] prefix, CacheKey key ) {
+		byte[] k   = key.getBytes();
+		byte[] cmd = new byte[ prefix.length + k.length + 2 ];
+		System.arraycopy( prefix, 0, cmd, 0, prefix.length );
+		System.arraycopy( k, 0, cmd, prefix.length, k.length );
+		cmd[ cmd.length - 2 ] = '\r';
+		cmd[ cmd.length - 1 ] = '\n';
+		return cmd;
 	}
 
 	private String sanitizeKey( String key ) throws UnsupportedEncodingException {
-		return ( sanitizeKeys ) ? URLEncoder.encode( key, "UTF-8" ) : key;
+		if ( !sanitizeKeys )
+			return key;
+
+		return ( minimalKeyEscaping ) ? KeySanitizer.escapeMinimal( key ) : KeySanitizer.urlEncode( key );
 	}
 
 	/** 
@@ -2063,40 +4269,243 @@ public class MemcachedClient {
 		return statsMaps;
 	}
 
+	/** 
+	 * Collects concurrent gets per server into multi gets.
+	 *
+	 * The first get for a server opens a batch and leads it: it waits<br/>
+	 * for the window (or until the batch is full), closes the batch,<br/>
+	 * sends the multi get, and wakes the other threads which added<br/>
+	 * their keys in the meantime.  Gets arriving after the batch was<br/>
+	 * closed open the next one.
+	 */
+	private final class GetBatcher {
+		private final long window;
+		private final int maxBatch;
+
+		// one queue, and lock, per server
+		private final ConcurrentHashMap<String,HostQueue> queues = new ConcurrentHashMap<String,HostQueue>();
+
+		GetBatcher( long window, int maxBatch ) {
+			this.window   = window;
+			this.maxBatch = maxBatch;
+		}
+
+		private final class HostQueue {
+			final Lock lock = new ReentrantLock();
+
+			// batch still taking keys, guarded by lock
+			Batch open;
+		}
+
+		private final class Batch {
+			final Set<String> keys = new HashSet<String>();
+			final Condition full;
+			final Condition done;
+
+			// guarded by the queue's lock
+			boolean closed;
+			boolean finished;
+			Map<String,Object> results;
+
+			Batch( Lock lock ) {
+				full = lock.newCondition();
+				done = lock.newCondition();
+			}
+		}
+
+		/** 
+		 * Gets a key as part of the next batch for its server.
+		 * 
+		 * @param host server of the key
+		 * @param key sanitized key
+		 * @return the value, or null if not found
+		 */
+		Object get( String host, String key ) {
+			HostQueue queue = queues.get( host );
+			if ( queue == null ) {
+				queue = new HostQueue();
+				HostQueue existing = queues.putIfAbsent( host, queue );
+				if ( existing != null )
+					queue = existing;
+			}
+
+			Batch batch;
+			queue.lock.lock();
+			try {
+				batch = queue.open;
+				boolean leader = ( batch == null );
+				if ( leader ) {
+					batch      = new Batch( queue.lock );
+					queue.open = batch;
+				}
+
+				batch.keys.add( key );
+				if ( batch.keys.size() >= maxBatch ) {
+					close( queue, batch );
+					batch.full.signal();
+				}
+
+				if ( !leader ) {
+					while ( !batch.finished )
+						batch.done.awaitUninterruptibly();
+					return batch.results.get( key );
+				}
+
+				// wait for the other threads to add their keys
+				long nanos = window;
+				try {
+					while ( !batch.closed && nanos > 0 )
+						nanos = batch.full.awaitNanos( nanos );
+				}
+				catch ( InterruptedException e ) {
+					// send what we have, but keep the interrupt
+					Thread.currentThread().interrupt();
+				}
+				close( queue, batch );
+			}
+			finally {
+				queue.lock.unlock();
+			}
+
+			// the batch is closed, so nobody touches its keys any more
+			Map<String,Object> results = new HashMap<String,Object>( batch.keys.size() );
+			try {
+				results = fetch( host, batch.keys );
+			}
+			finally {
+				queue.lock.lock();
+				try {
+					batch.results  = results;
+					batch.finished = true;
+					batch.done.signalAll();
+				}
+				finally {
+					queue.lock.unlock();
+				}
+			}
+
+			return results.get( key );
+		}
+
+		private void close( HostQueue queue, Batch batch ) {
+			batch.closed = true;
+			if ( queue.open == batch )
+				queue.open = null;
+		}
+
+		private Map<String,Object> fetch( String host, Set<String> keys ) {
+			if ( log.isDebugEnabled() )
+				log.debug( "++++ batched get of " + keys.size() + " keys from " + host );
+
+			Map<String,List<String>> cmdMap = new HashMap<String,List<String>>( 1 );
+			cmdMap.put( host, new ArrayList<String>( keys ) );
+
+			Map<String,Object> ret = new HashMap<String,Object>( keys.size() );
+			(new NIOLoader( MemcachedClient.this )).doMulti( DecodeMode.OBJECT, transcoder, cmdMap, keys.toArray( new String[ keys.size() ] ), ret, pool.getMaxBusy() );
+			loadChunks( ret, DecodeMode.OBJECT, transcoder, null );
+			return ret;
+		}
+	}
+
 	protected final class NIOLoader {
+
+		// batches sent to a server ahead of the one being read
+		private static final int WINDOW = 2;
+
+		// size of the pooled buffer each connection reads into
+		private static final int READ_BUFFER = 32768;
+
+		// values, and their bytes, handed to the decode executor at once
+		private static final int DECODE_BATCH       = 64;
+		private static final int DECODE_BATCH_BYTES = 262144;
+
+		// ms between checks for decoded batches while reading
+		private static final long DECODE_POLL       = 10;
+
 		protected Selector selector;
 		protected int numConns = 0;
 		protected MemcachedClient mc;
 		protected Connection[] conns;
 
+		// how values read are decoded
+		private DecodeMode mode;
+		private Transcoder transcoder;
+
+		// when set, values are decoded there instead of inline
+		private ExecutorService decoder;
+		private GetMultiCallback decodedSink;
+		private DecodeBatch batch;
+		private List<Future<DecodeBatch>> decoding;
+
 		public NIOLoader( MemcachedClient mc ) {
 			this.mc = mc;
 		}
 
 		private final class Connection {
 		
-			public List<ByteBuffer> incoming = new ArrayList<ByteBuffer>();
 			public ByteBuffer outgoing;
 			public SockIOPool.SockIO sock;
 			public SocketChannel channel;
 			private boolean isDone = false;
+
+			// keys for this server; [ 0, nextKey ) have been sent
+			private final List<String> keys;
+			private int nextKey  = 0;
+
+			// batches sent whose END has not been read yet
+			private int inFlight = 0;
+
+			// when the last batch finished going out (0 once
+			// answered), so the pool can see how slow the server is
+			private long sentAt  = 0;
+
+			// where values go as soon as they are parsed
+			private final GetMultiCallback sink;
+
+			// pooled buffer the server's response is read into; between
+			// reads it holds the bytes not parsed yet and is ready to fill
+			private ByteBuffer in;
+
+			// value being read: its bytes go straight from the
+			// read buffer into a byte[] of its own
+			private byte[] value;
+			private int filled;
+			private String valueKey;
+			private int valueFlag;
 			
-			public Connection( SockIOPool.SockIO sock, StringBuilder request ) throws IOException {
+			public Connection( SockIOPool.SockIO sock, List<String> keys, GetMultiCallback sink ) throws IOException {
 				if ( log.isDebugEnabled() )
 					log.debug( "setting up connection to "+sock.getHost() );
 				
 				this.sock = sock;
-				outgoing = ByteBuffer.wrap( request.append( "\r\n" ).toString().getBytes() );
+				this.keys = keys;
+				this.sink = sink;
 				
 				channel = sock.getChannel();
 				if ( channel == null )
 					throw new IOException( "dead connection to: " + sock.getHost() );
 
-				channel.configureBlocking( false );
-				channel.register( selector, SelectionKey.OP_WRITE, this );
+				// pooled, so given back if we do not get to close()
+				outgoing = nextBatch();
+				try {
+					channel.configureBlocking( false );
+					channel.register( selector, SelectionKey.OP_WRITE | SelectionKey.OP_READ, this );
+				}
+				catch ( IOException e ) {
+					BufferPool.release( outgoing );
+					outgoing = null;
+					throw e;
+				}
+				in = BufferPool.acquire( READ_BUFFER );
 			}
 			
 			public void close() {
+				// nothing reads or writes after this
+				BufferPool.release( in );
+				BufferPool.release( outgoing );
+				in       = null;
+				outgoing = null;
+
 				try {
 					if ( isDone ) {
 						// turn off non-blocking IO and return to pool
@@ -2123,48 +4532,378 @@ public class MemcachedClient {
 			}
 			
 			public boolean isDone() {
-				// if we know we're done, just say so
-				if ( isDone )         
-					return true;
-				
-				// else find out the hard way
-				int strPos = B_END.length-1;
-
-				int bi = incoming.size() - 1;
-				while ( bi >= 0 && strPos >= 0 ) {
-					ByteBuffer buf = incoming.get( bi );
-					int pos = buf.position()-1;
-					while ( pos >= 0 && strPos >= 0 ) {
-					    if ( buf.get( pos-- ) != B_END[strPos--] )
-							return false;
+				return isDone;
+			}
+
+			/** 
+			 * Checks to see if there is a batch to write right now.
+			 * 
+			 * @return true if a batch is being written or may be started
+			 */
+			public boolean wantsWrite() {
+				return outgoing.hasRemaining() || ( nextKey < keys.size() && inFlight < WINDOW );
+			}
+
+			/** 
+			 * Builds the get command for the next batch of keys.
+			 *
+			 * The command is written straight into a pooled buffer;<br/>
+			 * the buffer of the previous batch is given back.
+			 * 
+			 * @return the command, ready to write
+			 */
+			public ByteBuffer nextBatch() {
+				int maxKeys  = multiGetMaxKeys;
+				int maxBytes = multiGetMaxBytes;
+
+				// sanitized keys are ascii, so chars are bytes
+				int first  = nextKey;
+				int length = 3;
+				while ( nextKey < keys.size() ) {
+					int count     = nextKey - first;
+					int keyLength = keys.get( nextKey ).length();
+
+					if ( count > 0 ) {
+						if ( maxKeys > 0 && count >= maxKeys )
+							break;
+						if ( maxBytes > 0 && length + keyLength + 3 > maxBytes )
+							break;
 					}
 
-					bi--;
+					length += keyLength + 1;
+					nextKey++;
 				}
-				
-				isDone = strPos < 0;
-				return isDone;
+
+				inFlight++;
+				if ( log.isDebugEnabled() )
+					log.debug( "++++ batch of " + ( nextKey - first ) + " keys for " + sock.getHost() + ", " + ( keys.size() - nextKey ) + " left" );
+
+				BufferPool.release( outgoing );
+				ByteBuffer buf = BufferPool.acquire( length + 2 );
+				buf.put( B_GET, 0, 3 );
+				for ( int i = first; i < nextKey; i++ ) {
+					String key = keys.get( i );
+					buf.put( (byte)' ' );
+					for ( int j = 0; j < key.length(); j++ ) {
+						char c = key.charAt( j );
+						if ( c >= 0x80 )
+							return encodeBatch( buf, first );
+						buf.put( (byte)c );
+					}
+				}
+				buf.put( (byte)13 ).put( (byte)10 );
+				buf.flip();
+
+				return buf;
 			}
-			
-			public ByteBuffer getBuffer() {
-				int last = incoming.size()-1;
-				if ( last >= 0 && incoming.get( last ).hasRemaining() ) {
-					return incoming.get( last );
+
+			// keys left unescaped (see setMinimalKeyEscaping) may not
+			// be ascii; those batches are encoded the slow way
+			private ByteBuffer encodeBatch( ByteBuffer buf, int first ) {
+				BufferPool.release( buf );
+
+				StringBuilder request = new StringBuilder( "get" );
+				for ( int i = first; i < nextKey; i++ )
+					request.append( ' ' ).append( keys.get( i ) );
+
+				return ByteBuffer.wrap( request.append( "\r\n" ).toString().getBytes() );
+			}
+
+			private void endBatch() {
+				inFlight--;
+				isDone = ( inFlight == 0 && nextKey == keys.size() );
+			}
+
+			/** 
+			 * Reads what the server has sent so far.
+			 * 
+			 * @return number of bytes read, -1 if the server closed the connection
+			 * @throws IOException if the read fails
+			 */
+			public int read() throws IOException {
+				// full of bytes we could not parse
+				if ( !in.hasRemaining() )
+					throw new IOException( "response line too long from " + sock.getHost() );
+
+				int count = channel.read( in );
+				if ( count > 0 && sentAt != 0 ) {
+					sock.recordLatency( ( System.nanoTime() - sentAt ) / 1000000 );
+					sentAt = 0;
 				}
-				else {
-					ByteBuffer newBuf = ByteBuffer.allocate( 8192 );
-					incoming.add( newBuf );
-					return newBuf;
+
+				return count;
+			}
+
+			/** 
+			 * Hands every complete value read so far to the sink.
+			 *
+			 * Values are copied out of the read buffer as their bytes<br/>
+			 * arrive, so the buffer never has to hold a value as a whole.
+			 */
+			public void parse() {
+				in.flip();
+				try {
+					parseBuffered();
+				}
+				finally {
+					in.compact();
+				}
+			}
+
+			private void parseBuffered() {
+				while ( !isDone ) {
+					if ( value != null ) {
+						int n = Math.min( in.remaining(), value.length - filled );
+						in.get( value, filled, n );
+						filled += n;
+
+						// wait for the rest of the value and its \r\n
+						if ( filled < value.length || in.remaining() < 2 )
+							return;
+
+						in.position( in.position() + 2 );
+						byte[] buf = value;
+						value      = null;
+
+						deliver( valueKey, valueFlag, buf, sink );
+						continue;
+					}
+
+					int eol = indexOfEOL();
+					if ( eol < 0 )
+						return;
+
+					byte[] b = new byte[ eol - in.position() ];
+					in.get( b );
+					in.position( eol + 2 );
+
+					String line = new String( b );
+					if ( log.isDebugEnabled() )
+						log.debug( "++++ line: " + line );
+
+					if ( line.startsWith( VALUE ) ) {
+						String[] info = line.split(" ");
+						valueKey      = info[1];
+						valueFlag     = Integer.parseInt( info[2] );
+						value         = new byte[ Integer.parseInt( info[3] ) ];
+						filled        = 0;
+
+						if ( log.isDebugEnabled() ) {
+							log.debug( "++++ key: " + valueKey );
+							log.debug( "++++ flags: " + valueFlag );
+							log.debug( "++++ length: " + value.length );
+						}
+					}
+					else if ( END.equals( line ) ) {
+						if ( log.isDebugEnabled() )
+							log.debug( "++++ finished reading batch from cache server" );
+						endBatch();
+					}
+					else {
+						// the server rejected the batch; nothing more follows for it
+						log.error( "++++ error from " + sock.getHost() + " in multi get: " + line );
+						endBatch();
+					}
+				}
+			}
+
+			private int indexOfEOL() {
+				for ( int i = in.position(); i < in.limit() - 1; i++ ) {
+					if ( in.get( i ) == 13 && in.get( i + 1 ) == 10 )
+						return i;
 				}
+				return -1;
 			}
 			
 			public String toString() {
-				return "Connection to " + sock.getHost() + " with " + incoming.size() + " bufs; done is " + isDone;
+				return "Connection to " + sock.getHost() + " with " + ( keys.size() - nextKey ) + " keys unsent; done is " + isDone;
 			}
 		}
 		
-		public void doMulti( boolean asString, Map<String, StringBuilder> sockKeys, String[] keys, Map<String, Object> ret ) {
+		/** 
+		 * Values read, waiting to be decoded together on the executor.
+		 */
+		private final class DecodeBatch implements Callable<DecodeBatch> {
+			private final String[] keys  = new String[ DECODE_BATCH ];
+			private final int[] flags    = new int[ DECODE_BATCH ];
+			private final byte[][] bufs  = new byte[ DECODE_BATCH ][];
+			private final Object[] values = new Object[ DECODE_BATCH ];
+			private int count = 0;
+			private int bytes = 0;
+
+			public void add( String key, int flag, byte[] buf ) {
+				keys[ count ]  = key;
+				flags[ count ] = flag;
+				bufs[ count ]  = buf;
+				count++;
+				bytes += buf.length;
+			}
+
+			public boolean isFull() {
+				return count == DECODE_BATCH || bytes >= DECODE_BATCH_BYTES;
+			}
+
+			public DecodeBatch call() {
+				for ( int i = 0; i < count; i++ ) {
+					try {
+						values[i] = decode( bufs[i], flags[i], mode, transcoder, keys[i] );
+					}
+					catch ( IOException e ) {
+						// already reported, treat as a miss
+					}
+					bufs[i] = null;
+				}
+				return this;
+			}
+
+			public void deliver() {
+				for ( int i = 0; i < count; i++ ) {
+					if ( values[i] != null )
+						decodedSink.onValue( keys[i], values[i] );
+				}
+			}
+		}
+
+		/** 
+		 * Decodes a value read and hands it to the sink, or queues it
+		 * for the decode executor.
+		 * 
+		 * @param key sanitized key
+		 * @param flag flags read from the server
+		 * @param buf value read from the server
+		 * @param sink sink of the connection the value was read from
+		 */
+		private void deliver( String key, int flag, byte[] buf, GetMultiCallback sink ) {
+			if ( decoder == null ) {
+				try {
+					Object o = decode( buf, flag, mode, transcoder, key );
+					if ( o != null )
+						sink.onValue( key, o );
+				}
+				catch ( IOException e ) {
+					// already reported, go on with the next value
+				}
+				return;
+			}
+
+			if ( batch == null )
+				batch = new DecodeBatch();
+
+			batch.add( key, flag, buf );
+			if ( !batch.isFull() )
+				return;
+
+			DecodeBatch full = batch;
+			batch = null;
+			try {
+				decoding.add( decoder.submit( full ) );
+			}
+			catch ( RejectedExecutionException e ) {
+				log.warn( "++++ decode executor rejected a batch, decoding inline" );
+				full.call().deliver();
+			}
+		}
+
+		/** 
+		 * Hands the batches the decode executor has finished to the
+		 * sink, without waiting for the others.
+		 * 
+		 * @param keys keys, for error reporting
+		 */
+		private void deliverDecoded( String[] keys ) {
+			for ( Iterator<Future<DecodeBatch>> i = decoding.iterator(); i.hasNext(); ) {
+				Future<DecodeBatch> f = i.next();
+				if ( !f.isDone() )
+					continue;
+
+				i.remove();
+				try {
+					f.get().deliver();
+				}
+				catch ( InterruptedException e ) {
+					// can not happen, the batch is done
+					Thread.currentThread().interrupt();
+				}
+				catch ( ExecutionException e ) {
+					handleError( e.getCause(), keys );
+				}
+			}
+		}
+
+		/** 
+		 * Waits for the values queued on the decode executor and hands
+		 * them to the sink; the last, partial batch is decoded here.
+		 *
+		 * Batches not decoded by the deadline are dropped.
+		 * 
+		 * @param keys keys, for error reporting
+		 * @param deadline time (in ms) after which to stop waiting
+		 */
+		private void finishDecoding( String[] keys, long deadline ) {
+			if ( batch != null ) {
+				batch.call().deliver();
+				batch = null;
+			}
+
+			deliverDecoded( keys );
+			for ( int i = 0; i < decoding.size(); i++ ) {
+				long timeRemaining = deadline - System.currentTimeMillis();
+				try {
+					if ( timeRemaining <= 0 )
+						throw new TimeoutException();
+
+					decoding.get( i ).get( timeRemaining, TimeUnit.MILLISECONDS ).deliver();
+				}
+				catch ( TimeoutException e ) {
+					log.error( "++++ timed out decoding " + ( decoding.size() - i ) + " batches of a multi get, dropping them" );
+					for ( int j = i; j < decoding.size(); j++ )
+						decoding.get( j ).cancel( false );
+					return;
+				}
+				catch ( InterruptedException e ) {
+					// give up on the rest, but let the caller see the interrupt
+					Thread.currentThread().interrupt();
+					for ( int j = i; j < decoding.size(); j++ )
+						decoding.get( j ).cancel( false );
+					handleError( e, keys );
+					return;
+				}
+				catch ( ExecutionException e ) {
+					handleError( e.getCause(), keys );
+				}
+			}
+		}
+
+		public void doMulti( DecodeMode mode, Transcoder transcoder, Map<String, List<String>> sockKeys, String[] keys, final Map<String, Object> ret, long timeout ) {
+			doMulti( mode, transcoder, sockKeys, keys, new GetMultiCallback() {
+				public void onValue( String key, Object value ) {
+					ret.put( key, value );
+				}
+			}, timeout );
+		}
+
+		/** 
+		 * Gets keys from several servers at once, handing each value
+		 * to the sink as soon as it has arrived.
+		 * 
+		 * @param mode how to hand back the values
+		 * @param transcoder transcoder to decode values with
+		 * @param sockKeys sanitized keys by host
+		 * @param keys keys, for error reporting
+		 * @param sink receives the values under their sanitized keys
+		 * @param timeout ms to wait for all servers; this bounds connecting<br/>
+		 *                as well as writing the requests, which only happens<br/>
+		 *                on non-blocking channels inside the select loop
+		 */
+		public void doMulti( DecodeMode mode, Transcoder transcoder, Map<String, List<String>> sockKeys, String[] keys, GetMultiCallback sink, long timeout ) {
 		
+			this.mode        = mode;
+			this.transcoder  = transcoder;
+			this.decoder     = decodeExecutor;
+			this.decodedSink = sink;
+			this.decoding    = new ArrayList<Future<DecodeBatch>>();
+
+			long startTime = System.currentTimeMillis();
 			long timeRemaining = 0;
 			try {
 				selector = Selector.open();
@@ -2177,27 +4916,36 @@ public class MemcachedClient {
 					// get SockIO obj from hostname
 					String host = i.next();
 
-					SockIOPool.SockIO sock = pool.getConnection( host );
+					long connectTimeout = timeout - (System.currentTimeMillis() - startTime);
+					if ( connectTimeout <= 0 )
+						break;
+
+					// a connect timeout of 0 means a blocking connect, which
+					// must not outlive the time we have left
+					if ( pool.getSocketConnectTO() > 0 )
+						connectTimeout = Math.min( connectTimeout, pool.getSocketConnectTO() );
 
+					SockIOPool.SockIO sock = pool.getConnection( host, (int)Math.max( 1, Math.min( Integer.MAX_VALUE, connectTimeout ) ) );
+
+					// skip this server, the others can still answer
 					if ( sock == null ) {
 						if ( errorHandler != null )
-							errorHandler.handleErrorOnGet( this.mc, new IOException( "no socket to server available" ), keys );
-						return;
+							errorHandler.handleErrorOnGet( this.mc, new IOException( "no socket to server available: " + host ), keys );
+						continue;
 					}
 
-					conns[numConns++] = new Connection( sock, sockKeys.get( host ) );
+					conns[numConns++] = new Connection( sock, sockKeys.get( host ), sink );
 				}
 				
 				// the main select loop; ends when
 				// 1) we've received data from all the servers, or
 				// 2) we time out
-				long startTime = System.currentTimeMillis();
-
-				long timeout = pool.getMaxBusy();
-				timeRemaining = timeout;
+				timeRemaining = timeout - (System.currentTimeMillis() - startTime);
 				
 				while ( numConns > 0 && timeRemaining > 0 ) {
-					int n = selector.select( Math.min( timeout,  5000 ) );
+					// wake up now and then to pass on decoded batches
+					boolean waiting = !decoding.isEmpty();
+					int n = selector.select( Math.max( 1, Math.min( timeRemaining, ( waiting ) ? DECODE_POLL : 5000 ) ) );
 					if ( n > 0 ) {
 					    // we've got some activity; handle it
 					    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
@@ -2207,12 +4955,15 @@ public class MemcachedClient {
 					        handleKey( key );
 					    }
 					}
-					else {
+					else if ( !waiting ) {
 					    // timeout likely... better check
 						// TODO:  This seems like a problem area that we need to figure out how to handle.
 						log.error( "selector timed out waiting for activity" );
 					}
 					
+					if ( decoder != null )
+						deliverDecoded( keys );
+
 					timeRemaining = timeout - (System.currentTimeMillis() - startTime);
 				}
 			}
@@ -2220,7 +4971,6 @@ public class MemcachedClient {
 				// errors can happen just about anywhere above, from
 				// connection setup to any of the mechanics
 				handleError( e, keys );
-				return;
 			}
 			finally {
 				if ( log.isDebugEnabled() )
@@ -2234,27 +4984,141 @@ public class MemcachedClient {
 				}
 				catch ( IOException ignoreMe ) { }
 				
-				for ( Connection c : conns ) {
-					if ( c != null )
-						c.close();
+				if ( conns != null ) {
+					for ( Connection c : conns ) {
+						if ( c != null )
+							c.close();
+					}
 				}
 			}
+
+			// values were handed out as they came in, so on a timeout
+			// the servers which did answer in time still count
+			if ( decoder != null )
+				finishDecoding( keys, startTime + timeout );
+		}
 		
-			// Done!  Build the list of results and return them.  If we get
-			// here by a timeout, then some of the connections are probably
-			// not done.  But we'll return what we've got...
-			for ( Connection c : conns ) {
+		/** 
+		 * Gets a single key from a list of replicas, hedging after a delay.
+		 *
+		 * The get is sent to the first host.  If it has not completed<br/>
+		 * after delay ms (or the host can not be reached) the same get<br/>
+		 * is sent to the next host, and so on.  The first response to<br/>
+		 * complete is loaded into ret; all other connections are closed.
+		 * 
+		 * @param mode how to hand back the values
+		 * @param transcoder transcoder to decode the value with
+		 * @param key sanitized key to get
+		 * @param hosts replicas to try, in order
+		 * @param delay ms to wait on a replica before trying the next
+		 * @param ret map to load the result into
+		 */
+		public void doHedged( DecodeMode mode, Transcoder transcoder, String key, List<String> hosts, long delay, Map<String,Object> ret ) {
+
+			this.mode       = mode;
+			this.transcoder = transcoder;
+
+			// every replica fills its own map, only the winner's is kept
+			List<Map<String,Object>> results = new ArrayList<Map<String,Object>>( hosts.size() );
+
+			String[] keys = new String[] { key };
+			Connection winner = null;
+			long timeRemaining = 0;
+			try {
+				selector = Selector.open();
+				conns = new Connection[ hosts.size() ];
+				numConns = 0;
+
+				long startTime = System.currentTimeMillis();
+				long timeout   = pool.getMaxBusy();
+				long nextHedge = startTime;
+				int next       = 0;
+				timeRemaining  = timeout;
+
+				while ( winner == null && timeRemaining > 0 ) {
+					long now = System.currentTimeMillis();
+
+					// send the get to the next replica
+					if ( next < hosts.size() && now >= nextHedge ) {
+						SockIOPool.SockIO sock = pool.getConnection( hosts.get( next++ ) );
+						nextHedge = now + delay;
+
+						if ( sock != null ) {
+							final Map<String,Object> values = new HashMap<String,Object>( 1 );
+							results.add( values );
+							conns[ numConns++ ] = new Connection( sock, Collections.singletonList( key ), new GetMultiCallback() {
+								public void onValue( String key, Object value ) {
+									values.put( key, value );
+								}
+							} );
+						}
+						else {
+							nextHedge = now;
+						}
+
+						continue;
+					}
+
+					// nothing in flight and nobody left to ask
+					if ( numConns == 0 )
+						break;
+
+					long wait = ( next < hosts.size() )
+						? Math.min( timeRemaining, nextHedge - now )
+						: timeRemaining;
+
+					int n = selector.select( Math.max( 1, wait ) );
+					if ( n > 0 ) {
+						Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+						while ( it.hasNext() ) {
+							SelectionKey sk = it.next();
+							it.remove();
+							handleKey( sk );
+
+							Connection c = (Connection)sk.attachment();
+							if ( winner == null && c.isDone() )
+								winner = c;
+						}
+					}
+
+					timeRemaining = timeout - (System.currentTimeMillis() - startTime);
+				}
+			}
+			catch ( IOException e ) {
+				handleError( e, keys );
+			}
+			finally {
+				if ( log.isDebugEnabled() )
+					log.debug( "Disconnecting hedged get; winner=" + winner + "  timeRemaining=" + timeRemaining );
+
 				try {
-					if ( c.incoming.size() > 0 && c.isDone() )
-						loadMulti( new ByteBufArrayInputStream( c.incoming ), ret, asString );
+					if ( selector != null )
+						selector.close();
 				}
-				catch ( Exception e ) {
-					// shouldn't happen; we have all the data already
-					log.warn( "Caught the aforementioned exception on "+c );
+				catch ( IOException ignoreMe ) { }
+
+				// the losers still have a response in flight, so
+				// they are not done and get closed for real
+				if ( conns != null ) {
+					for ( Connection c : conns ) {
+						if ( c != null )
+							c.close();
+					}
 				}
 			}
+
+			if ( winner == null ) {
+				handleError( new IOException( "no replica answered in time for key: " + key ), keys );
+				return;
+			}
+
+			// numConns only counts the ones still reading
+			for ( int i = 0; i < results.size(); i++ ) {
+				if ( conns[i] == winner )
+					ret.putAll( results.get( i ) );
+			}
 		}
-		
+
 		private void handleError( Throwable e, String[] keys ) {
 		    // if we have an errorHandler, use its hook
 		    if ( errorHandler != null )
@@ -2269,14 +5133,20 @@ public class MemcachedClient {
 			if ( log.isDebugEnabled() )
 				log.debug( "handling selector op " + key.readyOps() + " for key " + key );
 			
-			if ( key.isReadable() )
-				readResponse( key );
-			else if ( key.isWritable() )
+			// while a long command is written the server may
+			// already answer, so both are handled as they come
+			if ( key.isWritable() )
 				writeRequest( key );
+			if ( key.isValid() && key.isReadable() )
+				readResponse( key );
 		}
 		
 		public void writeRequest( SelectionKey key ) throws IOException {
-			ByteBuffer buf = ((Connection) key.attachment()).outgoing;
+			Connection conn = (Connection)key.attachment();
+			if ( !conn.outgoing.hasRemaining() && conn.wantsWrite() )
+				conn.outgoing = conn.nextBatch();
+
+			ByteBuffer buf = conn.outgoing;
 			SocketChannel sc = (SocketChannel)key.channel();
 			
 			if ( buf.hasRemaining() ) {
@@ -2284,9 +5154,11 @@ public class MemcachedClient {
 				    log.debug( "writing " + buf.remaining() + "B to " + ((SocketChannel) key.channel()).socket().getInetAddress() );
 
 				sc.write( buf );
+				if ( !buf.hasRemaining() && conn.sentAt == 0 )
+					conn.sentAt = System.nanoTime();
 			}
 			
-			if ( !buf.hasRemaining() ) {
+			if ( !conn.wantsWrite() ) {
 			    if ( log.isDebugEnabled() )
 			        log.debug( "switching to read mode for server " + ((SocketChannel)key.channel()).socket().getInetAddress() );
 
@@ -2296,12 +5168,20 @@ public class MemcachedClient {
 		
 		public void readResponse( SelectionKey key ) throws IOException {
 			Connection conn = (Connection)key.attachment();
-			ByteBuffer buf = conn.getBuffer();
-			int count = conn.channel.read( buf );
+			int count = conn.read();
+			if ( count < 0 ) {
+				// not done, so the connection gets closed for real
+				log.error( "++++ connection closed by server in multi get: " + conn.sock.getHost() );
+				key.cancel();
+				numConns--;
+				return;
+			}
+
 			if ( count > 0 ) {
 				if ( log.isDebugEnabled() )
 					log.debug( "read  " + count + " from " + conn.channel.socket().getInetAddress() );
-				
+
+				conn.parse();
 				if ( conn.isDone() ) {
 					if ( log.isDebugEnabled() )
 						log.debug( "connection done to  " + conn.channel.socket().getInetAddress() );
@@ -2310,6 +5190,10 @@ public class MemcachedClient {
 					numConns--;
 					return;
 				}
+
+				// a batch was answered, so the next one may go out
+				if ( conn.wantsWrite() )
+					key.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
 			}
 		}
 	}
@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A group of keys which can be invalidated all at once.
+ *
+ * Every key of a namespace is stored under the namespace's name and<br/>
+ * current version, eg. "users:1718211000123:42".  The version is a<br/>
+ * counter in memcached, so invalidating the namespace is a single<br/>
+ * incr: the old keys are never asked for again and are left to be<br/>
+ * evicted.<br/>
+ *<br/>
+ * The version is cached for a short time (1 second by default) so<br/>
+ * namespaced calls cost no extra round trip.  The flip side is that<br/>
+ * other clients may keep using the old version for up to that long<br/>
+ * after an invalidation.
+ * <h3>To use a namespace:</h3>
+ * <pre>
+ *	Namespace users = mc.getNamespace( "users" );
+ *	users.set( "42", user );
+ *	Object user = users.get( "42" );
+ *
+ *	// drop all keys of the namespace
+ *	users.invalidate();
+ * </pre>
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+public final class Namespace {
+
+	// logger
+	private static Logger log =
+		Logger.getLogger( Namespace.class.getName() );
+
+	private static final long DEFAULT_VERSION_TTL = 1000;
+
+	private final MemcachedClient mc;
+	private final String name;
+	private final String versionKey;
+
+	// { version, time it is good until }, replaced as a whole
+	private volatile long[] cached;
+	private volatile long versionTTL = DEFAULT_VERSION_TTL;
+	private final AtomicBoolean refreshing = new AtomicBoolean( false );
+
+	Namespace( MemcachedClient mc, String name ) {
+		this.mc         = mc;
+		this.name       = name;
+		this.versionKey = "namespace:" + name;
+	}
+
+	/** 
+	 * Returns the name of the namespace.
+	 * 
+	 * @return name
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/** 
+	 * Sets how long the version is cached before checking it again.
+	 * 
+	 * @param versionTTL time in ms
+	 */
+	public void setVersionTTL( long versionTTL ) {
+		this.versionTTL = versionTTL;
+	}
+
+	/** 
+	 * Returns how long the version is cached before checking it again.
+	 * 
+	 * @return time in ms
+	 */
+	public long getVersionTTL() {
+		return this.versionTTL;
+	}
+
+	/** 
+	 * Returns the current version of the namespace.
+	 *
+	 * Once the cached version is due, one caller fetches it again<br/>
+	 * while the others go on with the one they have.
+	 * 
+	 * @return version, or -1 if it can not be read or created
+	 */
+	public long getVersion() {
+		long[] c = this.cached;
+		long now = System.currentTimeMillis();
+
+		if ( c != null && now < c[1] )
+			return c[0];
+
+		// one caller refreshes, the others go on with what they have
+		if ( c != null && !refreshing.compareAndSet( false, true ) )
+			return c[0];
+
+		try {
+			long version = mc.getCounter( versionKey );
+			if ( version < 0 )
+				version = create();
+
+			if ( version < 0 )
+				return ( c == null ) ? -1 : c[0];
+
+			this.cached = new long[] { version, now + versionTTL };
+			return version;
+		}
+		finally {
+			if ( c != null )
+				refreshing.set( false );
+		}
+	}
+
+	/** 
+	 * Invalidates all keys of the namespace by bumping its version.
+	 * 
+	 * @return the new version, or -1 on failure
+	 */
+	public long invalidate() {
+		long version = mc.incr( versionKey );
+
+		// the version was evicted, so any new one will do
+		if ( version < 0 )
+			version = create();
+
+		if ( version >= 0 )
+			this.cached = new long[] { version, System.currentTimeMillis() + versionTTL };
+
+		if ( log.isInfoEnabled() )
+			log.info( "++++ invalidated namespace: " + name + ", new version: " + version );
+
+		return version;
+	}
+
+	/** 
+	 * Returns the key a key of the namespace is stored under.
+	 *
+	 * Useful for calls the namespace does not offer itself.
+	 * 
+	 * @param key key within the namespace
+	 * @return full key, or null if the version is not available
+	 */
+	public String getKey( String key ) {
+		long version = getVersion();
+		if ( version < 0 || key == null )
+			return null;
+
+		return getKey( key, version );
+	}
+
+	/** 
+	 * Retrieve a key of the namespace.
+	 * 
+	 * @param key key within the namespace
+	 * @return the object stored, or null if not found
+	 */
+	public Object get( String key ) {
+		String k = getKey( key );
+		return ( k == null ) ? null : mc.get( k );
+	}
+
+	/** 
+	 * Retrieve multiple keys of the namespace.
+	 * 
+	 * @param keys keys within the namespace
+	 * @return a hashmap keyed by the keys as passed in
+	 */
+	public Map<String,Object> getMulti( String[] keys ) {
+		long version = getVersion();
+		if ( version < 0 || keys == null )
+			return null;
+
+		String[] full = new String[ keys.length ];
+		for ( int i = 0; i < keys.length; i++ )
+			full[i] = ( keys[i] == null ) ? null : getKey( keys[i], version );
+
+		Map<String,Object> values = mc.getMulti( full );
+		if ( values == null )
+			return null;
+
+		Map<String,Object> ret = new HashMap<String,Object>( keys.length );
+		for ( int i = 0; i < keys.length; i++ ) {
+			if ( keys[i] != null )
+				ret.put( keys[i], values.get( full[i] ) );
+		}
+		return ret;
+	}
+
+	/** 
+	 * Stores a key in the namespace.
+	 * 
+	 * @param key key within the namespace
+	 * @param value value to store
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean set( String key, Object value ) {
+		return set( key, value, null );
+	}
+
+	/** 
+	 * Stores a key in the namespace, with an expiration time.
+	 * 
+	 * @param key key within the namespace
+	 * @param value value to store
+	 * @param expiry when to expire the record
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean set( String key, Object value, Date expiry ) {
+		String k = getKey( key );
+		return k != null && mc.set( k, value, expiry );
+	}
+
+	/** 
+	 * Deletes a key from the namespace.
+	 * 
+	 * @param key key within the namespace
+	 * @return true, if the data was deleted successfully
+	 */
+	public boolean delete( String key ) {
+		String k = getKey( key );
+		return k != null && mc.delete( k );
+	}
+
+	private String getKey( String key, long version ) {
+		return new StringBuilder( name.length() + key.length() + 22 )
+			.append( name ).append( ':' ).append( version ).append( ':' ).append( key ).toString();
+	}
+
+	/** 
+	 * Creates the version counter if it is missing.
+	 *
+	 * New counters start from the clock rather than 0, so a counter<br/>
+	 * which was evicted never comes back with a version used before.
+	 * 
+	 * @return version, or -1 on failure
+	 */
+	private long create() {
+		long start = System.currentTimeMillis();
+		if ( mc.addCounter( versionKey, start ) )
+			return start;
+
+		// someone else was first
+		return mc.getCounter( versionKey );
+	}
+
+	public String toString() {
+		return "Namespace " + name;
+	}
+}
@@ -362,7 +362,7 @@ public class NativeHandler {
 	
 	// decode methods
 	protected static Byte decodeByte( byte[] b ) {
-		return new Byte( b[0] );
+		return Byte.valueOf( b[0] );
 	}
 	
 	protected static Boolean decodeBoolean( byte[] b ) {
@@ -371,15 +371,15 @@ public class NativeHandler {
 	}
 	
 	protected static Integer decodeInteger( byte[] b ) {
-		return new Integer( toInt( b ) );
+		return Integer.valueOf( toInt( b ) );
 	}
 	
 	protected static Long decodeLong( byte[] b ) throws Exception {
-		return new Long( toLong( b ) );
+		return Long.valueOf( toLong( b ) );
 	}
 	
 	protected static Character decodeCharacter( byte[] b ) {
-		return new Character( (char)decodeInteger( b ).intValue() );
+		return Character.valueOf( (char)toInt( b ) );
 	}
 	
 	protected static String decodeString( byte[] b ) throws Exception {
@@ -391,17 +391,15 @@ public class NativeHandler {
 	}
 	
 	protected static Float decodeFloat( byte[] b ) throws Exception {
-		Integer l = decodeInteger( b );
-		return new Float( Float.intBitsToFloat( l.intValue() ) );
+		return Float.valueOf( Float.intBitsToFloat( toInt( b ) ) );
 	}
 	
 	protected static Short decodeShort( byte[] b ) throws Exception {
-		return new Short( (short)decodeInteger( b ).intValue() );
+		return Short.valueOf( (short)toInt( b ) );
 	}
 	
 	protected static Double decodeDouble( byte[] b ) throws Exception {
-		Long l = decodeLong( b );
-		return new Double( Double.longBitsToDouble( l.longValue() ) );
+		return Double.valueOf( Double.longBitsToDouble( toLong( b ) ) );
 	}
 	
 	protected static Date decodeDate( byte[] b ) {
@@ -29,8 +29,8 @@ import java.util.ArrayList;
 import java.util.IdentityHashMap;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Date;
 import java.util.Arrays;
+import java.util.Random;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -39,7 +39,7 @@ import java.net.*;
 import java.io.*;
 import java.nio.*;
 import java.nio.channels.*;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.log4j.Logger;
 
 /** 
@@ -157,14 +157,22 @@ public class SockIOPool {
 
 	public static final long MAX_RETRY_DELAY = 10 * 60 * 1000;  // max of 10 minute delay for fall off
 
+	// adaptive sizing
+	private static final double DEMAND_SMOOTHING = 0.5;			// weight of the newest demand sample
+	private static final double DEMAND_HEADROOM  = 1.5;			// spare capacity over measured demand
+	private static final int RAMP_RUNS           = 2;			// maint runs to look ahead on a rising demand
+	private static final int SHRINK_RUNS         = 3;			// maint runs demand must stay low before shrinking
+
 	// Pool data
 	private MaintThread maintThread;
+	private ConnectThread connectThread;
 	private boolean initialized        = false;
 	private int maxCreate              = 1;					// this will be initialized by pool when the pool is initialized
 
 	// initial, min and max pool sizes
 	private int poolMultiplier        = 3;
 	private int initConn              = 10;
+	private int initReadyConn         = -1;					// initial connections per server to wait for (-1 means all)
 	private int minConn               = 5;
 	private int maxConn               = 100;
 	private long maxIdle              = 1000 * 60 * 5;		// max idle time for avail sockets
@@ -176,10 +184,17 @@ public class SockIOPool {
 	private boolean failover          = true;				// default to failover in event of cache server dead
 	private boolean failback          = true;				// only used if failover is also set ... controls putting a dead server back into rotation
 	private boolean nagle             = false;				// enable/disable Nagle's algorithm
+	private boolean adaptive          = false;				// size avail pools from observed demand
 	private int hashingAlg 		      = NATIVE_HASH;		// default to using the native hash as it is the fastest
+	private int replicas              = 1;					// number of servers a replicated key lives on
+	private String[] replicatedKeys;						// key prefixes which get replicated
+	private double breakerFailureRate = 0.5;				// fraction of failed/slow calls which opens a breaker
+	private int breakerMinCalls       = 20;					// calls in a window before a breaker may open
+	private long breakerWindow        = 1000 * 10;			// window over which calls are counted
+	private long breakerSlowCall      = 1000;				// calls answered slower than this count as failed (0 = off)
 
-	// locks
-	private final ReentrantLock hostDeadLock = new ReentrantLock();
+	// used to spread reads across replicas
+	private final Random random = new Random();
 
 	// list of all servers
 	private String[] servers;
@@ -189,9 +204,8 @@ public class SockIOPool {
 	private List<String> buckets;
 	private TreeMap<Long,String> consistentBuckets;
 
-	// dead server map
-	private Map<String,Date> hostDead;
-	private Map<String,Long> hostDeadDur;
+	// circuit breaker per server
+	private ConcurrentHashMap<String,CircuitBreaker> breakers;
 	
 	// map to hold all available sockets
 	// map to hold busy sockets
@@ -199,6 +213,9 @@ public class SockIOPool {
 	private Map<String,Map<SockIO,Long>> availPool;
 	private Map<String,Map<SockIO,Long>> busyPool;
 	private Map<SockIO,Integer> deadPool;
+
+	// observed demand per host (adaptive sizing only)
+	private Map<String,HostLoad> hostLoad;
 	
 	// empty constructor
 	protected SockIOPool() { }
@@ -275,6 +292,26 @@ public class SockIOPool {
 	 */
 	public int getInitConn() { return this.initConn; }
 
+	/** 
+	 * Sets how many of the initial connections per server must be
+	 * connected before initialize() returns.
+	 *
+	 * All initial connections are opened in parallel.  Once every<br/>
+	 * server has this many connected (or has failed), initialize()<br/>
+	 * returns and the rest are finished in the background.<br/>
+	 * Defaults to waiting for all initial connections.
+	 * 
+	 * @param initReadyConn number of connections (-1 for all)
+	 */
+	public void setInitReadyConn( int initReadyConn ) { this.initReadyConn = initReadyConn; }
+
+	/** 
+	 * Returns how many initial connections per server initialize() waits for. 
+	 * 
+	 * @return number of connections (-1 for all)
+	 */
+	public int getInitReadyConn() { return this.initReadyConn; }
+
 	/** 
 	 * Sets the minimum number of spare connections to maintain in our available pool. 
 	 * 
@@ -411,6 +448,78 @@ public class SockIOPool {
 	 */
 	public boolean getFailback() { return this.failback; }
 
+	/** 
+	 * Sets the fraction of failed or slow calls to a server
+	 * which opens its circuit breaker.
+	 *
+	 * While a server's breaker is open no sockets are handed out<br/>
+	 * for it.  After a retry delay (doubling up to MAX_RETRY_DELAY)<br/>
+	 * one trial call is let through, which closes the breaker if it<br/>
+	 * succeeds.  Breakers only keep servers out of rotation if<br/>
+	 * failover and failback are both enabled.
+	 *
+	 * @param breakerFailureRate fraction between 0 and 1 (default 0.5)
+	 */
+	public void setBreakerFailureRate( double breakerFailureRate ) { this.breakerFailureRate = breakerFailureRate; }
+
+	/** 
+	 * Returns the fraction of failed calls which opens a breaker.
+	 * 
+	 * @return fraction between 0 and 1
+	 */
+	public double getBreakerFailureRate() { return this.breakerFailureRate; }
+
+	/** 
+	 * Sets the number of calls in a window required before
+	 * a server's breaker may open on its failure rate.
+	 *
+	 * @param breakerMinCalls number of calls (default 20)
+	 */
+	public void setBreakerMinCalls( int breakerMinCalls ) { this.breakerMinCalls = breakerMinCalls; }
+
+	/** 
+	 * Returns the number of calls required before a breaker may open.
+	 * 
+	 * @return number of calls
+	 */
+	public int getBreakerMinCalls() { return this.breakerMinCalls; }
+
+	/** 
+	 * Sets the length of the window over which calls to
+	 * a server are counted.
+	 *
+	 * @param breakerWindow window in ms (default 10 seconds)
+	 */
+	public void setBreakerWindow( long breakerWindow ) { this.breakerWindow = breakerWindow; }
+
+	/** 
+	 * Returns the length of the window over which calls are counted.
+	 * 
+	 * @return window in ms
+	 */
+	public long getBreakerWindow() { return this.breakerWindow; }
+
+	/** 
+	 * Sets the time after which a call counts as failed
+	 * for the breaker even if it completed.
+	 *
+	 * This lets a server which accepts connections but answers<br/>
+	 * slowly be taken out of rotation before every call burns<br/>
+	 * the full socket timeout.  What counts is the time the server<br/>
+	 * takes to answer a request, not how long the caller holds the<br/>
+	 * socket, so slow readers of large values are not blamed on it.
+	 *
+	 * @param breakerSlowCall time for the server to answer in ms, 0 to disable (default 1 second)
+	 */
+	public void setBreakerSlowCall( long breakerSlowCall ) { this.breakerSlowCall = breakerSlowCall; }
+
+	/** 
+	 * Returns the time after which a call counts as failed.
+	 * 
+	 * @return time in ms
+	 */
+	public long getBreakerSlowCall() { return this.breakerSlowCall; }
+
 	/**
 	 * Sets the aliveCheck flag for the pool.
 	 *
@@ -448,6 +557,28 @@ public class SockIOPool {
 	 */
 	public boolean getNagle() { return this.nagle; }
 
+	/** 
+	 * Enables/disables adaptive sizing of the available pools.
+	 *
+	 * When enabled, the maint thread measures for each server how<br/>
+	 * many sockets are in use on average (checkout rate times hold<br/>
+	 * time, ie. Little's law) and keeps that many spare sockets plus<br/>
+	 * headroom, bounded by minConn and maxConn.  A rising demand is<br/>
+	 * projected ahead so sockets are created before the peak, while<br/>
+	 * spare sockets are only closed once demand has stayed low for<br/>
+	 * several maint runs.
+	 * 
+	 * @param adaptive true/false
+	 */
+	public void setAdaptive( boolean adaptive ) { this.adaptive = adaptive; }
+
+	/** 
+	 * Returns current status of adaptive sizing flag
+	 * 
+	 * @return true/false
+	 */
+	public boolean getAdaptive() { return this.adaptive; }
+
 	/** 
 	 * Sets the hashing algorithm we will use.
 	 *
@@ -468,6 +599,61 @@ public class SockIOPool {
 	 */
 	public int getHashingAlg() { return this.hashingAlg; }
 
+	/** 
+	 * Sets the number of servers a replicated key is stored on.
+	 *
+	 * Writes for a replicated key go to every replica, reads are<br/>
+	 * spread randomly across them.  Replicas are the next distinct<br/>
+	 * servers on the continuum (or in the bucket list when not using<br/>
+	 * consistent hashing) following the server owning the key.
+	 * 
+	 * @param replicas number of servers (1 disables replication)
+	 */
+	public void setReplicas( int replicas ) { this.replicas = replicas; }
+
+	/** 
+	 * Returns the number of servers a replicated key is stored on.
+	 * 
+	 * @return number of servers
+	 */
+	public int getReplicas() { return this.replicas; }
+
+	/** 
+	 * Sets the keys which get replicated.
+	 *
+	 * Each entry is a prefix matched against the key as passed<br/>
+	 * to the client (before sanitizing), so a full key selects just<br/>
+	 * that key and an empty String selects every key.
+	 * 
+	 * @param replicatedKeys String array of key prefixes
+	 */
+	public void setReplicatedKeys( String[] replicatedKeys ) { this.replicatedKeys = replicatedKeys; }
+
+	/** 
+	 * Returns the key prefixes which get replicated.
+	 * 
+	 * @return String array of key prefixes
+	 */
+	public String[] getReplicatedKeys() { return this.replicatedKeys; }
+
+	/** 
+	 * Checks to see if a key should be stored on more than one server. 
+	 * 
+	 * @param key key as passed to the client
+	 * @return true if the key is replicated
+	 */
+	public boolean isReplicated( String key ) {
+		if ( replicas <= 1 || replicatedKeys == null || key == null )
+			return false;
+
+		for ( int i = 0; i < replicatedKeys.length; i++ ) {
+			if ( replicatedKeys[i] != null && key.startsWith( replicatedKeys[i] ) )
+				return true;
+		}
+
+		return false;
+	}
+
 	/** 
 	 * Internal private hashing method.
 	 *
@@ -500,8 +686,12 @@ public class SockIOPool {
 	 * @return 
 	 */
 	private static long newCompatHashingAlg( String key ) {
+		return newCompatHashingAlg( key.getBytes() );
+	}
+
+	private static long newCompatHashingAlg( byte[] key ) {
 		CRC32 checksum = new CRC32();
-		checksum.update( key.getBytes() );
+		checksum.update( key );
 		long crc = checksum.getValue();
 		return (crc >> 16) & 0x7fff;
 	}
@@ -516,9 +706,13 @@ public class SockIOPool {
 	 * @return 
 	 */
 	private static long md5HashingAlg( String key ) {
+		return md5HashingAlg( key.getBytes() );
+	}
+
+	private static long md5HashingAlg( byte[] key ) {
 		MessageDigest md5 = MD5.get();
 		md5.reset();
-		md5.update( key.getBytes() );
+		md5.update( key );
 		byte[] bKey = md5.digest();
 		long res = ((long)(bKey[3]&0xFF) << 24) | ((long)(bKey[2]&0xFF) << 16) | ((long)(bKey[1]&0xFF) << 8) | (long)(bKey[0]&0xFF);
 		return res;
@@ -556,9 +750,44 @@ public class SockIOPool {
 		}
 	}
 
+	/** 
+	 * Returns the hash for a pre-encoded key, computing it from
+	 * the key's bytes only the first time.
+	 * 
+	 * @param key encoded cache key
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @return hash
+	 */
+	private long getHash( CacheKey key, Integer hashCode ) {
+		if ( hashCode != null )
+			return getHash( key.getWireKey(), hashCode );
+
+		int alg     = this.hashingAlg;
+		Long cached = key.getHash( alg );
+		if ( cached != null )
+			return cached;
+
+		long hc;
+		switch ( alg ) {
+			case NEW_COMPAT_HASH:
+				hc = newCompatHashingAlg( key.getBytes() );
+				break;
+			case CONSISTENT_HASH:
+				hc = md5HashingAlg( key.getBytes() );
+				break;
+			default:
+				hc = getHash( key.getWireKey(), null );
+		}
+
+		key.setHash( alg, hc );
+		return hc;
+	}
+
 	private long getBucket( String key, Integer hashCode ) {
-		long hc = getHash( key, hashCode );
+		return getBucket( getHash( key, hashCode ) );
+	}
 
+	private long getBucket( long hc ) {
 		if ( this.hashingAlg == CONSISTENT_HASH ) {
 			return findPointFor( hc );
 		}
@@ -606,9 +835,9 @@ public class SockIOPool {
 			availPool   = new HashMap<String,Map<SockIO,Long>>( servers.length * initConn );
 			busyPool    = new HashMap<String,Map<SockIO,Long>>( servers.length * initConn );
 			deadPool    = new IdentityHashMap<SockIO,Integer>();
+			hostLoad    = new HashMap<String,HostLoad>();
 
-			hostDeadDur = new HashMap<String,Long>();
-			hostDead    = new HashMap<String,Date>();
+			breakers    = new ConcurrentHashMap<String,CircuitBreaker>();
 			maxCreate   = (poolMultiplier > minConn) ? minConn : minConn / poolMultiplier;		// only create up to maxCreate connections at once
 
 			if ( log.isDebugEnabled() ) {
@@ -631,6 +860,9 @@ public class SockIOPool {
 			else
 				populateBuckets();
 
+			// connect to all servers at once
+			createInitialConnections();
+
 			// mark pool as initialized
 			this.initialized = true;
 
@@ -660,22 +892,6 @@ public class SockIOPool {
 				if ( log.isDebugEnabled() )
 					log.debug( "++++ added " + servers[i] + " to server bucket" );
 			}
-
-			// create initial connections
-			if ( log.isDebugEnabled() )
-				log.debug( "+++ creating initial connections (" + initConn + ") for host: " + servers[i] );
-
-			for ( int j = 0; j < initConn; j++ ) {
-				SockIO socket = createSocket( servers[i] );
-				if ( socket == null ) {
-					log.error( "++++ failed to create connection to: " + servers[i] + " -- only " + j + " created." );
-					break;
-				}
-
-				addSocketToPool( availPool, servers[i], socket );
-				if ( log.isDebugEnabled() )
-					log.debug( "++++ created and added socket: " + socket.toString() + " for host " + servers[i] );
-			}
 		}
 	}
 
@@ -716,22 +932,286 @@ public class SockIOPool {
 						log.debug( "++++ added " + servers[i] + " to server bucket" );
 				}				
 			}
+		}
+	}
 
-			// create initial connections
-			if ( log.isDebugEnabled() )
-				log.debug( "+++ creating initial connections (" + initConn + ") for host: " + servers[i] );
+	/** 
+	 * Opens the initial connections to all servers in parallel.
+	 *
+	 * Every connect is started non-blocking up front and finished<br/>
+	 * as the selector reports it, so startup takes about as long as<br/>
+	 * the slowest single connect rather than the sum of all of them.<br/>
+	 * Returns once each server has initReadyConn connections (or all<br/>
+	 * of its connects have failed); any connects still pending then<br/>
+	 * are finished by a background thread.
+	 */
+	private void createInitialConnections() {
+
+		int ready = ( initReadyConn < 0 || initReadyConn > initConn ) ? initConn : initReadyConn;
+		if ( initConn <= 0 )
+			return;
+
+		if ( log.isDebugEnabled() )
+			log.debug( "+++ creating initial connections (" + initConn + ") for " + servers.length + " hosts, waiting for " + ready );
+
+		Selector selector;
+		try {
+			selector = Selector.open();
+		}
+		catch ( IOException e ) {
+			log.error( "++++ failed to open selector for initial connections", e );
+			return;
+		}
+
+		PendingConnects pending = new PendingConnects( selector, ready );
+
+		for ( int i = 0; i < servers.length; i++ ) {
+			String host = servers[i];
+			if ( pending.hosts.containsKey( host ) )
+				continue;
+
+			InetSocketAddress addr;
+			try {
+				String[] ip = host.split( ":" );
+				addr = new InetSocketAddress( ip[0], Integer.parseInt( ip[1] ) );
+			}
+			catch ( Exception e ) {
+				log.error( "++++ invalid server: " + host, e );
+				markHostDead( host );
+				continue;
+			}
 
+			if ( addr.isUnresolved() ) {
+				log.error( "++++ unknown host: " + host );
+				markHostDead( host );
+				continue;
+			}
+
+			// every connect counts as outstanding until it has
+			// connected or failed, even if it never got started
+			pending.hosts.put( host, new int[] { 0, initConn } );
 			for ( int j = 0; j < initConn; j++ ) {
-				SockIO socket = createSocket( servers[i] );
-				if ( socket == null ) {
-					log.error( "++++ failed to create connection to: " + servers[i] + " -- only " + j + " created." );
-					break;
+				SocketChannel channel = null;
+				try {
+					channel = SocketChannel.open();
+					channel.configureBlocking( false );
+
+					if ( channel.connect( addr ) )
+						pending.connected( host, channel );
+					else
+						channel.register( selector, SelectionKey.OP_CONNECT, host );
+				}
+				catch ( IOException e ) {
+					log.error( "++++ failed to start connection to: " + host + " -- " + e.getMessage() );
+					pending.failed( host, channel );
 				}
+				catch ( RuntimeException e ) {
+					log.error( "++++ failed to start connection to: " + host, e );
+					pending.failed( host, channel );
+				}
+			}
+		}
 
-				addSocketToPool( availPool, servers[i], socket );
-				if ( log.isDebugEnabled() )
-					log.debug( "++++ created and added socket: " + socket.toString() + " for host " + servers[i] );
+		long start = System.currentTimeMillis();
+		while ( !pending.isReady() && pending.finish( ( socketConnectTO > 0 ) ? socketConnectTO - (System.currentTimeMillis() - start) : 0 ) ) { }
+
+		if ( pending.isDone() ) {
+			pending.close();
+			return;
+		}
+
+		// pool is usable now, let the stragglers finish on their own
+		if ( log.isDebugEnabled() )
+			log.debug( "++++ initial connections ready, finishing the rest in the background" );
+
+		connectThread = new ConnectThread( pending, ( socketConnectTO > 0 ) ? start + socketConnectTO : 0 );
+		connectThread.start();
+	}
+
+	/** 
+	 * Book keeping for the initial non-blocking connects.
+	 */
+	private final class PendingConnects {
+
+		private final Selector selector;
+		private final int ready;
+
+		// host -> { connected, outstanding }
+		private final Map<String,int[]> hosts = new HashMap<String,int[]>();
+
+		private PendingConnects( Selector selector, int ready ) {
+			this.selector = selector;
+			this.ready    = ready;
+		}
+
+		/** 
+		 * Waits for connects to complete and handles them.
+		 * 
+		 * @param timeout ms to wait, 0 to wait without timeout
+		 * @return false when there is nothing left to wait on or time is up
+		 */
+		private boolean finish( long timeout ) {
+			if ( isDone() || timeout < 0 || ( timeout == 0 && socketConnectTO > 0 ) )
+				return false;
+
+			List<SelectionKey> done = new ArrayList<SelectionKey>();
+			try {
+				selector.select( timeout );
+
+				for ( Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext(); ) {
+					SelectionKey key = i.next();
+					i.remove();
+
+					String host = (String)key.attachment();
+					SocketChannel channel = (SocketChannel)key.channel();
+					try {
+						if ( channel.finishConnect() ) {
+							key.cancel();
+							done.add( key );
+						}
+					}
+					catch ( IOException e ) {
+						log.error( "++++ failed to create connection to: " + host + " -- " + e.getMessage() );
+						key.cancel();
+						failed( host, channel );
+					}
+				}
+
+				// cancelled keys have to be flushed out of the
+				// selector before the channels can go back to blocking
+				if ( !done.isEmpty() )
+					selector.selectNow();
+			}
+			catch ( IOException e ) {
+				log.error( "++++ failed waiting on initial connections", e );
+				return false;
+			}
+			catch ( ClosedSelectorException e ) {
+				return false;
+			}
+
+			for ( SelectionKey key : done ) {
+				String host = (String)key.attachment();
+				try {
+					connected( host, (SocketChannel)key.channel() );
+				}
+				catch ( IOException e ) {
+					log.error( "++++ failed to set up connection to: " + host + " -- " + e.getMessage() );
+					failed( host, (SocketChannel)key.channel() );
+				}
+			}
+
+			return true;
+		}
+
+		private void connected( String host, SocketChannel channel ) throws IOException {
+			SockIO socket = new SockIO( SockIOPool.this, host, channel, socketTO, nagle );
+
+			int[] counts = hosts.get( host );
+			counts[1]--;
+
+			synchronized( SockIOPool.this ) {
+				if ( availPool == null ) {
+					try { socket.trueClose( false ); } catch ( IOException ignoreMe ) { }
+					return;
+				}
+				addSocketToPool( availPool, host, socket );
+			}
+
+			counts[0]++;
+
+			if ( log.isDebugEnabled() )
+				log.debug( "++++ created and added socket: " + socket.toString() + " for host " + host );
+		}
+
+		private void failed( String host, SocketChannel channel ) {
+			int[] counts = hosts.get( host );
+			counts[1]--;
+
+			if ( channel != null ) {
+				try { channel.close(); } catch ( IOException ignoreMe ) { }
+			}
+
+			// nothing got through to this host
+			if ( counts[0] == 0 && counts[1] == 0 ) {
+				log.error( "++++ failed to create any initial connection to: " + host );
+				markHostDead( host );
+			}
+		}
+
+		/** 
+		 * @return true if every host has enough connections or no connects left
+		 */
+		private boolean isReady() {
+			for ( int[] counts : hosts.values() ) {
+				if ( counts[0] < ready && counts[1] > 0 )
+					return false;
+			}
+			return true;
+		}
+
+		/** 
+		 * @return true if no connects are outstanding
+		 */
+		private boolean isDone() {
+			for ( int[] counts : hosts.values() ) {
+				if ( counts[1] > 0 )
+					return false;
+			}
+			return true;
+		}
+
+		/** 
+		 * Gives up on all outstanding connects.
+		 */
+		private void close() {
+			for ( SelectionKey key : selector.keys() ) {
+				try { key.channel().close(); } catch ( IOException ignoreMe ) { }
 			}
+
+			for ( Map.Entry<String,int[]> e : hosts.entrySet() ) {
+				int[] counts = e.getValue();
+				if ( counts[1] > 0 && log.isDebugEnabled() )
+					log.debug( "++++ gave up on " + counts[1] + " initial connections to: " + e.getKey() );
+
+				if ( counts[0] == 0 && counts[1] > 0 ) {
+					log.error( "++++ failed to create any initial connection to: " + e.getKey() );
+					markHostDead( e.getKey() );
+				}
+				counts[1] = 0;
+			}
+
+			try { selector.close(); } catch ( IOException ignoreMe ) { }
+		}
+	}
+
+	/** 
+	 * Finishes the initial connects left over when initialize() returns.
+	 */
+	private final class ConnectThread extends Thread {
+
+		private final PendingConnects pending;
+		private final long deadline;
+		private volatile boolean stopThread = false;
+
+		private ConnectThread( PendingConnects pending, long deadline ) {
+			this.pending  = pending;
+			this.deadline = deadline;
+			this.setDaemon( true );
+			this.setName( "ConnectThread" );
+		}
+
+		public void run() {
+			while ( !stopThread && pending.finish( ( deadline > 0 ) ? deadline - System.currentTimeMillis() : 0 ) ) { }
+
+			synchronized( SockIOPool.this ) {
+				pending.close();
+			}
+		}
+
+		private void stopThread() {
+			this.stopThread = true;
+			pending.selector.wakeup();
 		}
 	}
 
@@ -755,29 +1235,23 @@ public class SockIOPool {
 	 * @return SockIO obj or null if failed to create
 	 */
 	protected SockIO createSocket( String host ) {
+		return createSocket( host, this.socketConnectTO );
+	}
 
-		SockIO socket = null;
-
-		// if host is dead, then we don't need to try again
-		// until the dead status has expired
-		// we do not try to put back in if failback is off
-		hostDeadLock.lock();
-		try {
-			if ( failover && failback && hostDead.containsKey( host ) && hostDeadDur.containsKey( host ) ) {
-
-				Date store  = hostDead.get( host );
-				long expire = hostDeadDur.get( host ).longValue();
+	/** 
+	 * Creates a new SockIO obj for the given server, bounding the
+	 * connect by the passed in timeout.
+	 * 
+	 * @param host host:port to connect to
+	 * @param connectTimeout timeout (in ms) for the connect
+	 * @return SockIO obj or null if failed to create
+	 */
+	protected SockIO createSocket( String host, int connectTimeout ) {
 
-				if ( (store.getTime() + expire) > System.currentTimeMillis() )
-					return null;
-			}
-		}
-		finally {
-			hostDeadLock.unlock();
-		}
+		SockIO socket = null;
 
 		try {
-			socket = new SockIO( this, host, this.socketTO, this.socketConnectTO, this.nagle );
+			socket = new SockIO( this, host, this.socketTO, connectTimeout, this.nagle );
 
 			if ( !socket.isConnected() ) {
 				log.error( "++++ failed to get SockIO obj for: " + host + " -- new socket is not connected" );
@@ -793,41 +1267,119 @@ public class SockIOPool {
 
 		// if we failed to get socket, then mark
 		// host dead for a duration which falls off
-		hostDeadLock.lock();
-		try {
-			if ( socket == null ) {
-				Date now = new Date();
-				hostDead.put( host, now );
+		if ( socket == null ) {
+			markHostDead( host );
+		}
+		else {
+			if ( log.isDebugEnabled() )
+				log.debug( "++++ created socket (" + socket.toString() + ") for host: " + host );
+		}
+
+		return socket;
+	}
+
+	/** 
+	 * Opens the breaker for a host we could not connect to,
+	 * for a duration which doubles on each consecutive failure
+	 * (up to MAX_RETRY_DELAY).
+	 * 
+	 * @param host host:port which failed
+	 */
+	private void markHostDead( String host ) {
+		CircuitBreaker breaker = getBreaker( host );
+		if ( breaker == null )
+			return;
+
+		long expire = breaker.trip( MAX_RETRY_DELAY );
+		if ( log.isDebugEnabled() )
+			log.debug( "++++ ignoring dead host: " + host + " for " + expire + " ms" );
 
-				long expire = ( hostDeadDur.containsKey( host ) ) ? (((Long)hostDeadDur.get( host )).longValue() * 2) : 1000;
+		// also clear all entries for this host from availPool
+		synchronized( this ) {
+			if ( availPool != null )
+				clearHostFromPool( availPool, host );
+		}
+	}
 
-				if ( expire > MAX_RETRY_DELAY )
-					expire = MAX_RETRY_DELAY;
+	/** 
+	 * Returns the breaker for a host, creating it if needed.
+	 * 
+	 * @param host host:port
+	 * @return breaker or null if the pool is shut down
+	 */
+	private CircuitBreaker getBreaker( String host ) {
+		ConcurrentHashMap<String,CircuitBreaker> breakers = this.breakers;
+		if ( breakers == null )
+			return null;
+
+		CircuitBreaker breaker = breakers.get( host );
+		if ( breaker == null ) {
+			breaker = new CircuitBreaker( host );
+			CircuitBreaker prev = breakers.putIfAbsent( host, breaker );
+			if ( prev != null )
+				breaker = prev;
+		}
+
+		return breaker;
+	}
+
+	/** 
+	 * Feeds the outcome of one checkout to the host's breaker.
+	 * 
+	 * @param host host:port the socket belongs to
+	 * @param success true if the socket is being returned healthy
+	 * @param latency slowest time (in ms) the server took to answer, or -1 if unknown
+	 */
+	private void recordCall( String host, boolean success, long latency ) {
+		CircuitBreaker breaker = getBreaker( host );
+		if ( breaker == null )
+			return;
 
-				hostDeadDur.put( host, new Long( expire ) );
-				if ( log.isDebugEnabled() )
-					log.debug( "++++ ignoring dead host: " + host + " for " + expire + " ms" );
+		boolean slow = breakerSlowCall > 0 && latency > breakerSlowCall;
+		if ( breaker.record( success, slow, breakerFailureRate, breakerMinCalls, breakerWindow, MAX_RETRY_DELAY ) ) {
+			log.error( "++++ too many failed or slow calls, taking host out of rotation: " + host );
 
-				// also clear all entries for this host from availPool
-				clearHostFromPool( availPool, host );
-			}
-			else {
-				if ( log.isDebugEnabled() )
-					log.debug( "++++ created socket (" + socket.toString() + ") for host: " + host );
-				if ( hostDead.containsKey( host ) || hostDeadDur.containsKey( host ) ) {
-					hostDead.remove( host );
-					hostDeadDur.remove( host );
-				}
+			synchronized( this ) {
+				if ( availPool != null )
+					clearHostFromPool( availPool, host );
 			}
 		}
-		finally {
-			hostDeadLock.unlock();
-		}
+	}
 
-		return socket;
+	/** 
+	 * Checks to see if a host's breaker lets calls through.
+	 * 
+	 * @param host host:port
+	 * @return true if sockets may be handed out for the host
+	 */
+	private boolean isHostAvailable( String host ) {
+		return isHostAvailable( host, true );
+	}
+
+	/** 
+	 * Checks to see if a host is in rotation, without using up
+	 * the trial call of a half-open breaker.
+	 * 
+	 * @param host host:port
+	 * @return true if the host's breaker is closed
+	 */
+	public boolean isHostInRotation( String host ) {
+		return isHostAvailable( host, false );
+	}
+
+	private boolean isHostAvailable( String host, boolean allowTrial ) {
+		// we do not try to put back in if failback is off
+		if ( !failover || !failback )
+			return true;
+
+		CircuitBreaker breaker = getBreaker( host );
+		if ( breaker == null )
+			return true;
+
+		return ( allowTrial ) ? breaker.allowRequest() : breaker.getState() == CircuitBreaker.CLOSED;
 	}
 
- 	/** 
+	/** 
 	 * @param key 
 	 * @return 
 	 */
@@ -872,6 +1424,52 @@ public class SockIOPool {
 	 * @return SockIO obj connected to server
 	 */
 	public SockIO getSock( String key, Integer hashCode ) {
+		return getSock( key, hashCode, this.socketConnectTO );
+	}
+
+	/** 
+	 * Returns appropriate SockIO object given string cache key,
+	 * optional hashcode and a timeout for connecting new sockets.
+	 *
+	 * Used to bound the checkout by a per call deadline.  Sockets<br/>
+	 * already in the pool are handed out as usual.
+	 * 
+	 * @param key hashcode for cache key
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @param connectTimeout timeout (in ms) when a new socket has to be connected
+	 * @return SockIO obj connected to server
+	 */
+	public SockIO getSock( String key, Integer hashCode, int connectTimeout ) {
+		return getSock( key, null, hashCode, connectTimeout );
+	}
+
+	/** 
+	 * Returns appropriate SockIO object given a pre-encoded cache key.
+	 *
+	 * The key's hash is computed once and reused by later calls.
+	 * 
+	 * @param key encoded cache key
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @return SockIO obj connected to server
+	 */
+	public SockIO getSock( CacheKey key, Integer hashCode ) {
+		return getSock( key, hashCode, this.socketConnectTO );
+	}
+
+	/** 
+	 * Returns appropriate SockIO object given a pre-encoded cache key,
+	 * optional hashcode and a timeout for connecting new sockets.
+	 * 
+	 * @param key encoded cache key
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @param connectTimeout timeout (in ms) when a new socket has to be connected
+	 * @return SockIO obj connected to server
+	 */
+	public SockIO getSock( CacheKey key, Integer hashCode, int connectTimeout ) {
+		return getSock( key.getWireKey(), key, hashCode, connectTimeout );
+	}
+
+	private SockIO getSock( String key, CacheKey cacheKey, Integer hashCode, int connectTimeout ) {
 
 		if ( log.isDebugEnabled() )
 			log.debug( "cache socket pick " + key + " " + hashCode );
@@ -891,8 +1489,8 @@ public class SockIOPool {
 				|| ( buckets != null && buckets.size() == 1 ) ) {
 
 			SockIO sock = ( this.hashingAlg == CONSISTENT_HASH )
-				? getConnection( consistentBuckets.get( consistentBuckets.firstKey() ) )
-				: getConnection( buckets.get( 0 ) );
+				? getConnection( consistentBuckets.get( consistentBuckets.firstKey() ), connectTimeout )
+				: getConnection( buckets.get( 0 ), connectTimeout );
 
 			if ( sock != null && sock.isConnected() ) {
 				if ( aliveCheck ) { 
@@ -919,7 +1517,9 @@ public class SockIOPool {
 		Set<String> tryServers = new HashSet<String>( Arrays.asList( servers ) );
 
 		// get initial bucket
-		long bucket = getBucket( key, hashCode );
+		long bucket = ( cacheKey == null )
+			? getBucket( key, hashCode )
+			: getBucket( getHash( cacheKey, hashCode ) );
 		String server = ( this.hashingAlg == CONSISTENT_HASH )
 			? consistentBuckets.get( bucket )
 			: buckets.get( (int)bucket );
@@ -927,7 +1527,7 @@ public class SockIOPool {
 		while ( !tryServers.isEmpty() ) {
 
 			// try to get socket from bucket
-			SockIO sock = getConnection( server );
+			SockIO sock = getConnection( server, connectTimeout );
 
 			if ( log.isDebugEnabled() )
 				log.debug( "cache choose " + server + " for " + key );
@@ -986,6 +1586,114 @@ public class SockIOPool {
 		return null;
 	}
 
+	/** 
+	 * Returns the servers a replicated key is stored on.
+	 *
+	 * The first entry is the server the key hashes to, the others<br/>
+	 * are the following distinct servers.  Dead servers are not<br/>
+	 * skipped, so the replica set is stable while hosts come and go.
+	 * 
+	 * @param key sanitized cache key
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @return list of hosts (host:port), empty if pool not initialized
+	 */
+	public List<String> getReplicaHosts( String key, Integer hashCode ) {
+
+		List<String> hosts = new ArrayList<String>( replicas );
+
+		if ( !this.initialized ) {
+			log.error( "attempting to get replicas from uninitialized pool!" );
+			return hosts;
+		}
+
+		if ( this.hashingAlg == CONSISTENT_HASH ) {
+			if ( consistentBuckets.isEmpty() )
+				return hosts;
+
+			// walk the continuum clockwise from the key's point
+			Long point = findPointFor( getHash( key, hashCode ) );
+			for ( String server : consistentBuckets.tailMap( point ).values() ) {
+				if ( hosts.size() >= replicas )
+					return hosts;
+				if ( !hosts.contains( server ) )
+					hosts.add( server );
+			}
+
+			for ( String server : consistentBuckets.headMap( point ).values() ) {
+				if ( hosts.size() >= replicas )
+					return hosts;
+				if ( !hosts.contains( server ) )
+					hosts.add( server );
+			}
+		}
+		else {
+			if ( buckets.isEmpty() )
+				return hosts;
+
+			int bucket = (int)getBucket( key, hashCode );
+			for ( int i = 0; i < buckets.size() && hosts.size() < replicas; i++ ) {
+				String server = buckets.get( ( bucket + i ) % buckets.size() );
+				if ( !hosts.contains( server ) )
+					hosts.add( server );
+			}
+		}
+
+		return hosts;
+	}
+
+	/** 
+	 * Returns a SockIO object for reading a replicated key.
+	 *
+	 * Picks one of the replica servers at random, trying the<br/>
+	 * others in turn if it is down.  If none of them can be<br/>
+	 * reached, falls back to the normal failover in getSock.
+	 * 
+	 * @param key sanitized cache key
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @return SockIO obj connected to server
+	 */
+	public SockIO getReplicaSock( String key, Integer hashCode ) {
+		return getReplicaSock( key, hashCode, this.socketConnectTO );
+	}
+
+	/** 
+	 * Returns a SockIO object for reading a replicated key, using
+	 * the passed in timeout when a new socket has to be connected.
+	 * 
+	 * @param key sanitized cache key
+	 * @param hashCode if not null, then the int hashcode to use
+	 * @param connectTimeout timeout (in ms) when a new socket has to be connected
+	 * @return SockIO obj connected to server
+	 */
+	public SockIO getReplicaSock( String key, Integer hashCode, int connectTimeout ) {
+
+		List<String> hosts = getReplicaHosts( key, hashCode );
+		if ( hosts.size() <= 1 )
+			return getSock( key, hashCode, connectTimeout );
+
+		int start = random.nextInt( hosts.size() );
+		for ( int i = 0; i < hosts.size(); i++ ) {
+			String host = hosts.get( ( start + i ) % hosts.size() );
+			SockIO sock = getConnection( host, connectTimeout );
+
+			if ( log.isDebugEnabled() )
+				log.debug( "cache choose replica " + host + " for " + key );
+
+			if ( sock != null && sock.isConnected() ) {
+				if ( !aliveCheck || sock.isAlive() )
+					return sock;
+
+				sock.close();
+				try { sock.trueClose(); } catch ( IOException ioe ) { log.error( "failed to close dead socket" ); }
+			}
+			else if ( sock != null ) {
+				deadPool.put( sock, ZERO );
+			}
+		}
+
+		return getSock( key, hashCode, connectTimeout );
+	}
+
 	/** 
 	 * Returns a SockIO object from the pool for the passed in host.
 	 *
@@ -997,6 +1705,18 @@ public class SockIOPool {
 	 * @return SockIO object or null if fail to retrieve one
 	 */
 	public SockIO getConnection( String host ) {
+		return getConnection( host, this.socketConnectTO );
+	}
+
+	/** 
+	 * Returns a SockIO object from the pool for the passed in host,
+	 * using the passed in timeout if a new socket has to be connected.
+	 * 
+	 * @param host host from which to retrieve object
+	 * @param connectTimeout timeout (in ms) when a new socket has to be connected
+	 * @return SockIO object or null if fail to retrieve one
+	 */
+	public SockIO getConnection( String host, int connectTimeout ) {
 
 		if ( !this.initialized ) {
 			log.error( "attempting to get SockIO from uninitialized pool!" );
@@ -1006,6 +1726,14 @@ public class SockIOPool {
 		if ( host == null )
 			return null;
 
+		// if host is dead, then we don't need to try again
+		// until its breaker lets a trial call through
+		if ( !isHostAvailable( host ) ) {
+			if ( log.isDebugEnabled() )
+				log.debug( "++++ host is out of rotation: " + host );
+			return null;
+		}
+
 		synchronized( this ) {
 
 			// if we have items in the pool
@@ -1030,6 +1758,9 @@ public class SockIOPool {
 							// add to busy pool
 							addSocketToPool( busyPool, host, socket );
 
+							if ( adaptive )
+								recordCheckout( host );
+
 							// return socket
 							return socket;
 						}
@@ -1046,10 +1777,13 @@ public class SockIOPool {
 		}
 			
 		// create one socket -- let the maint thread take care of creating more
-		SockIO socket = createSocket( host );
+		SockIO socket = createSocket( host, connectTimeout );
 		if ( socket != null ) {
 			synchronized( this ) {
 				addSocketToPool( busyPool, host, socket );
+
+				if ( adaptive )
+					recordCheckout( host );
 			}
 		}
 
@@ -1148,10 +1882,21 @@ public class SockIOPool {
 		if ( log.isDebugEnabled() )
 			log.debug( "++++ calling check-in on socket: " + socket.toString() + " for host: " + host );
 
+		long holdTime = -1;
+
 		synchronized( this ) {
 			// remove from the busy pool
 			if ( log.isDebugEnabled() )
 				log.debug( "++++ removing socket (" + socket.toString() + ") from busy pool for host: " + host );
+
+			Map<SockIO,Long> busy = ( busyPool != null ) ? busyPool.get( host ) : null;
+			Long since = ( busy != null ) ? busy.get( socket ) : null;
+			if ( since != null )
+				holdTime = System.currentTimeMillis() - since.longValue();
+
+			if ( adaptive && holdTime >= 0 )
+				recordCheckIn( host, holdTime );
+
 			removeSocketFromPool( busyPool, host, socket );
 
 			if ( socket.isConnected() && addToAvail ) {
@@ -1162,9 +1907,124 @@ public class SockIOPool {
 			}
 			else {
 				deadPool.put( socket, ZERO );
-				socket = null;
+				addToAvail = false;
+			}
+		}
+
+		// only count sockets which were actually checked out, so
+		// a socket closed after it was returned is not counted twice
+		if ( holdTime >= 0 )
+			recordCall( host, addToAvail, socket.takeLatency() );
+	}
+
+	/** 
+	 * Counts a checkout for adaptive sizing.
+	 * THIS METHOD IS NOT THREADSAFE, SO BE CAREFUL WHEN USING!
+	 * 
+	 * @param host host the socket was checked out for
+	 */
+	private void recordCheckout( String host ) {
+		if ( hostLoad == null )
+			return;
+
+		HostLoad load = hostLoad.get( host );
+		if ( load == null ) {
+			load = new HostLoad();
+			hostLoad.put( host, load );
+		}
+
+		Map<SockIO,Long> busy = busyPool.get( host );
+		if ( busy != null && busy.size() > load.peakBusy )
+			load.peakBusy = busy.size();
+	}
+
+	/** 
+	 * Adds the time a socket was held to the demand for its host.
+	 * THIS METHOD IS NOT THREADSAFE, SO BE CAREFUL WHEN USING!
+	 * 
+	 * @param host host the socket belongs to
+	 * @param holdTime time (in ms) the socket was checked out
+	 */
+	private void recordCheckIn( String host, long holdTime ) {
+		if ( hostLoad == null )
+			return;
+
+		HostLoad load = hostLoad.get( host );
+		if ( load != null )
+			load.holdTime += holdTime;
+	}
+
+	/** 
+	 * Recomputes the number of spare sockets wanted for each host
+	 * from the demand seen since the last maint run.
+	 * THIS METHOD IS NOT THREADSAFE, SO BE CAREFUL WHEN USING!
+	 */
+	private void updateTargets() {
+		long now = System.currentTimeMillis();
+
+		for ( String host : availPool.keySet() ) {
+			int avail = availPool.get( host ).size();
+
+			HostLoad load = hostLoad.get( host );
+			if ( load == null ) {
+				load = new HostLoad();
+				load.target = Math.max( minConn, Math.min( avail, maxConn ) );
+				hostLoad.put( host, load );
 			}
+
+			Map<SockIO,Long> sockets = busyPool.get( host );
+			int busy = ( sockets == null ) ? 0 : sockets.size();
+
+			// Little's law: sockets in use = checkout rate * hold time,
+			// which works out to total hold time over the interval.
+			// Anything still checked out has not been counted yet.
+			long interval = Math.max( 1, now - load.lastSample );
+			double inUse  = Math.max( (double)load.holdTime / interval, busy );
+
+			double prev   = load.demand;
+			load.demand   = ( prev < 0 ) ? inUse : prev + DEMAND_SMOOTHING * ( inUse - prev );
+
+			// look ahead when demand is ramping up
+			double trend     = ( prev < 0 ) ? 0 : load.demand - prev;
+			double projected = load.demand + Math.max( 0, trend ) * RAMP_RUNS;
+
+			int wanted = (int)Math.ceil( Math.max( projected * DEMAND_HEADROOM, load.peakBusy ) ) - busy;
+			wanted     = Math.max( minConn, Math.min( wanted, maxConn ) );
+
+			// grow right away, but only shrink once demand
+			// has stayed low for a while and then only by half
+			if ( wanted >= load.target ) {
+				load.target    = wanted;
+				load.belowRuns = 0;
+			}
+			else if ( ++load.belowRuns >= SHRINK_RUNS ) {
+				load.target -= Math.max( 1, ( load.target - wanted ) / 2 );
+			}
+
+			if ( log.isDebugEnabled() )
+				log.debug( "++++ demand for host (" + host + ") = " + load.demand + " projected " + projected + " target spare " + load.target );
+
+			load.holdTime   = 0;
+			load.peakBusy   = busy;
+			load.lastSample = now;
+		}
+	}
+
+	/** 
+	 * Returns the number of spare sockets to keep for a host.
+	 * THIS METHOD IS NOT THREADSAFE, SO BE CAREFUL WHEN USING!
+	 * 
+	 * @param host host
+	 * @return minConn, or the adaptive target if adaptive sizing is on
+	 */
+	private int getTarget( String host ) {
+		if ( adaptive && hostLoad != null ) {
+			HostLoad load = hostLoad.get( host );
+			if ( load != null )
+				return load.target;
 		}
+
+		return minConn;
 	}
 
 	/** 
@@ -1232,6 +2092,11 @@ public class SockIOPool {
 				}
 			}
 
+			if ( connectThread != null ) {
+				connectThread.stopThread();
+				connectThread = null;
+			}
+
 			if ( log.isDebugEnabled() )
 				log.debug( "++++ closing all internal pools." );
 			closePool( availPool );
@@ -1240,8 +2105,8 @@ public class SockIOPool {
 			busyPool          = null;
 			buckets           = null;
 			consistentBuckets = null;
-			hostDeadDur       = null;
-			hostDead          = null;
+			breakers          = null;
+			hostLoad          = null;
 			maintThread       = null;
 			initialized       = false;
 			if ( log.isDebugEnabled() )
@@ -1297,18 +2162,22 @@ public class SockIOPool {
 			new HashMap<String,Integer>();
 
 		synchronized( this ) {
+			if ( adaptive )
+				updateTargets();
+
 			// find out how many to create
 			for ( Iterator<String> i = availPool.keySet().iterator(); i.hasNext(); ) {
 				String host              = i.next();
 				Map<SockIO,Long> sockets = availPool.get( host );
+				int target               = getTarget( host );
 
 				if ( log.isDebugEnabled() )
 					log.debug( "++++ Size of avail pool for host (" + host + ") = " + sockets.size() );
 
 				// if pool is too small (n < minSpare)
-				if ( sockets.size() < minConn ) {
+				if ( sockets.size() < target ) {
 					// need to create new sockets
-					int need = minConn - sockets.size();
+					int need = target - sockets.size();
 					needSockets.put( host, need );
 				}
 			}
@@ -1321,6 +2190,14 @@ public class SockIOPool {
 		for ( String host : needSockets.keySet() ) {
 			Integer need = needSockets.get( host );
 
+			// a host out of rotation gets its trial call from a
+			// caller once the breaker allows it, not from us
+			if ( !isHostInRotation( host ) ) {
+				if ( log.isDebugEnabled() )
+					log.debug( "++++ not refilling pool for host out of rotation: " + host );
+				continue;
+			}
+
 			if ( log.isDebugEnabled() )
 				log.debug( "++++ Need to create " + need + " new sockets for pool for host: " + host );
 
@@ -1354,7 +2231,20 @@ public class SockIOPool {
 				if ( log.isDebugEnabled() )
 					log.debug( "++++ Size of avail pool for host (" + host + ") = " + sockets.size() );
 
-				if ( sockets.size() > maxConn ) {
+				if ( adaptive ) {
+					// spare sockets over the adaptive target are
+					// closed whether or not they hit the idle time
+					int needToClose = sockets.size() - getTarget( host );
+
+					if ( needToClose > 0 && log.isDebugEnabled() )
+						log.debug( "++++ need to remove " + needToClose + " spare sockets over target for host: " + host );
+
+					for ( Iterator<SockIO> j = sockets.keySet().iterator(); j.hasNext() && needToClose > 0; needToClose-- ) {
+						deadPool.put( j.next(), ZERO );
+						j.remove();
+					}
+				}
+				else if ( sockets.size() > maxConn ) {
 					// need to close down some sockets
 					int diff        = sockets.size() - maxConn;
 					int needToClose = (diff <= poolMultiplier)
@@ -1441,6 +2331,19 @@ public class SockIOPool {
 			log.debug( "+++ ending self maintenance." );
 	}
 	
+	/** 
+	 * Demand seen for one host since the last maint run, used
+	 * for adaptive sizing.  Guarded by the pool's monitor.
+	 */
+	private static final class HostLoad {
+		private long holdTime   = 0;							// ms sockets were held since last run
+		private int peakBusy    = 0;							// most sockets busy at once since last run
+		private long lastSample = System.currentTimeMillis();
+		private double demand   = -1;							// smoothed sockets in use
+		private int target      = 0;							// spare sockets wanted
+		private int belowRuns   = 0;							// runs in a row wanting fewer than target
+	}
+
 	/** 
 	 * Class which extends thread and handles maintenance of the pool.
 	 * 
@@ -1529,6 +2432,16 @@ public class SockIOPool {
 		private DataInputStream in;
 		private BufferedOutputStream out;
 
+		// read timeout the socket was created with and whether
+		// a per call timeout is currently overriding it
+		private int timeout;
+		private boolean timeoutOverridden = false;
+
+		// when the last request was flushed (0 once answered), and
+		// the slowest answer since the socket was checked out
+		private long requestSent = 0;
+		private long maxLatency  = -1;
+
 		/** 
 		 * creates a new SockIO object wrapping a socket
 		 * connection to host:port, and its input and output streams
@@ -1551,6 +2464,7 @@ public class SockIOPool {
 			
 			if ( timeout >= 0 )
 				sock.setSoTimeout( timeout );
+			this.timeout = timeout;
 
 			// testing only
 			sock.setTcpNoDelay( noDelay );
@@ -1584,6 +2498,39 @@ public class SockIOPool {
 
 			if ( timeout >= 0 )
 				this.sock.setSoTimeout( timeout );
+			this.timeout = timeout;
+
+			// testing only
+			sock.setTcpNoDelay( noDelay );
+
+			// wrap streams
+			in   = new DataInputStream( new BufferedInputStream( sock.getInputStream() ) );
+			out  = new BufferedOutputStream( sock.getOutputStream() );
+
+			this.host = host;
+		}
+
+		/** 
+		 * creates a new SockIO object wrapping an already connected
+		 * channel, and its input and output streams
+		 * 
+		 * @param pool Pool this object is tied to
+		 * @param host hostname:port
+		 * @param channel connected channel (switched to blocking mode)
+		 * @param timeout read timeout value for connected socket
+		 * @param noDelay TCP NODELAY option?
+		 * @throws IOException if an io error occurrs when setting up the socket
+		 */
+		public SockIO( SockIOPool pool, String host, SocketChannel channel, int timeout, boolean noDelay ) throws IOException {
+
+			this.pool = pool;
+
+			channel.configureBlocking( true );
+			sock = channel.socket();
+
+			if ( timeout >= 0 )
+				this.sock.setSoTimeout( timeout );
+			this.timeout = timeout;
 
 			// testing only
 			sock.setTcpNoDelay( noDelay );
@@ -1697,11 +2644,43 @@ public class SockIOPool {
 				throw new IOException( errMsg.toString() );
 		}
 
+		/** 
+		 * Lowers the read timeout for the current checkout only.
+		 *
+		 * The timeout the socket was created with is put back<br/>
+		 * when the socket is returned to the pool.
+		 * 
+		 * @param readTimeout timeout in ms
+		 * @throws IOException if the timeout can not be set
+		 */
+		void setReadTimeout( int readTimeout ) throws IOException {
+			if ( sock == null )
+				return;
+
+			if ( timeout <= 0 || readTimeout < timeout ) {
+				sock.setSoTimeout( Math.max( 1, readTimeout ) );
+				timeoutOverridden = true;
+			}
+		}
+
 		/** 
 		 * sets closed flag and checks in to connection pool
 		 * but does not close connections
 		 */
 		void close() {
+			// put back the read timeout before anyone else gets us
+			if ( timeoutOverridden ) {
+				try {
+					sock.setSoTimeout( Math.max( 0, timeout ) );
+					timeoutOverridden = false;
+				}
+				catch ( IOException ioe ) {
+					log.error( "++++ failed to reset read timeout, closing socket: " + toString() );
+					try { trueClose(); } catch ( IOException ignoreMe ) { }
+					return;
+				}
+			}
+
 			// check in to pool
 			if ( log.isDebugEnabled() )
 				log.debug("++++ marking socket (" + this.toString() + ") as closed and available to return to avail pool");
@@ -1778,6 +2757,7 @@ public class SockIOPool {
 			if ( bos == null || bos.size() <= 0 ) {
 				throw new IOException( "++++ Stream appears to be dead, so closing it down" );
 			}
+			responded();
 
 			// else return the string
 			return bos.toString().trim();
@@ -1812,6 +2792,7 @@ public class SockIOPool {
 					eol = false;
 				}
 			}
+			responded();
 		}
 
 		/** 
@@ -1831,7 +2812,28 @@ public class SockIOPool {
 				int cnt = in.read( b, count, (b.length - count) );
 				count += cnt;
 			}
+			responded();
+
+			return count;
+		}
+
+		/** 
+		 * reads up to len bytes into the passed in byte array
+		 * 
+		 * @param b byte array
+		 * @param off offset to start writing to
+		 * @param len maximum number of bytes to read
+		 * @return number of bytes read, or -1 at end of stream
+		 * @throws IOException if io problems during read
+		 */
+		int read( byte[] b, int off, int len ) throws IOException {
+			if ( sock == null || !sock.isConnected() ) {
+				log.error( "++++ attempting to read from closed socket" );
+				throw new IOException( "++++ attempting to read from closed socket" );
+			}
 
+			int count = in.read( b, off, len );
+			responded();
 			return count;
 		}
 
@@ -1846,6 +2848,37 @@ public class SockIOPool {
 				throw new IOException( "++++ attempting to write to closed socket" );
 			}
 			out.flush();
+			requestSent = System.nanoTime();
+		}
+
+		/** 
+		 * Records the time the server took to answer a request.
+		 * 
+		 * @param latency time in ms
+		 */
+		void recordLatency( long latency ) {
+			if ( latency > maxLatency )
+				maxLatency = latency;
+		}
+
+		/** 
+		 * Returns the slowest answer since the last call and forgets it.
+		 * 
+		 * @return time in ms, or -1 if no request was answered
+		 */
+		long takeLatency() {
+			long latency = maxLatency;
+			maxLatency   = -1;
+			requestSent  = 0;
+			return latency;
+		}
+
+		// the first read after a flush ends the request's wait
+		private void responded() {
+			if ( requestSent != 0 ) {
+				recordLatency( ( System.nanoTime() - requestSent ) / 1000000 );
+				requestSent = 0;
+			}
 		}
 		
 		/** 
@@ -1862,6 +2895,22 @@ public class SockIOPool {
 			out.write( b );
 		}
 
+		/** 
+		 * writes part of a byte array to the output stream
+		 * 
+		 * @param b byte array to write
+		 * @param off offset of the first byte to write
+		 * @param len number of bytes to write
+		 * @throws IOException if an io error happens
+		 */
+		void write( byte[] b, int off, int len ) throws IOException {
+			if ( sock == null || !sock.isConnected() ) {
+				log.error( "++++ attempting to write to closed socket" );
+				throw new IOException( "++++ attempting to write to closed socket" );
+			}
+			out.write( b, off, len );
+		}
+
 		/** 
 		 * use the sockets hashcode for this object
 		 * so we can key off of SockIOs 
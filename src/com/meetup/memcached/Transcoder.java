@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2008 Greg Whalin
+ * All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the BSD license
+ *
+ * This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.
+ *
+ * You should have received a copy of the BSD License along with this
+ * library.
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+package com.meetup.memcached;
+
+/**
+ * Converts values to the bytes and flags stored in memcached, and back.
+ *
+ * The client asks the transcoder for the flags and bytes of every<br/>
+ * value it stores, and hands the bytes and flags back to it on every<br/>
+ * get.  Compression is done by the client after encoding and undone<br/>
+ * before decoding, so a transcoder never sees the F_COMPRESSED flag<br/>
+ * and must not use that bit, nor those of any Compressor, itself.
+ *
+ * Implementations are shared by all threads using a client, so they<br/>
+ * have to be thread safe.
+ * <h3>To plug in a transcoder:</h3>
+ * <pre>
+ *	MemcachedClient mc = new MemcachedClient();
+ *	mc.setTranscoder( new MyTranscoder() );
+ * </pre>
+ *
+ * @author greg whalin <greg@meetup.com>
+ */
+public interface Transcoder {
+
+	/** 
+	 * Returns the flags to store a value under.
+	 * 
+	 * @param value value being stored
+	 * @return flags
+	 */
+	public int getFlags( Object value );
+
+	/** 
+	 * Encodes a value.
+	 * 
+	 * @param value value being stored
+	 * @return bytes to store
+	 * @throws Exception if the value can not be encoded
+	 */
+	public byte[] encode( Object value ) throws Exception;
+
+	/** 
+	 * Decodes a stored value.
+	 *
+	 * ClassNotFoundException and ObjectStreamException are taken to mean<br/>
+	 * the value was written by an incompatible version of its class, and<br/>
+	 * are reported as a miss; anything else fails the get.
+	 * 
+	 * @param data bytes stored
+	 * @param flags flags stored (without the compression flags)
+	 * @return value
+	 * @throws Exception if the bytes can not be decoded
+	 */
+	public Object decode( byte[] data, int flags ) throws Exception;
+}
@@ -20,7 +20,9 @@ package com.meetup.memcached.test;
 
 import com.meetup.memcached.*;
 import java.util.*;
-import java.io.Serializable;
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -264,8 +266,838 @@ public class UnitTests {
 		log.error( "+ getMulti w/ keys that don't exist test passed" );
 	}
 
+	public static void test25() {
+		SockIOPool pool = SockIOPool.getInstance( "test" );
+		pool.setReplicas( 2 );
+		pool.setReplicatedKeys( new String[] { "hot:" } );
+
+		assert mc.set( "hot:foo", "bar" );
+		for ( int i = 0; i < 10; i++ )
+			assert "bar".equals( mc.get( "hot:foo" ) );
+
+		Map<String,Object> results = mc.getMulti( new String[] { "hot:foo" } );
+		assert "bar".equals( results.get( "hot:foo" ) );
+
+		assert mc.delete( "hot:foo" );
+		for ( int i = 0; i < 10; i++ )
+			assert mc.get( "hot:foo" ) == null;
+
+		// streamed values reach every replica too
+		byte[] b = new byte[ 64 * 1024 ];
+		assert mc.set( "hot:foo", new ByteArrayInputStream( b ), b.length );
+		for ( int i = 0; i < 10; i++ )
+			assert Arrays.equals( b, (byte[])mc.get( "hot:foo" ) );
+		assert mc.delete( "hot:foo" );
+
+		pool.setReplicas( 1 );
+		log.error( "+ replicated store/retrieve test passed" );
+	}
+
+	public static void test26() {
+		SockIOPool pool = SockIOPool.getInstance( "test" );
+		pool.setReplicas( 2 );
+		pool.setReplicatedKeys( new String[] { "hot:" } );
+		mc.setHedgedReads( true );
+		mc.setMinHedgeDelay( 0 );
+
+		assert mc.set( "hot:hedged", "bar" );
+		for ( int i = 0; i < 100; i++ )
+			assert "bar".equals( mc.get( "hot:hedged" ) );
+
+		mc.delete( "hot:hedged" );
+		assert mc.get( "hot:hedged" ) == null;
+
+		mc.setHedgedReads( false );
+		pool.setReplicas( 1 );
+		log.error( "+ hedged read test passed" );
+	}
+
+	public static void test27() {
+		assert mc.set( "foo", "bar", null, null, Deadline.after( 1000 ) );
+		assert "bar".equals( mc.get( "foo", null, Deadline.after( 1000 ) ) );
+
+		Map<String,Object> results = mc.getMulti( new String[] { "foo", "nope" }, null, Deadline.after( 1000 ) );
+		assert "bar".equals( results.get( "foo" ) );
+		assert results.containsKey( "nope" ) && results.get( "nope" ) == null;
+
+		// an expired deadline never goes to the server
+		assert !mc.set( "foo", "baz", null, null, Deadline.after( -1 ) );
+		assert mc.get( "foo", null, Deadline.after( -1 ) ) == null;
+		assert "bar".equals( mc.get( "foo" ) );
+
+		assert mc.delete( "foo", null, null, Deadline.after( 1000 ) );
+		log.error( "+ per call deadline test passed" );
+	}
+
+	public static void test28() {
+		Transcoder upper = new Transcoder() {
+			public int getFlags( Object value ) { return MemcachedClient.MARKER_STRING; }
+			public byte[] encode( Object value ) throws Exception { return value.toString().toUpperCase().getBytes( "UTF-8" ); }
+			public Object decode( byte[] data, int flags ) throws Exception { return new String( data, "UTF-8" ); }
+		};
+
+		assert mc.setWithTranscoder( "foo", "bar", null, null, upper );
+		assert "BAR".equals( mc.getWithTranscoder( "foo", null, upper ) );
+		assert "BAR".equals( mc.getMultiWithTranscoder( new String[] { "foo" }, null, upper ).get( "foo" ) );
+
+		// flags are compatible with the default transcoder
+		assert "BAR".equals( mc.get( "foo" ) );
+
+		// a null last argument is not ambiguous
+		assert mc.set( "foo", "bar", null, null, null );
+		assert "bar".equals( mc.get( "foo", null, null ) );
+		assert "bar".equals( mc.getMulti( new String[] { "foo" }, null, null ).get( "foo" ) );
+
+		mc.delete( "foo" );
+		log.error( "+ per call transcoder test passed" );
+	}
+
+	public static void test29() {
+		DefaultTranscoder compact = new DefaultTranscoder();
+		compact.setEncodeCollections( true );
+
+		List<Object> list = new ArrayList<Object>();
+		for ( long i = 0; i < 1000; i++ )
+			list.add( Long.valueOf( i * 1000003 ) );
+
+		Map<String,Object> map = new HashMap<String,Object>();
+		map.put( "ids", list );
+		map.put( "names", new HashSet<String>( Arrays.asList( "a", "b", "c" ) ) );
+		map.put( "none", null );
+
+		assert mc.setWithTranscoder( "foo", map, null, null, compact );
+		assert map.equals( mc.get( "foo" ) );
+
+		// a Date subclass would come back as a plain Date, so it is serialized
+		java.sql.Timestamp ts = new java.sql.Timestamp( 1234567890123L );
+		ts.setNanos( 123456789 );
+		List<Object> dates = new ArrayList<Object>( Arrays.asList( new Date( 42 ), ts ) );
+		assert !CollectionHandler.isHandled( dates );
+		assert mc.setWithTranscoder( "foo", dates, null, null, compact );
+		assert dates.equals( mc.get( "foo" ) );
+		assert ( (List<?>)mc.get( "foo" ) ).get( 1 ) instanceof java.sql.Timestamp;
+
+		long[] arr = { 1, -1, Long.MAX_VALUE, Long.MIN_VALUE };
+		assert mc.setWithTranscoder( "foo", arr, null, null, compact );
+		assert Arrays.equals( arr, (long[])mc.get( "foo" ) );
+
+		// a list holding itself fails to encode instead of overflowing the stack
+		List<Object> loop = new ArrayList<Object>();
+		loop.add( loop );
+		boolean refused = false;
+		try {
+			CollectionHandler.encode( loop );
+		}
+		catch ( IOException e ) {
+			refused = true;
+		}
+		catch ( Exception e ) { }
+		assert refused;
+		assert !mc.setWithTranscoder( "foo", loop, null, null, compact );
+		assert Arrays.equals( arr, (long[])mc.get( "foo" ) );
+
+		mc.delete( "foo" );
+		log.error( "+ compact collection test passed" );
+	}
+
+	public static void test30() {
+		StringBuilder sb = new StringBuilder();
+		for ( int i = 0; i < 10000; i++ )
+			sb.append( "value " ).append( i % 100 ).append( ';' );
+		String value = sb.toString();
+
+		mc.setCompressor( new LZCompressor() );
+		assert mc.set( "foo", value );
+		assert value.equals( mc.get( "foo" ) );
+
+		// values keep the compressor they were written with
+		mc.setCompressor( null );
+		assert value.equals( mc.get( "foo" ) );
+
+		// the best case still fits under the bound on the length header
+		LZCompressor lz = new LZCompressor();
+		byte[] zeros = new byte[ 1024 * 1024 ];
+		try {
+			assert Arrays.equals( zeros, lz.decompress( lz.compress( zeros ) ) );
+		}
+		catch ( IOException e ) {
+			assert false : e;
+		}
+
+		// a corrupt length header is refused before anything is allocated
+		byte[] corrupt = { 0x7f, (byte)0xff, (byte)0xff, (byte)0xff, 0x10, 'a' };
+		boolean refused = false;
+		try {
+			lz.decompress( corrupt );
+		}
+		catch ( IOException e ) {
+			refused = true;
+		}
+		assert refused;
+
+		mc.delete( "foo" );
+		log.error( "+ LZ compression test passed" );
+	}
+
+	public static void test31( boolean compressEnable ) {
+		CompressionPolicy policy = new CompressionPolicy();
+		policy.setKeyPrefixes( new String[] { "policy:" } );
+		mc.setCompressionPolicy( policy );
+		mc.setCompressEnable( true );
+
+		// random data never shrinks, so the policy soon stops compressing it
+		Random r = new Random();
+		assert policy.isCompressing( "policy:" );
+		for ( int i = 0; i < 50; i++ ) {
+			byte[] b = new byte[ 64 * 1024 ];
+			r.nextBytes( b );
+			assert mc.set( "policy:foo", b );
+			assert Arrays.equals( b, (byte[])mc.get( "policy:foo" ) );
+		}
+		assert !policy.isCompressing( "policy:" );
+
+		// once the data compresses again, a probe turns compression back on
+		byte[] zeros = new byte[ 64 * 1024 ];
+		for ( int i = 0; i < 200 && !policy.isCompressing( "policy:" ); i++ )
+			assert mc.set( "policy:foo", zeros );
+		assert policy.isCompressing( "policy:" );
+		assert Arrays.equals( zeros, (byte[])mc.get( "policy:foo" ) );
+
+		// data that shrinks, but takes too long to, is not compressed either
+		policy.setMaxCost( 10 );
+		for ( int i = 0; i < 50; i++ )
+			policy.record( "slow", 1000, 500, 1000 * 1000 );
+		assert !policy.isCompressing( "slow" );
+		policy.setMaxCost( 0 );
+		policy.record( "slow", 1000, 500, 1000 * 1000 );
+		assert policy.isCompressing( "slow" );
+
+		mc.setCompressionPolicy( null );
+		mc.setCompressEnable( compressEnable );
+		mc.delete( "policy:foo" );
+		log.error( "+ adaptive compression test passed" );
+	}
+
+	public static void test32() {
+		List<byte[]> samples = new ArrayList<byte[]>();
+		for ( int i = 0; i < 200; i++ )
+			samples.add( ( "{\"id\":" + i + ",\"name\":\"user" + i + "\",\"status\":\"active\",\"roles\":[\"member\"]}" ).getBytes() );
+
+		DictionaryCompressor dc = new DictionaryCompressor();
+		dc.addDictionary( 1, DictionaryCompressor.train( samples, 1024 ) );
+		dc.setCurrentDictionary( 1 );
+
+		mc.setCompressor( dc );
+		mc.setCompressThreshold( 16 );
+		String value = "{\"id\":4711,\"name\":\"user4711\",\"status\":\"active\",\"roles\":[\"member\"]}";
+		assert mc.set( "foo", value );
+		assert value.equals( mc.get( "foo" ) );
+		assert value.equals( mc.getMulti( new String[] { "foo" } ).get( "foo" ) );
+
+		// a corrupt size header is refused before anything is allocated
+		byte[] corrupt = { 0x00, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 0x07, 'a' };
+		boolean refused = false;
+		try {
+			dc.decompress( corrupt );
+		}
+		catch ( IOException e ) {
+			refused = true;
+		}
+		assert refused;
+
+		mc.setCompressor( null );
+		mc.setCompressThreshold( 30720 );
+		mc.delete( "foo" );
+		log.error( "+ dictionary compression test passed" );
+	}
+
+	public static void test33() {
+		try {
+			byte[] b = new byte[ 900 * 1024 ];
+			new Random().nextBytes( b );
+
+			assert mc.set( "foo", new ByteArrayInputStream( b ), b.length );
+			assert Arrays.equals( b, (byte[])mc.get( "foo" ) );
+
+			InputStream in = mc.getAsStream( "foo" );
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			byte[] buf = new byte[ 4096 ];
+			for ( int n; ( n = in.read( buf ) ) > 0; )
+				bos.write( buf, 0, n );
+			in.close();
+			assert Arrays.equals( b, bos.toByteArray() );
+
+			// closing early skips the rest, the socket stays usable
+			in = mc.getAsStream( "foo" );
+			assert in.read() == ( b[0] & 0xFF );
+			in.close();
+
+			// compressed values are uncompressed while streaming
+			StringBuilder sb = new StringBuilder();
+			for ( int i = 0; i < 10000; i++ )
+				sb.append( "value " ).append( i ).append( ';' );
+			mc.set( "foo", sb.toString() );
+			in  = mc.getAsStream( "foo" );
+			bos = new ByteArrayOutputStream();
+			for ( int n; ( n = in.read( buf ) ) > 0; )
+				bos.write( buf, 0, n );
+			in.close();
+			assert sb.toString().equals( bos.toString( "UTF-8" ) );
+
+			mc.delete( "foo" );
+			assert mc.getAsStream( "foo" ) == null;
+			log.error( "+ streaming test passed" );
+		}
+		catch ( IOException e ) {
+			assert false : e;
+		}
+	}
+
+	public static void test34() {
+		byte[] b = new byte[ 1024 * 1024 + 17 ];
+		new Random().nextBytes( b );
+
+		mc.setChunkSize( 100 * 1024 );
+		assert mc.set( "foo", b );
+		assert Arrays.equals( b, (byte[])mc.get( "foo" ) );
+		assert Arrays.equals( b, (byte[])mc.getMulti( new String[] { "foo", "bar" } ).get( "foo" ) );
+
+		// a rewrite gets chunks of its own
+		b[0]++;
+		assert mc.set( "foo", b );
+		assert Arrays.equals( b, (byte[])mc.get( "foo" ) );
+
+		// small values are stored as is
+		assert mc.set( "foo", "bar" );
+		assert "bar".equals( mc.get( "foo" ) );
+
+		// streamed values are chunked while they are read
+		b[0]++;
+		assert mc.set( "foo", new ByteArrayInputStream( b ), b.length );
+		assert Arrays.equals( b, (byte[])mc.get( "foo" ) );
+		assert Arrays.equals( b, (byte[])mc.get( "foo", null, Deadline.after( 5000 ) ) );
+
+		// a stream ending early stores nothing
+		mc.delete( "foo" );
+		assert !mc.set( "foo", new ByteArrayInputStream( b, 0, 300 * 1024 ), b.length );
+		assert mc.get( "foo" ) == null;
+
+		mc.setChunkSize( 0 );
+		mc.delete( "foo" );
+		log.error( "+ chunked value test passed" );
+	}
+
+	public static void test35() {
+		CacheKey key = mc.getCacheKey( "foo bar:1" );
+		assert mc.set( key, "baz" );
+		assert "baz".equals( mc.get( key ) );
+
+		// same server and key as the plain string
+		assert "baz".equals( mc.get( "foo bar:1" ) );
+		assert mc.set( "foo bar:1", "qux" );
+		assert "qux".equals( mc.get( key ) );
+
+		CacheKey missing = mc.getCacheKey( "foo missing" );
+		Map<String,Object> values = mc.getMulti( new CacheKey[] { key, missing } );
+		assert "qux".equals( values.get( "foo bar:1" ) );
+		assert values.containsKey( "foo missing" ) && values.get( "foo missing" ) == null;
+
+		assert mc.delete( key );
+		assert mc.get( key ) == null;
+		log.error( "+ cache key test passed" );
+	}
+
+	public static void test36() {
+		String key = "foo bar:\u00fc\u20ac/\ud83d\ude00";
+		assert mc.set( key, "baz" );
+
+		// keys are sanitized exactly like URLEncoder does
+		try {
+			mc.setSanitizeKeys( false );
+			assert "baz".equals( mc.get( java.net.URLEncoder.encode( key, "UTF-8" ) ) );
+		}
+		catch ( UnsupportedEncodingException e ) {
+			assert false : e;
+		}
+		finally {
+			mc.setSanitizeKeys( true );
+		}
+		mc.delete( key );
+
+		// minimal escaping only touches what memcached does not allow
+		mc.setMinimalKeyEscaping( true );
+		assert mc.set( "foo bar:1", "baz" );
+		assert "baz".equals( mc.get( "foo bar:1" ) );
+		assert "baz".equals( mc.getMulti( new String[] { "foo bar:1" } ).get( "foo bar:1" ) );
+		mc.setSanitizeKeys( false );
+		assert "baz".equals( mc.get( "foo%20bar:1" ) );
+		mc.setSanitizeKeys( true );
+		mc.delete( "foo bar:1" );
+		mc.setMinimalKeyEscaping( false );
+		log.error( "+ key sanitizing test passed" );
+	}
+
+	public static void test37() {
+		Namespace ns = mc.getNamespace( "foo" );
+		assert ns == mc.getNamespace( "foo" );
+
+		assert ns.set( "bar", "baz" );
+		assert "baz".equals( ns.get( "bar" ) );
+		assert "baz".equals( ns.getMulti( new String[] { "bar" } ).get( "bar" ) );
+		assert "baz".equals( mc.get( ns.getKey( "bar" ) ) );
+
+		// one incr hides all keys of the namespace
+		long version = ns.getVersion();
+		assert ns.invalidate() > version;
+		assert ns.get( "bar" ) == null;
+		assert ns.set( "bar", "qux" );
+		assert "qux".equals( ns.get( "bar" ) );
+
+		assert ns.delete( "bar" );
+		log.error( "+ namespace test passed" );
+	}
+
+	public static void test38() {
+		int max = 100;
+		String[] keys = new String[ max + 1 ];
+		for ( int i = 0; i < max; i++ ) {
+			keys[i] = "stream key " + i;
+			mc.set( keys[i], "value" + i );
+		}
+		keys[max] = "stream key missing";
+		mc.delete( keys[max] );
+
+		final Map<String,Object> results = new HashMap<String,Object>();
+		int count = mc.getMultiStreaming( keys, new GetMultiCallback() {
+			public void onValue( String key, Object value ) {
+				assert !results.containsKey( key );
+				results.put( key, value );
+			}
+		} );
+
+		assert count == max;
+		assert results.size() == max;
+		for ( int i = 0; i < max; i++ )
+			assert ( "value" + i ).equals( results.get( keys[i] ) );
+		assert !results.containsKey( keys[max] );
+
+		for ( int i = 0; i < max; i++ )
+			mc.delete( keys[i] );
+		log.error( "+ getMultiStreaming test passed" );
+	}
+
+	public static void test39() {
+		int max = 500;
+		String[] keys = new String[ max ];
+		for ( int i = 0; i < max; i++ ) {
+			keys[i] = "batched key " + i;
+			mc.set( keys[i], "value" + i );
+		}
+
+		// small batches, pipelined down each connection
+		mc.setMultiGetMaxKeys( 7 );
+		mc.setMultiGetMaxBytes( 100 );
+
+		Map<String,Object> results = mc.getMulti( keys );
+		assert results.size() == max;
+		for ( int i = 0; i < max; i++ )
+			assert ( "value" + i ).equals( results.get( keys[i] ) );
+
+		final int[] count = new int[1];
+		assert mc.getMultiStreaming( keys, new GetMultiCallback() {
+			public void onValue( String key, Object value ) {
+				count[0]++;
+			}
+		} ) == max;
+		assert count[0] == max;
+
+		mc.setMultiGetMaxKeys( 0 );
+		mc.setMultiGetMaxBytes( 0 );
+
+		for ( int i = 0; i < max; i++ )
+			mc.delete( keys[i] );
+		log.error( "+ batched getMulti test passed" );
+	}
+
+	public static void test40() {
+		int max = 500;
+		String[] keys = new String[ max ];
+		for ( int i = 0; i < max; i++ ) {
+			keys[i] = "decoded key " + i;
+			mc.set( keys[i], new TestClass( "value" + i, "decoded", i ) );
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		mc.setDecodeExecutor( executor );
+
+		Map<String,Object> results = mc.getMulti( keys );
+		assert results.size() == max;
+		for ( int i = 0; i < max; i++ )
+			assert new TestClass( "value" + i, "decoded", i ).equals( results.get( keys[i] ) );
+
+		// callbacks still only come from the calling thread
+		final Thread caller = Thread.currentThread();
+		final int[] count = new int[1];
+		mc.getMultiStreaming( keys, new GetMultiCallback() {
+			public void onValue( String key, Object value ) {
+				assert Thread.currentThread() == caller;
+				count[0]++;
+			}
+		} );
+		assert count[0] == max;
+
+		mc.setDecodeExecutor( null );
+		executor.shutdown();
+
+		for ( int i = 0; i < max; i++ )
+			mc.delete( keys[i] );
+		log.error( "+ getMulti w/ decode executor test passed" );
+	}
+
+	public static void test41() {
+		TestClass tc = new TestClass( "foo", "bar", 41 );
+		mc.set( "cached foo", tc );
+		mc.set( "cached bar", "baz" );
+		mc.delete( "cached missing" );
+
+		CachedValue value = mc.getCachedValue( "cached foo" );
+		assert value != null;
+		assert value.getBytes().length > 0;
+		assert tc.equals( value.getValue() );
+		assert value.getValue() == value.getValue();
+
+		assert mc.getCachedValue( "cached missing" ) == null;
+
+		Map<String,CachedValue> results = mc.getMultiCachedValues( new String[] { "cached foo", "cached bar", "cached missing" } );
+		assert results.size() == 3;
+		assert tc.equals( results.get( "cached foo" ).getValue() );
+		assert "baz".equals( results.get( "cached bar" ).getValue() );
+		assert results.get( "cached missing" ) == null;
+
+		mc.delete( "cached foo" );
+		mc.delete( "cached bar" );
+		log.error( "+ lazily decoded get test passed" );
+	}
+
+	public static void test42() {
+		assert mc.setLong( "typed long", Long.MIN_VALUE );
+		assert mc.getLong( "typed long", 0 ) == Long.MIN_VALUE;
+		assert mc.getInt( "typed long", 7 ) == 7;
+
+		assert mc.setLong( "typed long", 42 );
+		assert mc.getLong( "typed long", 0 ) == 42;
+		assert mc.getInt( "typed long", 0 ) == 42;
+		assert mc.incr( "typed long", 8 ) == 50;
+		assert mc.getLong( "typed long", 0 ) == 50;
+
+		// padded by the server after getting shorter
+		assert mc.decr( "typed long", 45 ) == 5;
+		assert mc.getLong( "typed long", 0 ) == 5;
+
+		// natively encoded
+		mc.set( "typed long", Long.valueOf( -3 ) );
+		assert mc.getLong( "typed long", 0 ) == -3;
+		mc.set( "typed long", Integer.valueOf( 12 ) );
+		assert mc.getInt( "typed long", 0 ) == 12;
+
+		mc.set( "typed long", "not a number" );
+		assert mc.getLong( "typed long", 9 ) == 9;
+
+		mc.delete( "typed long" );
+		assert mc.getLong( "typed long", 9 ) == 9;
+
+		mc.set( "typed boolean", Boolean.TRUE );
+		assert mc.getBoolean( "typed boolean", false );
+		mc.set( "typed boolean", Boolean.FALSE );
+		assert !mc.getBoolean( "typed boolean", true );
+
+		// plain strings have to read true or false
+		mc.setPrimitiveAsString( true );
+		mc.set( "typed boolean", "TRUE" );
+		assert mc.getBoolean( "typed boolean", false );
+		mc.set( "typed boolean", "False" );
+		assert !mc.getBoolean( "typed boolean", true );
+		mc.set( "typed boolean", "yes" );
+		assert mc.getBoolean( "typed boolean", true );
+		assert !mc.getBoolean( "typed boolean", false );
+		mc.setPrimitiveAsString( false );
+
+		mc.delete( "typed boolean" );
+		assert mc.getBoolean( "typed boolean", true );
+
+		log.error( "+ typed get/set test passed" );
+	}
+
+	public static void test43() {
+		mc.setLong( "aggregated a", 5 );
+		mc.delete( "aggregated b" );
+
+		IncrAggregator counters = new IncrAggregator( mc );
+		for ( int i = 0; i < 1000; i++ ) {
+			counters.incr( "aggregated a" );
+			counters.incr( "aggregated b", 2 );
+		}
+		assert counters.getPending( "aggregated a" ) == 1000;
+		assert mc.getLong( "aggregated a", 0 ) == 5;
+
+		// one flush; the missing counter gets created
+		counters.flush();
+		assert counters.getPending( "aggregated a" ) == 0;
+		assert mc.getLong( "aggregated a", 0 ) == 1005;
+		assert mc.getLong( "aggregated b", 0 ) == 2000;
+
+		// enough pending wakes the flush thread up early
+		counters.setFlushInterval( 60000 );
+		counters.setMaxPending( 10 );
+		counters.start();
+		for ( int i = 0; i < 10; i++ )
+			counters.incr( "aggregated a" );
+		for ( int i = 0; i < 100 && mc.getLong( "aggregated a", 0 ) != 1015; i++ ) {
+			try { Thread.sleep( 20 ); } catch ( InterruptedException e ) {}
+		}
+		assert mc.getLong( "aggregated a", 0 ) == 1015;
+
+		// shut down sends the rest
+		counters.incr( "aggregated b", -1000 );
+		counters.shutDown();
+		assert mc.getLong( "aggregated b", 0 ) == 1000;
+
+		// a delta which can not be sent is refused
+		counters.incr( "aggregated b", Long.MIN_VALUE );
+		assert counters.getPending( "aggregated b" ) == 0;
+		Map<String,Long> deltas = new HashMap<String,Long>();
+		deltas.put( "aggregated b", Long.MIN_VALUE );
+		assert !mc.incrMulti( deltas ).containsKey( "aggregated b" );
+		assert mc.getLong( "aggregated b", 0 ) == 1000;
+
+		// nothing is lost while idle counters are retired under load
+		final IncrAggregator racing = new IncrAggregator( mc );
+		Thread[] threads = new Thread[ 8 ];
+		for ( int i = 0; i < threads.length; i++ ) {
+			threads[i] = new Thread() {
+				public void run() {
+					for ( int j = 0; j < 5000; j++ ) {
+						racing.incr( "aggregated a" );
+						if ( j % 500 == 0 )
+							Thread.yield();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for ( int i = 0; i < 50; i++ )
+			racing.flush();
+		for ( int i = 0; i < threads.length; i++ ) {
+			try { threads[i].join(); } catch ( InterruptedException e ) {}
+		}
+		racing.flush();
+		assert mc.getLong( "aggregated a", 0 ) == 1015 + 8 * 5000;
+
+		mc.delete( "aggregated a" );
+		mc.delete( "aggregated b" );
+		log.error( "+ incr aggregator test passed" );
+	}
+
+	public static void test44() {
+		final int max = 40;
+		for ( int i = 0; i < max; i++ )
+			mc.set( "batched get " + i, "value" + i );
+		mc.delete( "batched get missing" );
+
+		mc.setGetBatching( 5000, 8 );
+
+		final Object[] results = new Object[ max + 1 ];
+		Thread[] threads = new Thread[ max + 1 ];
+		for ( int i = 0; i <= max; i++ ) {
+			final int n = i;
+			threads[i] = new Thread() {
+				public void run() {
+					results[n] = mc.get( ( n == max ) ? "batched get missing" : "batched get " + n );
+				}
+			};
+			threads[i].start();
+		}
+		for ( int i = 0; i <= max; i++ ) {
+			try { threads[i].join(); } catch ( InterruptedException e ) {}
+		}
+
+		for ( int i = 0; i < max; i++ )
+			assert ( "value" + i ).equals( results[i] );
+		assert results[max] == null;
+
+		// a lone get just waits out the window
+		assert "value0".equals( mc.get( "batched get 0" ) );
+
+		mc.setGetBatching( 0, 0 );
+
+		for ( int i = 0; i < max; i++ )
+			mc.delete( "batched get " + i );
+		log.error( "+ batched concurrent get test passed" );
+	}
+
+	public static void test45() {
+		String host = SockIOPool.getInstance( "test" ).getServers()[0];
+
+		SockIOPool pool = SockIOPool.getInstance( "breaker test" );
+		pool.setServers( new String[] { host } );
+		pool.setInitConn( 1 );
+		pool.setMaintSleep( 0 );
+		pool.setFailover( true );
+		pool.setFailback( true );
+		pool.setBreakerMinCalls( 2 );
+		pool.setBreakerFailureRate( 0.5 );
+		pool.setBreakerSlowCall( 50 );
+		pool.initialize();
+
+		MemcachedClient client = new MemcachedClient( "breaker test" );
+		try {
+			assert pool.isHostInRotation( host );
+			assert client.set( "breaker", "ok" );
+
+			// a slow reader is not a slow server
+			for ( int i = 0; i < 2; i++ ) {
+				client.getMultiStreaming( new String[] { "breaker" }, new GetMultiCallback() {
+					public void onValue( String key, Object value ) {
+						try { Thread.sleep( 100 ); } catch ( InterruptedException e ) {}
+					}
+				} );
+			}
+			assert pool.isHostInRotation( host );
+
+			// closed -> open, once half of the calls so far failed
+			for ( int i = 0; i < 20 && pool.isHostInRotation( host ); i++ ) {
+				try { pool.getConnection( host ).trueClose(); } catch ( IOException e ) {}
+			}
+			assert !pool.isHostInRotation( host );
+			assert pool.getConnection( host ) == null;
+			assert client.get( "breaker" ) == null;
+
+			// open -> half-open, which lets one trial through,
+			// and back to open when the trial fails
+			try { Thread.sleep( 1100 ); } catch ( InterruptedException e ) {}
+			SockIOPool.SockIO trial = pool.getConnection( host );
+			assert trial != null;
+			assert !pool.isHostInRotation( host );
+			assert pool.getConnection( host ) == null;
+			try { trial.trueClose(); } catch ( IOException e ) {}
+			assert !pool.isHostInRotation( host );
+
+			// the retry delay doubled; half-open -> closed
+			try { Thread.sleep( 1100 ); } catch ( InterruptedException e ) {}
+			assert pool.getConnection( host ) == null;
+			try { Thread.sleep( 1000 ); } catch ( InterruptedException e ) {}
+			assert "ok".equals( client.get( "breaker" ) );
+			assert pool.isHostInRotation( host );
+			assert "ok".equals( client.get( "breaker" ) );
+
+			client.delete( "breaker" );
+		}
+		finally {
+			pool.shutDown();
+		}
+		log.error( "+ circuit breaker state test passed" );
+	}
+
+	public static void test46() {
+		GZIPCompressor gzip = new GZIPCompressor();
+		Random r = new Random( 46 );
+
+		try {
+			byte[][] samples = new byte[4][];
+			samples[0] = new byte[0];
+			samples[1] = new byte[ 100 * 1024 ];
+			samples[2] = new byte[ 100 * 1024 ];
+			r.nextBytes( samples[2] );
+			StringBuilder sb = new StringBuilder();
+			for ( int i = 0; i < 5000; i++ )
+				sb.append( "line " ).append( i ).append( '\n' );
+			samples[3] = sb.toString().getBytes();
+
+			for ( byte[] data : samples ) {
+				// round trip
+				byte[] packed = gzip.compress( data );
+				assert Arrays.equals( data, gzip.decompress( packed ) );
+
+				// what we write, GZIPInputStream reads
+				GZIPInputStream in = new GZIPInputStream( new ByteArrayInputStream( packed ) );
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				byte[] buf = new byte[ 4096 ];
+				for ( int n; ( n = in.read( buf ) ) != -1; )
+					bos.write( buf, 0, n );
+				assert Arrays.equals( data, bos.toByteArray() );
+
+				// and what GZIPOutputStream writes, we read
+				bos = new ByteArrayOutputStream();
+				GZIPOutputStream out = new GZIPOutputStream( bos );
+				out.write( data );
+				out.close();
+				assert Arrays.equals( data, gzip.decompress( bos.toByteArray() ) );
+			}
+
+			// a trailer claiming 2GB is not believed
+			byte[] packed = gzip.compress( samples[3] );
+			packed[ packed.length - 1 ] = (byte)0x7f;
+			packed[ packed.length - 2 ] = (byte)0xff;
+			boolean refused = false;
+			try {
+				gzip.decompress( packed );
+			}
+			catch ( IOException e ) {
+				refused = true;
+			}
+			assert refused;
+		}
+		catch ( IOException e ) {
+			assert false : e;
+		}
+		log.error( "+ gzip compressor test passed" );
+	}
+
+	public static void test47() {
+		// values around and over the read buffer and the largest pooled buffer
+		int[] sizes = { 32767, 32768, 32769, 100 * 1024, 300 * 1024 };
+		String[] keys = new String[ sizes.length ];
+		byte[][] values = new byte[ sizes.length ][];
+		Random r = new Random( 47 );
+		for ( int i = 0; i < sizes.length; i++ ) {
+			keys[i] = "large multi key " + i;
+			values[i] = new byte[ sizes[i] ];
+			r.nextBytes( values[i] );
+			assert mc.set( keys[i], values[i] );
+		}
+
+		Map<String,Object> results = mc.getMulti( keys );
+		for ( int i = 0; i < sizes.length; i++ )
+			assert Arrays.equals( values[i], (byte[])results.get( keys[i] ) );
+
+		for ( int i = 0; i < sizes.length; i++ )
+			mc.delete( keys[i] );
+
+		// a key left unescaped which is not ascii makes its batch take
+		// the slow way to the wire; keys go out in the default charset,
+		// so this only round trips where that can encode them
+		if ( java.nio.charset.Charset.defaultCharset().newEncoder().canEncode( '\u00e9' ) ) {
+			mc.setMinimalKeyEscaping( true );
+			String[] mixed = { "plain multi key", "caf\u00e9 multi key", "other multi key" };
+			for ( int i = 0; i < mixed.length; i++ )
+				assert mc.set( mixed[i], "value" + i );
+
+			results = mc.getMulti( mixed );
+			for ( int i = 0; i < mixed.length; i++ )
+				assert ( "value" + i ).equals( results.get( mixed[i] ) );
+
+			for ( int i = 0; i < mixed.length; i++ )
+				mc.delete( mixed[i] );
+			mc.setMinimalKeyEscaping( false );
+		}
+
+		log.error( "+ getMulti w/ large and non-ascii values test passed" );
+	}
+
 	public static void runAlTests( MemcachedClient mc ) {
 		test14();
+		test45();
+		test46();
 		for ( int t = 0; t < 2; t++ ) {
 			mc.setCompressEnable( ( t&1 ) == 1 );
 			
@@ -289,6 +1121,27 @@ public class UnitTests {
 			test22();
 			test23();
 			test24();
+			test25();
+			test26();
+			test27();
+			test28();
+			test29();
+			test30();
+			test31( ( t&1 ) == 1 );
+			test32();
+			test33();
+			test34();
+			test35();
+			test36();
+			test37();
+			test38();
+			test39();
+			test40();
+			test41();
+			test42();
+			test43();
+			test44();
+			test47();
 			
 			for ( int i = 0; i < 3; i++ )
 				test19();